@@ -43,7 +43,7 @@ import static java.lang.Math.abs
  * RANGE matches [low, high) values in O(Log N) time.
  * SET matches repeating DISCRETE and RANGE values in O(Log N) time.
  * NEAREST finds the column matching the closest value to the input.  Runs in O(Log n) for
- * Number and Date types, O(n) for String, Point2D, Point3D, LatLon.
+ * Number and Date types, O(Log n) expected for Point2D, Point3D, LatLon (k-d tree), O(n) for String.
  * RULE fires all conditions that evaluate to true.  Runs in O(N).</pre>
  *
  * @author John DeRegnaucourt (jdereg@gmail.com)
@@ -68,7 +68,7 @@ class Axis
     public static final int SORTED = 0
     public static final int DISPLAY = 1
     private static final AtomicLong baseAxisIdForTesting = new AtomicLong(1)
-    private static final long BASE_AXIS_ID = 1000000000000L
+    protected static final long BASE_AXIS_ID = 1000000000000L
 
     private String name
     private AxisType type
@@ -87,6 +87,14 @@ class Axis
     private final transient SortedMap<Integer, Column> displayOrder = new TreeMap<>()
     private transient NavigableMap<Comparable, Column> valueToCol = new TreeMap<>()
     protected transient RangeMap<Comparable, Column> rangeToCol = TreeRangeMap.create()
+    // Lookup indexes: null until first use, NO_INDEX if there is none, dropped (null) when columns change
+    private static final Object NO_INDEX = new Object()
+    // RULE axis only: index of the simple conditions (RuleIndex)
+    private transient volatile Object ruleIndex
+    // Primitive (per value type) lookup structure (ColumnIndex)
+    private transient volatile Object columnIndex
+    // Set when the axis becomes shared (frozen n-cube, reference axis), never cleared
+    private transient volatile boolean readOnly
 
     /**
      * Implement to provide data for this Axis
@@ -204,6 +212,39 @@ class Axis
         }
     }
 
+    /**
+     * Copy constructor.  The new Axis has the same id, name, type, meta-properties and columns
+     * (column IDs are preserved), but its own columns and indexes, so either Axis can be modified
+     * without affecting the other.
+     * @param source Axis to copy
+     */
+    protected Axis(Axis source)
+    {
+        id = source.id
+        name = source.name
+        type = source.type
+        valueType = source.valueType
+        preferredOrder = source.preferredOrder
+        fireAll = source.fireAll
+        isRef = source.isRef
+        colIdBase = source.colIdBase
+        if (source.metaProps != null)
+        {
+            metaProps = new CaseInsensitiveMap<>(source.metaProps)
+        }
+        verifyAxisType()
+
+        for (Column column : source.idToCol.values())
+        {
+            Column copy = column.copy()
+            if (copy.isDefault())
+            {
+                defaultCol = copy
+            }
+            indexColumn(copy)
+        }
+    }
+
     private void verifyAxisType()
     {
         if (type == AxisType.DISCRETE || type == AxisType.NEAREST || type == AxisType.RULE)
@@ -281,6 +322,7 @@ class Axis
      */
     void breakReference()
     {
+        ensureWritable()
         isRef = false
         removeMetaProperty(REF_TENANT)
         removeMetaProperty(REF_APP)
@@ -309,6 +351,33 @@ class Axis
         return id * BASE_AXIS_ID + Integer.MAX_VALUE
     }
 
+    /**
+     * Make this Axis read-only: from now on, every method that modifies it throws an
+     * IllegalStateException.  Called when the axis is shared, by a frozen n-cube (and the n-cubes
+     * obtained from it with edit()), or by the n-cubes referring to the same reference axis.  A copy
+     * (new Axis(axis), or NCube.getAxisForWrite()) is modifiable.
+     */
+    protected void makeReadOnly()
+    {
+        readOnly = true
+    }
+
+    /**
+     * @return boolean true if this Axis is shared and cannot be modified (see makeReadOnly()).
+     */
+    boolean isReadOnly()
+    {
+        return readOnly
+    }
+
+    private void ensureWritable()
+    {
+        if (readOnly)
+        {
+            throw new IllegalStateException('Axis is shared (frozen n-cube or reference axis) and cannot be modified, use NCube.getAxisForWrite() to obtain a modifiable axis, axis: ' + name)
+        }
+    }
+
     /**
      * @return Map (case insensitive keys) containing meta (additional) properties for the n-cube.
      */
@@ -326,6 +395,7 @@ class Axis
      */
     Object setMetaProperty(String key, Object value)
     {
+        ensureWritable()
         if (metaProps == null)
         {
             metaProps = new CaseInsensitiveMap<>()
@@ -351,6 +421,7 @@ class Axis
      */
     Object removeMetaProperty(String key)
     {
+        ensureWritable()
         if (metaProps == null)
         {
             return null
@@ -364,6 +435,7 @@ class Axis
      */
     void addMetaProperties(Map<String, Object> allAtOnce)
     {
+        ensureWritable()
         if (metaProps == null)
         {
             metaProps = new CaseInsensitiveMap<>()
@@ -376,6 +448,7 @@ class Axis
      */
     void clearMetaProperties()
     {
+        ensureWritable()
         if (metaProps != null)
         {
             metaProps.clear()
@@ -397,9 +470,68 @@ class Axis
      */
     void setFireAll(boolean fireAll)
     {
+        ensureWritable()
         this.fireAll = fireAll
     }
 
+    /**
+     * @return RuleIndex of the simple conditions on this RULE axis, or null if there are none (or this
+     * is not a RULE axis).
+     */
+    protected RuleIndex getRuleIndex()
+    {
+        Object index = ruleIndex
+        if (index == null)
+        {
+            index = buildRuleIndex()
+        }
+        return index.is(NO_INDEX) ? null : (RuleIndex) index
+    }
+
+    private synchronized Object buildRuleIndex()
+    {
+        if (ruleIndex == null)
+        {
+            RuleIndex index = type == AxisType.RULE ? RuleIndex.build(idToCol.values()) : null
+            ruleIndex = index == null ? NO_INDEX : index
+        }
+        return ruleIndex
+    }
+
+    /**
+     * Drop the lookup indexes.  Synchronized with the builds, so an index being built from the columns
+     * before the change is not kept.
+     */
+    private synchronized void dropIndexes()
+    {
+        ruleIndex = null
+        columnIndex = null
+    }
+
+    /**
+     * @return ColumnIndex (sorted primitive arrays, or String hash table) for this axis, or null if there
+     * is none for its AxisType and AxisValueType.
+     */
+    private ColumnIndex getColumnIndex()
+    {
+        Object index = columnIndex
+        if (index == null)
+        {
+            index = buildColumnIndex()
+        }
+        return index.is(NO_INDEX) ? null : (ColumnIndex) index
+    }
+
+    private synchronized Object buildColumnIndex()
+    {
+        if (columnIndex == null)
+        {
+            ColumnIndex index = ColumnIndex.build(type, valueType, getColumnsWithoutDefault())
+            columnIndex = index == null ? NO_INDEX : index
+        }
+        return columnIndex
+    }
+
     /**
      * Use Column id to retrieve column (hash map lookup), O(1)
      */
@@ -414,6 +546,8 @@ class Axis
      */
     private void indexColumn(Column column)
     {
+        dropIndexes()
+
         // 1: Index columns by ID
         idToCol[column.id] = column
 
@@ -502,6 +636,7 @@ class Axis
 
     protected void setName(String name)
     {
+        ensureWritable()
         this.name = name
     }
 
@@ -515,7 +650,9 @@ class Axis
 
     protected void setType(AxisType newType)
     {
+        ensureWritable()
         type = newType
+        dropIndexes()
     }
 
     /**
@@ -528,11 +665,15 @@ class Axis
 
     protected void setValueType(AxisValueType newValueType)
     {
+        ensureWritable()
         valueType = newValueType
+        dropIndexes()
     }
 
     protected void clear()
     {
+        ensureWritable()
+        dropIndexes()
         idToCol.clear()
         colNameToCol.clear()
         displayOrder.clear()
@@ -688,6 +829,7 @@ class Axis
      */
     Column addColumn(Comparable value, String colName, Long suggestedId)
     {
+        ensureWritable()
         final Column column = createColumnFromValue(value, suggestedId)
         if (StringUtilities.hasContent(colName))
         {
@@ -699,6 +841,7 @@ class Axis
 
     protected Column addColumnInternal(Column column)
     {
+        ensureWritable()
         ensureUnique(column.getValue())
 
         if (column.value == null)
@@ -735,6 +878,7 @@ class Axis
 
     protected Column deleteColumnById(long colId)
     {
+        ensureWritable()
         if (isRef)
         {
             throw new IllegalStateException('You cannot delete columns from a reference Axis, axis: ' + name)
@@ -758,6 +902,7 @@ class Axis
 
     private void removeColumnFromIndex(Column col)
     {
+        dropIndexes()
         // Remove from col id to column map
         idToCol.remove(col.id)
         colNameToCol.remove(col.getColumnName())
@@ -803,6 +948,7 @@ class Axis
      */
     void updateColumn(long colId, Comparable value)
     {
+        ensureWritable()
         if (isRef)
         {
             throw new IllegalStateException('You cannot update columns on a reference Axis, axis: ' + name)
@@ -834,6 +980,7 @@ class Axis
      */
     Set<Long> updateColumns(Collection<Column> newCols)
     {
+        ensureWritable()
         if (isRef)
         {
             throw new IllegalStateException('You cannot update columns on a reference Axis, axis: ' + name)
@@ -1085,6 +1232,7 @@ class Axis
      */
     void setColumnOrder(int order)
     {
+        ensureWritable()
         preferredOrder = order
     }
 
@@ -1348,6 +1496,12 @@ class Axis
         }
 
         final Comparable promotedValue = promoteValue(valueType, value)
+        final ColumnIndex index = getColumnIndex()
+        if (index != null)
+        {
+            Column column = index.find(promotedValue)
+            return column == null ? defaultCol : column
+        }
 
         if (type == AxisType.DISCRETE)
         {
@@ -1385,6 +1539,42 @@ class Axis
         }
     }
 
+    /**
+     * Locate the column (value) along an axis, without boxing the value on LONG and DATE (epoch millis)
+     * axes.  Same as findColumn(Long.valueOf(value)).
+     */
+    Column findColumn(long value)
+    {
+        if (valueType == AxisValueType.LONG || valueType == AxisValueType.DATE)
+        {
+            final ColumnIndex index = getColumnIndex()
+            if (index != null)
+            {
+                Column column = index.find(value)
+                return column == null ? defaultCol : column
+            }
+        }
+        return findColumn((Comparable) Long.valueOf(value))
+    }
+
+    /**
+     * Locate the column (value) along an axis, without boxing the value on DOUBLE axes.  Same as
+     * findColumn(Double.valueOf(value)).
+     */
+    Column findColumn(double value)
+    {
+        if (valueType == AxisValueType.DOUBLE)
+        {
+            final ColumnIndex index = getColumnIndex()
+            if (index != null)
+            {
+                Column column = index.find(value)
+                return column == null ? defaultCol : column
+            }
+        }
+        return findColumn((Comparable) Double.valueOf(value))
+    }
+
     /**
      * Locate a column on an axis using the 'name' meta property.  If the value passed in matches no names, then
      * null will be returned.
@@ -1505,8 +1695,7 @@ class Axis
      */
     private boolean doesOverlap(Range range)
     {
-        RangeMap ranges = rangeToCol.subRangeMap(valueToRange(range))
-        return ranges.asMapOfRanges().size() > 0
+        return overlaps(range)
     }
 
     /**
@@ -1517,12 +1706,10 @@ class Axis
      */
     private boolean doesOverlap(RangeSet set)
     {
-        Iterator<Comparable> i = set.iterator()
-        while (i.hasNext())
+        final int len = set.size()
+        for (int i = 0; i < len; i++)
         {
-            Comparable item = i.next()
-            RangeMap rangeMap = rangeToCol.subRangeMap(valueToRange(item))
-            if (rangeMap.asMapOfRanges().size() > 0)
+            if (overlaps(set.get(i)))
             {
                 return true
             }
@@ -1530,6 +1717,20 @@ class Axis
         return false
     }
 
+    /**
+     * @return true if the passed in Range or single value intersects a range already on this axis.
+     * O(Log n): a single value is one RangeMap lookup, a Range only checks for a first intersecting
+     * entry (no sub-map is materialized).
+     */
+    private boolean overlaps(Comparable item)
+    {
+        if (item instanceof Range)
+        {
+            return rangeToCol.subRangeMap(valueToRange(item)).asMapOfRanges().entrySet().iterator().hasNext()
+        }
+        return rangeToCol.get(item) != null
+    }
+
     /**
      * @return List<Column> representing all of the Columns on this list.  This is a copy, so operations
      * on the List will not affect the Axis columns.  However, the Column instances inside the List are
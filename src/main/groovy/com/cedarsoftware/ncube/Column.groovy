@@ -36,6 +36,8 @@ import groovy.transform.CompileStatic
 class Column implements Comparable<Comparable>
 {
     public static final String NAME = "name"
+    // Meta-property declaring that a RULE axis column's condition has no side effects (see NCube.setConditionExecutor())
+    public static final String SIDE_EFFECT_FREE = "sideEffectFree"
     protected long id
     private int displayOrder
     private Comparable value
@@ -56,6 +58,21 @@ class Column implements Comparable<Comparable>
         }
     }
 
+    /**
+     * @return Column with the same id, value, and display order as this Column, holding its own
+     * copy of the meta-properties.  The value is shared (column values are not modified in place).
+     */
+    protected Column copy()
+    {
+        Column column = new Column(value, id)
+        column.displayOrder = displayOrder
+        if (metaProps != null)
+        {
+            column.metaProps = new CaseInsensitiveMap<>(metaProps)
+        }
+        return column
+    }
+
     /**
      * @return Map (case insensitive keys) containing meta (additional) properties for the n-cube.
      */
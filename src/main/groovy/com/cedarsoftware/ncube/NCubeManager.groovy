@@ -494,6 +494,7 @@ class NCubeManager
             {
                 clearCache(appId1)
             }
+            ReferenceAxisRegistry.clear()
         }
     }
 
@@ -1150,9 +1151,9 @@ class NCubeManager
             // to HEAD to be merged into.
             baseCube = branchCube.duplicate(info.name)
             baseCube.clearCells()
-            for (Axis axis : baseCube.getAxes())
+            for (String axisName : baseCube.getAxisNames())
             {
-                axis.clear()
+                baseCube.getAxisForWrite(axisName).clear()
             }
         }
 
@@ -1768,7 +1769,7 @@ class NCubeManager
         {
             axisRef.with {
                 NCube ncube = getPersister().loadCube(srcAppId, srcCubeName)
-                Axis axis = ncube.getAxis(srcAxisName)
+                Axis axis = ncube.getAxisForWrite(srcAxisName)
 
                 if (axis.isReference())
                 {
@@ -0,0 +1,126 @@
+package com.cedarsoftware.ncube
+
+import com.cedarsoftware.util.CaseInsensitiveMap
+import com.cedarsoftware.util.StringUtilities
+import com.google.common.collect.MapMaker
+import groovy.transform.CompileStatic
+
+import java.util.concurrent.ConcurrentMap
+
+import static com.cedarsoftware.ncube.ReferenceAxisLoader.REF_APP
+import static com.cedarsoftware.ncube.ReferenceAxisLoader.REF_BRANCH
+import static com.cedarsoftware.ncube.ReferenceAxisLoader.REF_CUBE_NAME
+import static com.cedarsoftware.ncube.ReferenceAxisLoader.REF_STATUS
+import static com.cedarsoftware.ncube.ReferenceAxisLoader.REF_TENANT
+import static com.cedarsoftware.ncube.ReferenceAxisLoader.REF_VERSION
+import static com.cedarsoftware.ncube.ReferenceAxisLoader.TRANSFORM_APP
+import static com.cedarsoftware.ncube.ReferenceAxisLoader.TRANSFORM_CUBE_NAME
+
+/**
+ * Registry of loaded reference axes, so that all the n-cubes referring to the same axis (same
+ * referenced n-cube, axis, and version, and the same axis name, id, default column, and meta-properties
+ * on the referring side) share one Axis instance - its columns, meta-properties, and lookup indexes -
+ * instead of each holding a copy.
+ *
+ * Shared axes are never modified: an n-cube holding one copies it the first time the axis is changed
+ * through it (including breakAxisReference()) or handed out by NCube.getAxisForWrite(), exactly like
+ * the axes of an n-cube created with edit() from a frozen n-cube.  NCube.getAxis() and getAxes() hand
+ * out the shared instance, which is read-only (Axis.makeReadOnly()), so it cannot be changed by mistake.
+ *
+ * Entries are kept per referenced NCube instance (held weakly, compared by identity), so when the
+ * referenced n-cube is reloaded or dropped from the cache, the axes built from the old instance are
+ * no longer handed out.  Axes with a transformer are built per referring n-cube, as the transformer
+ * may not produce the same columns twice.
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License")
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+@CompileStatic
+final class ReferenceAxisRegistry
+{
+    private static final ConcurrentMap<NCube, ConcurrentMap<String, Axis>> registry = new MapMaker().weakKeys().makeMap()
+
+    private ReferenceAxisRegistry() { }
+
+    /**
+     * @param containingCubeName String name of cube that holds the referring axis
+     * @param axisName String name of the referring axis
+     * @param id long id of the referring axis
+     * @param hasDefault boolean true if the referring axis has a default column
+     * @param args Map of the reference (and optional transformer) key-value pairs, plus any meta-properties
+     * of the referring axis, as passed to ReferenceAxisLoader.
+     * @return Axis loaded from the reference, shared with all other n-cubes that refer to the same axis
+     * in the same way.  The returned Axis is read-only (Axis.makeReadOnly()), unless it is built for the
+     * referring n-cube alone (reference with a transformer, or referenced n-cube not found).
+     */
+    static Axis getAxis(String containingCubeName, String axisName, long id, boolean hasDefault, Map<String, Object> args)
+    {
+        ReferenceAxisLoader loader = new ReferenceAxisLoader(containingCubeName, axisName, args)
+        Map<String, Object> props = new CaseInsensitiveMap<>(args)
+        if (StringUtilities.hasContent(props[TRANSFORM_APP] as String) || StringUtilities.hasContent(props[TRANSFORM_CUBE_NAME] as String))
+        {
+            return new Axis(axisName, id, hasDefault, loader)
+        }
+
+        NCube refCube = null
+        if (StringUtilities.hasContent(props[REF_APP] as String) && StringUtilities.hasContent(props[REF_CUBE_NAME] as String))
+        {
+            ApplicationID refApp = new ApplicationID(props[REF_TENANT] as String,
+                    props[REF_APP] as String,
+                    props[REF_VERSION] as String,
+                    (props[REF_STATUS] as String) ?: ReleaseStatus.RELEASE,
+                    (props[REF_BRANCH] as String) ?: ApplicationID.HEAD)
+            refCube = NCubeManager.getCube(refApp, props[REF_CUBE_NAME] as String)
+        }
+        if (refCube == null)
+        {   // Let the loader report what is missing
+            return new Axis(axisName, id, hasDefault, loader)
+        }
+
+        ConcurrentMap<String, Axis> axes = registry[refCube]
+        if (axes == null)
+        {
+            axes = new MapMaker().makeMap()
+            ConcurrentMap<String, Axis> mapRef = registry.putIfAbsent(refCube, axes)
+            if (mapRef != null)
+            {
+                axes = mapRef
+            }
+        }
+
+        String key = axisName + '|' + id + '|' + hasDefault + '|' + new TreeMap<String, Object>(props).toString()
+        Axis axis = axes[key]
+        if (axis == null)
+        {
+            axis = new Axis(axisName, id, hasDefault, loader)
+            axis.makeReadOnly()
+            Axis axisRef = axes.putIfAbsent(key, axis)
+            if (axisRef != null)
+            {
+                axis = axisRef
+            }
+        }
+        return axis
+    }
+
+    /**
+     * Forget all shared reference axes.  n-cubes already holding them keep them.
+     */
+    static void clear()
+    {
+        registry.clear()
+    }
+}
@@ -35,6 +35,10 @@ class RuleInfo extends CaseInsensitiveMap<String, Object>
     public static final String LAST_EXECUTED_STATEMENT = 'LAST_EXECUTED_STATEMENT'
     public static final String AXIS_BINDINGS = 'AXIS_BINDINGS'
     public static final String INPUT_KEYS_USED = 'INPUT_KEYS_ACCESSED'
+    // Held as a field (not an entry) so it is never part of the reported rule information
+    private transient ExecutionContext executionContext
+    // Per call chain override of the n-cube RULE_TRACE setting (null: use the n-cube setting)
+    private transient Boolean trace
 
     RuleInfo()
     {
@@ -149,4 +153,37 @@ class RuleInfo extends CaseInsensitiveMap<String, Object>
     {
         getInputKeysUsed().addAll(keys)
     }
+
+    /**
+     * Turn the recording of axis bindings and input keys used on (true) or off (false) for every
+     * getCell() call made with the output Map holding this RuleInfo, overriding the RULE_TRACE
+     * meta-property of the n-cubes.  Pass null to go back to the n-cube setting.  When off, no Binding
+     * is created, getAxisBindings() and getInputKeysUsed() stay empty, and the input is not tracked.
+     * Example: NCube.getRuleInfo(output).setTrace(false); ncube.getCell(input, output)
+     */
+    void setTrace(Boolean trace)
+    {
+        this.trace = trace
+    }
+
+    /**
+     * @return Boolean trace setting of this call chain, or null if the n-cube setting applies.
+     */
+    Boolean getTrace()
+    {
+        return trace
+    }
+
+    /**
+     * @return ExecutionContext (cell execution stack) of the getCell() call chain that shares this
+     * RuleInfo (and therefore its output Map).
+     */
+    ExecutionContext getExecutionContext()
+    {
+        if (executionContext == null)
+        {
+            executionContext = new ExecutionContext()
+        }
+        return executionContext
+    }
 }
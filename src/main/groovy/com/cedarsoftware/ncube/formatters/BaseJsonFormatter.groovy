@@ -37,7 +37,7 @@ public class BaseJsonFormatter
 
     BaseJsonFormatter(OutputStream stream)
     {
-        builder = new OutputStreamWriter(stream)
+        builder = new OutputStreamWriter(stream, 'UTF-8')
     }
 
     void startArray()
@@ -0,0 +1,675 @@
+package com.cedarsoftware.ncube;
+
+import com.cedarsoftware.ncube.exception.CoordinateNotFoundException;
+import com.cedarsoftware.ncube.util.LongHashSet;
+import com.cedarsoftware.util.CaseInsensitiveMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Versioned binary format of an n-cube, read straight from a ByteBuffer (e.g. a MappedByteBuffer
+ * of a file), so that loading a cube involves no decompression, no JSON tokenizing, and no String
+ * to value type dispatch for primitive values.
+ * <pre>
+ *     header       int MAGIC ('NCUB'), short VERSION
+ *     value pool   int count, int[count] offsets of the entries (from the start of the buffer), int
+ *                  offset of the cube (the end of the pool)
+ *                  entries: tag byte + payload.  Every distinct value (name, meta-property key or
+ *                  value, column value, cell value) is stored once.  An entry is decoded the
+ *                  first time it is referenced.
+ *     cube         ref name, ref default cell value, meta-properties
+ *     axes         int count, per axis: ref name, long id, ref type, ref valueType, int preferredOrder,
+ *                  byte flags (fireAll, hasDefault, reference), meta-properties, columns
+ *                  (long id, ref value, meta-properties - none on a reference axis), and the
+ *                  column table: long[] ids of the columns (default last), whose positions are the
+ *                  column ordinals used by the cells
+ *     cells        int count, per cell: one column ordinal per axis (1, 2, or 4 bytes, depending
+ *                  on the number of columns of the axis), ref value
+ * </pre>
+ * 'ref' is an int index into the value pool, meta-properties are an int count followed by ref key,
+ * ref value pairs.  Long, Double, Boolean, Date, Integer, Float, Short, Byte, BigDecimal, BigInteger,
+ * byte[], Range and RangeSet values are stored natively, all other values (Groovy cells, URL cells,
+ * points) as their CellInfo (type, value, url, cache).  Columns and cells are stored exactly as the
+ * JSON format stores them, so a cube read back has the same sha1().
+ *
+ * With lazy cell hydration (NCube.setLazyCellHydration()), a cell whose value has not been decoded yet
+ * keeps the pool position of its value and decodes it when first read, so the buffer stays referenced
+ * until the cells are materialized.
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+final class BinaryCubeFormat
+{
+    static final int MAGIC = 0x4E435542;    // 'NCUB'
+    static final short VERSION = 1;
+
+    private static final byte NULL = 0;
+    private static final byte STRING = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte TRUE = 4;
+    private static final byte FALSE = 5;
+    private static final byte DATE = 6;
+    private static final byte INT = 7;
+    private static final byte FLOAT = 8;
+    private static final byte SHORT = 9;
+    private static final byte BYTE = 10;
+    private static final byte BIG_DECIMAL = 11;
+    private static final byte BIG_INTEGER = 12;
+    private static final byte BYTES = 13;
+    private static final byte RANGE = 14;
+    private static final byte RANGE_SET = 15;
+    private static final byte CELL_INFO = 16;
+
+    private static final int FIRE_ALL = 1;
+    private static final int HAS_DEFAULT = 2;
+    private static final int REFERENCE = 4;
+
+    private static final Object UNDECODED = new Object();
+    private static final Object MUTABLE = new Object();
+
+    private BinaryCubeFormat() { }
+
+    /**
+     * @return true if the passed in bytes (at least 2) are the start of an n-cube in this format.
+     */
+    static boolean isBinary(byte[] header)
+    {
+        return header.length >= 2 && header[0] == (byte) (MAGIC >>> 24) && header[1] == (byte) (MAGIC >>> 16);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Writing
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Write the passed in n-cube to the stream in the binary format.  The stream is not closed.
+     */
+    static void write(NCube<?> ncube, OutputStream out) throws IOException
+    {
+        final Pool pool = new Pool();
+        final ByteArrayOutputStream bodyBytes = new ByteArrayOutputStream();
+        final DataOutputStream body = new DataOutputStream(bodyBytes);
+
+        body.writeInt(pool.ref(ncube.getName()));
+        body.writeInt(pool.ref(ncube.getDefaultCellValue()));
+        writeMeta(body, pool, ncube.getMetaProperties());
+
+        final List<Axis> axes = ncube.getAxes();
+        final Map<Long, Integer> axisIndex = new HashMap<>();
+        final List<Map<Long, Integer>> ordinals = new ArrayList<>();
+        final int[] widths = new int[axes.size()];
+        body.writeInt(axes.size());
+        for (int i = 0; i < axes.size(); i++)
+        {
+            final Axis axis = axes.get(i);
+            axisIndex.put(axis.id, i);
+            body.writeInt(pool.ref(axis.getName()));
+            body.writeLong(axis.id);
+            body.writeInt(pool.ref(axis.getType().name()));
+            body.writeInt(pool.ref(axis.getValueType().name()));
+            body.writeInt(axis.getColumnOrder());
+            int flags = axis.isFireAll() ? FIRE_ALL : 0;
+            flags |= axis.hasDefaultColumn() ? HAS_DEFAULT : 0;
+            flags |= axis.isReference() ? REFERENCE : 0;
+            body.writeByte(flags);
+            writeMeta(body, pool, axis.getMetaProperties());
+
+            final List<Column> columns = axis.getColumnsWithoutDefault();
+            if (axis.isReference())
+            {   // Columns come from the referenced axis
+                body.writeInt(0);
+            }
+            else
+            {
+                body.writeInt(columns.size());
+                for (Column column : columns)
+                {
+                    body.writeLong(column.getId());
+                    body.writeInt(pool.ref(column.getValue()));
+                    writeMeta(body, pool, column.getMetaProperties());
+                }
+            }
+
+            final Map<Long, Integer> axisOrdinals = new HashMap<>();
+            final int count = columns.size() + (axis.hasDefaultColumn() ? 1 : 0);
+            body.writeInt(count);
+            for (Column column : columns)
+            {
+                axisOrdinals.put(column.getId(), axisOrdinals.size());
+                body.writeLong(column.getId());
+            }
+            if (axis.hasDefaultColumn())
+            {
+                axisOrdinals.put(axis.getDefaultColumn().getId(), axisOrdinals.size());
+                body.writeLong(axis.getDefaultColumn().getId());
+            }
+            ordinals.add(axisOrdinals);
+            widths[i] = widthFor(count);
+        }
+
+        final Map<Set<Long>, ?> cells = ncube.getCellMap();
+        body.writeInt(cells.size());
+        final int[] coord = new int[axes.size()];
+        for (Map.Entry<Set<Long>, ?> entry : cells.entrySet())
+        {
+            for (Long colId : entry.getKey())
+            {
+                final int axis = axisIndex.get(colId / Axis.BASE_AXIS_ID);
+                coord[axis] = ordinals.get(axis).get(colId);
+            }
+            for (int i = 0; i < coord.length; i++)
+            {
+                writeOrdinal(body, widths[i], coord[i]);
+            }
+            body.writeInt(pool.ref(entry.getValue()));
+        }
+        body.flush();
+
+        final DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeShort(VERSION);
+        header.writeInt(pool.size());
+        int offset = 4 + 2 + 4 + 4 * pool.size() + 4;
+        for (int i = 0; i < pool.size(); i++)
+        {
+            header.writeInt(offset);
+            offset += pool.entries.get(i).length;
+        }
+        header.writeInt(offset);
+        for (byte[] entry : pool.entries)
+        {
+            header.write(entry);
+        }
+        bodyBytes.writeTo(header);
+        header.flush();
+    }
+
+    private static void writeMeta(DataOutputStream out, Pool pool, Map<String, Object> meta) throws IOException
+    {
+        out.writeInt(meta.size());
+        for (Map.Entry<String, Object> entry : meta.entrySet())
+        {
+            out.writeInt(pool.ref(entry.getKey()));
+            out.writeInt(pool.ref(entry.getValue()));
+        }
+    }
+
+    private static int widthFor(int count)
+    {
+        return count <= 0xFF ? 1 : count <= 0xFFFF ? 2 : 4;
+    }
+
+    private static void writeOrdinal(DataOutputStream out, int width, int ordinal) throws IOException
+    {
+        if (width == 1)
+        {
+            out.writeByte(ordinal);
+        }
+        else if (width == 2)
+        {
+            out.writeShort(ordinal);
+        }
+        else
+        {
+            out.writeInt(ordinal);
+        }
+    }
+
+    /**
+     * Distinct encoded values, in order of first use.
+     */
+    private static final class Pool
+    {
+        private final List<byte[]> entries = new ArrayList<>();
+        private final Map<ByteBuffer, Integer> index = new HashMap<>();
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+
+        int ref(Object value) throws IOException
+        {
+            bytes.reset();
+            encode(out, value);
+            out.flush();
+            final byte[] entry = bytes.toByteArray();
+            final ByteBuffer key = ByteBuffer.wrap(entry);
+            Integer ref = index.get(key);
+            if (ref == null)
+            {
+                ref = entries.size();
+                entries.add(entry);
+                index.put(key, ref);
+            }
+            return ref;
+        }
+
+        int size()
+        {
+            return entries.size();
+        }
+    }
+
+    private static void encode(DataOutputStream out, Object value) throws IOException
+    {
+        if (value == null)
+        {
+            out.writeByte(NULL);
+        }
+        else if (value instanceof String)
+        {
+            out.writeByte(STRING);
+            writeString(out, (String) value);
+        }
+        else if (value instanceof Long)
+        {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        }
+        else if (value instanceof Double)
+        {
+            out.writeByte(DOUBLE);
+            out.writeDouble((Double) value);
+        }
+        else if (value instanceof Boolean)
+        {
+            out.writeByte((Boolean) value ? TRUE : FALSE);
+        }
+        else if (value instanceof Date)
+        {
+            out.writeByte(DATE);
+            out.writeLong(((Date) value).getTime());
+        }
+        else if (value instanceof Integer)
+        {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        }
+        else if (value instanceof Float)
+        {
+            out.writeByte(FLOAT);
+            out.writeFloat((Float) value);
+        }
+        else if (value instanceof Short)
+        {
+            out.writeByte(SHORT);
+            out.writeShort((Short) value);
+        }
+        else if (value instanceof Byte)
+        {
+            out.writeByte(BYTE);
+            out.writeByte((Byte) value);
+        }
+        else if (value instanceof BigDecimal)
+        {
+            out.writeByte(BIG_DECIMAL);
+            writeString(out, value.toString());
+        }
+        else if (value instanceof BigInteger)
+        {
+            out.writeByte(BIG_INTEGER);
+            writeString(out, value.toString());
+        }
+        else if (value instanceof byte[])
+        {
+            final byte[] data = (byte[]) value;
+            out.writeByte(BYTES);
+            out.writeInt(data.length);
+            out.write(data);
+        }
+        else if (value instanceof Range)
+        {
+            final Range range = (Range) value;
+            out.writeByte(RANGE);
+            encode(out, range.getLow());
+            encode(out, range.getHigh());
+        }
+        else if (value instanceof RangeSet)
+        {
+            final RangeSet set = (RangeSet) value;
+            out.writeByte(RANGE_SET);
+            out.writeInt(set.size());
+            for (int i = 0; i < set.size(); i++)
+            {
+                encode(out, set.get(i));
+            }
+        }
+        else
+        {   // Groovy and URL cells, points - throws IllegalArgumentException for unsupported types
+            final CellInfo info = new CellInfo(value);
+            out.writeByte(CELL_INFO);
+            writeString(out, info.dataType);
+            writeString(out, info.value);
+            out.writeByte((info.isUrl ? 1 : 0) | (info.isCached ? 2 : 0));
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        final byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    // ---------------------------------------------------------------------------------------------
+    // Reading
+    // ---------------------------------------------------------------------------------------------
+
+    /**
+     * Build an n-cube from the binary format, starting at the current position of the passed in buffer
+     * (the buffer itself is not modified).
+     */
+    static <T> NCube<T> read(ByteBuffer source)
+    {
+        final ByteBuffer in = source.slice().order(ByteOrder.BIG_ENDIAN);
+        if (in.remaining() < 6 || in.getInt() != MAGIC)
+        {
+            throw new IllegalArgumentException("Not an n-cube in binary format");
+        }
+        final short version = in.getShort();
+        if (version != VERSION)
+        {
+            throw new IllegalArgumentException("Unsupported n-cube binary format version: " + version);
+        }
+        final ValuePool pool = new ValuePool(in);
+
+        final NCube<T> ncube = new NCube<>((String) pool.get(in.getInt()));
+        ncube.setDefaultCellValue((T) pool.get(in.getInt()));
+        final Map<String, Object> cubeMeta = readMeta(in, pool);
+        if (cubeMeta != null)
+        {
+            ncube.addMetaProperties(cubeMeta);
+        }
+
+        final int numAxes = in.getInt();
+        final long[][] columnIds = new long[numAxes][];
+        final int[] widths = new int[numAxes];
+        for (int i = 0; i < numAxes; i++)
+        {
+            final String axisName = (String) pool.get(in.getInt());
+            final long id = in.getLong();
+            final AxisType type = AxisType.valueOf((String) pool.get(in.getInt()));
+            final AxisValueType valueType = AxisValueType.valueOf((String) pool.get(in.getInt()));
+            final int preferredOrder = in.getInt();
+            final int flags = in.get();
+            final boolean hasDefault = (flags & HAS_DEFAULT) != 0;
+            final Map<String, Object> axisMeta = readMeta(in, pool);
+
+            final Axis axis;
+            if ((flags & REFERENCE) != 0)
+            {
+                final Map<String, Object> args = axisMeta == null ? new CaseInsensitiveMap<String, Object>() : axisMeta;
+                axis = ReferenceAxisRegistry.getAxis(ncube.getName(), axisName, id, hasDefault, args);
+                ncube.addSharedAxis(axis);
+            }
+            else
+            {
+                axis = new Axis(axisName, type, valueType, hasDefault, preferredOrder, id, (flags & FIRE_ALL) != 0);
+                ncube.addAxis(axis);
+                if (axisMeta != null)
+                {
+                    for (Map.Entry<String, Object> entry : axisMeta.entrySet())
+                    {
+                        axis.setMetaProperty(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+
+            final int numColumns = in.getInt();
+            for (int j = 0; j < numColumns; j++)
+            {
+                final long colId = in.getLong();
+                final Comparable value = (Comparable) pool.get(in.getInt());
+                final Map<String, Object> colMeta = readMeta(in, pool);
+                final String colName = colMeta == null ? null : (String) colMeta.get(Column.NAME);
+                final Column column = axis.addColumn(value, colName, colId);
+                if (colMeta != null)
+                {
+                    for (Map.Entry<String, Object> entry : colMeta.entrySet())
+                    {
+                        column.setMetaProperty(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+
+            final int count = in.getInt();
+            columnIds[i] = new long[count];
+            for (int j = 0; j < count; j++)
+            {
+                columnIds[i][j] = in.getLong();
+            }
+            widths[i] = widthFor(count);
+        }
+
+        final boolean lazy = NCube.isLazyCellHydration();
+        final int numCells = in.getInt();
+        for (int i = 0; i < numCells; i++)
+        {
+            final Set<Long> ids = new LongHashSet();
+            for (int j = 0; j < numAxes; j++)
+            {
+                ids.add(columnIds[j][readOrdinal(in, widths[j])]);
+            }
+            final int ref = in.getInt();
+            final Object value = lazy && !pool.isDecoded(ref) ? new PooledCell(pool, ref) : pool.get(ref);
+            try
+            {
+                ncube.setCellById((T) value, ids);
+            }
+            catch (CoordinateNotFoundException ignored)
+            {   // Column no longer on a reference axis - same as an orphaned cell in the JSON format
+            }
+        }
+        ncube.clearSha1();
+        return ncube;
+    }
+
+    private static Map<String, Object> readMeta(ByteBuffer in, ValuePool pool)
+    {
+        final int count = in.getInt();
+        if (count == 0)
+        {
+            return null;
+        }
+        final Map<String, Object> meta = new CaseInsensitiveMap<>();
+        for (int i = 0; i < count; i++)
+        {
+            final String key = (String) pool.get(in.getInt());
+            meta.put(key, pool.get(in.getInt()));
+        }
+        return meta;
+    }
+
+    private static int readOrdinal(ByteBuffer in, int width)
+    {
+        if (width == 1)
+        {
+            return in.get() & 0xFF;
+        }
+        if (width == 2)
+        {
+            return in.getShort() & 0xFFFF;
+        }
+        return in.getInt();
+    }
+
+    /**
+     * Value pool of a buffer, decoding each entry on first use.  Synchronized, as the cells of a lazily
+     * hydrated n-cube decode their values when first read, from any thread.  Immutable values are kept
+     * and shared by every reference to the entry.  Mutable values (Date, byte[], Range, RangeSet) are
+     * decoded again for each reference, so that changing one cell or column does not change the others.
+     */
+    private static final class ValuePool
+    {
+        private final ByteBuffer buffer;
+        private final int[] offsets;
+        private final Object[] values;
+
+        ValuePool(ByteBuffer in)
+        {
+            buffer = in;
+            final int count = in.getInt();
+            offsets = new int[count];
+            values = new Object[count];
+            for (int i = 0; i < count; i++)
+            {
+                offsets[i] = in.getInt();
+                values[i] = UNDECODED;
+            }
+            in.position(in.getInt());
+        }
+
+        synchronized boolean isDecoded(int ref)
+        {
+            return values[ref] != UNDECODED;
+        }
+
+        synchronized Object get(int ref)
+        {
+            Object value = values[ref];
+            if (value == UNDECODED)
+            {
+                value = decodeEntry(ref);
+                values[ref] = isMutable(value) ? MUTABLE : value;
+            }
+            else if (value == MUTABLE)
+            {
+                value = decodeEntry(ref);
+            }
+            return value;
+        }
+
+        private Object decodeEntry(int ref)
+        {
+            final ByteBuffer entry = buffer.duplicate();
+            entry.position(offsets[ref]);
+            return decode(entry);
+        }
+
+        private static boolean isMutable(Object value)
+        {
+            return value instanceof Date || value instanceof byte[] || value instanceof Range || value instanceof RangeSet;
+        }
+    }
+
+    /**
+     * Cell value not decoded yet (lazy cell hydration), decoded from the pool on first read.
+     */
+    private static final class PooledCell extends UnparsedCell
+    {
+        private final ValuePool pool;
+        private final int ref;
+
+        PooledCell(ValuePool pool, int ref)
+        {
+            this.pool = pool;
+            this.ref = ref;
+        }
+
+        protected Object parse()
+        {
+            return pool.get(ref);
+        }
+    }
+
+    private static Object decode(ByteBuffer in)
+    {
+        final byte tag = in.get();
+        switch (tag)
+        {
+            case NULL:
+                return null;
+            case STRING:
+                return readString(in);
+            case LONG:
+                return in.getLong();
+            case DOUBLE:
+                return in.getDouble();
+            case TRUE:
+                return Boolean.TRUE;
+            case FALSE:
+                return Boolean.FALSE;
+            case DATE:
+                return new Date(in.getLong());
+            case INT:
+                return in.getInt();
+            case FLOAT:
+                return in.getFloat();
+            case SHORT:
+                return in.getShort();
+            case BYTE:
+                return in.get();
+            case BIG_DECIMAL:
+                return new BigDecimal(readString(in));
+            case BIG_INTEGER:
+                return new BigInteger(readString(in));
+            case BYTES:
+                final byte[] data = new byte[in.getInt()];
+                in.get(data);
+                return data;
+            case RANGE:
+                final Comparable low = (Comparable) decode(in);
+                return new Range(low, (Comparable) decode(in));
+            case RANGE_SET:
+                final int count = in.getInt();
+                final RangeSet set = new RangeSet();
+                for (int i = 0; i < count; i++)
+                {
+                    set.add((Comparable) decode(in));
+                }
+                return set;
+            case CELL_INFO:
+                final String type = readString(in);
+                final String value = readString(in);
+                final int flags = in.get();
+                return new CellInfo(type, value, (flags & 1) != 0, (flags & 2) != 0).recreate();
+            default:
+                throw new IllegalArgumentException("Unknown value tag in n-cube binary format: " + tag);
+        }
+    }
+
+    private static String readString(ByteBuffer in)
+    {
+        final int length = in.getInt();
+        final String s;
+        if (in.hasArray())
+        {
+            s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        }
+        else
+        {   // Direct or mapped buffer
+            final byte[] utf8 = new byte[length];
+            in.duplicate().get(utf8);
+            s = new String(utf8, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + length);
+        return s;
+    }
+}
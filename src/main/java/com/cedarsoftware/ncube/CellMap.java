@@ -0,0 +1,1401 @@
+package com.cedarsoftware.ncube;
+
+import com.cedarsoftware.ncube.util.LongHashSet;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Cell storage for an NCube.  Each cell coordinate (Set of column IDs) is encoded
+ * as a packed primitive key: every axis is assigned a 'dimension', every column on
+ * that axis an ordinal (1..n, 0 means 'no column on this axis'), and the ordinals
+ * are bit-packed into a long (or a long[] stride when the cube is too wide to fit
+ * in 63 bits).  Keys are stored in a flat long[] and located through an open-addressing
+ * int[] index, so no Set<Long> or boxed Long is kept per cell.
+ *
+ * When the cube becomes mostly populated (the number of cells divided by the product of
+ * the number of columns referenced on each axis reaches DENSE_FILL_RATIO), the storage
+ * switches to a dense layout: a flat Object[] indexed by the mixed-radix combination of the
+ * column ordinals.  Dense lookups are pure index arithmetic.  The storage switches back to
+ * the sparse layout if the fill ratio later drops below SPARSE_FILL_RATIO.
+ *
+ * Removing every cell that references a column (deleteColumn(), updateColumns()) only touches
+ * the affected cells: in the dense layout they are enumerated by index arithmetic, in the sparse
+ * layout through per-column posting lists (column ordinal to entry indexes).  The posting lists
+ * are built the first time a column is removed and maintained from then on, so cubes that are
+ * never edited do not pay for them.
+ *
+ * This class is a Map<Set<Long>, T> so that existing code (getCellMap(), formatters,
+ * delta processing) continues to work unchanged.  Keys handed out by iteration are
+ * decoded on demand into LongHashSet instances.  In the sparse layout entries are kept
+ * in insertion order; in the dense layout they are iterated in coordinate order.
+ *
+ * A cell may be stored as an UnparsedCell placeholder (lazy hydration).  Values are always handed
+ * out parsed; the placeholder parses its payload once and keeps the value, and materialize() swaps
+ * the placeholders for their values.
+ *
+ * Lookups never mutate the structure, so concurrent readers are safe as long as no writer is
+ * active (same contract as the LinkedHashMap this replaces).  The one exception is materialize(),
+ * which NCube calls from read paths (getCellMap(), sha1()), possibly on a store shared by a frozen
+ * cube and its edit() drafts.  It only ever replaces a placeholder with the value that placeholder
+ * parses to, so a concurrent reader sees either the placeholder or the same value; it neither
+ * moves entries nor changes the size.  Concurrent calls to materialize() are serialized.
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+class CellMap<T> extends AbstractMap<Set<Long>, T>
+{
+    static final double DENSE_FILL_RATIO = 0.5;
+    static final double SPARSE_FILL_RATIO = 0.25;
+    static final int MIN_DENSE_CELLS = 32;
+    private static final int MAX_DENSE_SLOTS = Integer.MAX_VALUE - 8;
+    private static final Object NO_VALUE = new Object();
+    private static final int MAX_BITS_PER_WORD = 63;   // keep the sign bit clear so -1 can mean 'no key'
+    private static final int MIN_CAPACITY = 8;
+
+    // Dimension (axis) layout
+    private int numDims;
+    private long[] dimAxisIds = new long[4];
+    private OrdinalMap[] dimOrdinals = new OrdinalMap[4];
+    private int[] dimBits = new int[4];
+    private int[] dimWord = new int[4];
+    private int[] dimShift = new int[4];
+    private int stride = 1;
+    private int size;
+    private int modCount;
+    // True once an UnparsedCell has been stored, until materialize()
+    private volatile boolean hasUnparsed;
+
+    // Sparse layout: entries in insertion order.  Removed entries are marked with NO_VALUE until compacted.
+    private long[] keys = new long[MIN_CAPACITY];
+    private Object[] values = new Object[MIN_CAPACITY];
+    private int used;
+    // Open-addressing index into the entries: slot holds entry index + 1, 0 = empty.
+    private int[] table = new int[MIN_CAPACITY * 2];
+    // Per dimension posting lists (ordinal -> entry indexes), built on first column removal.  May hold
+    // indexes of removed entries; entry indexes are not reused until compaction, which drops the lists.
+    private int[][][] postings;
+    private int[][] postingSizes;
+
+    // Dense layout: cell index = sum(ordinal[d] * denseMul[d]).  Empty cells hold NO_VALUE.
+    private Object[] dense;
+    private int denseDims;
+    private int[] denseRadix;
+    private long[] denseMul;
+
+    CellMap()
+    {
+    }
+
+    /**
+     * Copy constructor.  The copy owns its arrays (cell values are shared), so either map can be
+     * modified without affecting the other.  Copying is a handful of array copies, independent of
+     * the number of axes or columns that the cells reference.
+     */
+    CellMap(CellMap<T> source)
+    {
+        numDims = source.numDims;
+        dimAxisIds = source.dimAxisIds.clone();
+        dimOrdinals = new OrdinalMap[source.dimOrdinals.length];
+        for (int d = 0; d < numDims; d++)
+        {
+            dimOrdinals[d] = new OrdinalMap(source.dimOrdinals[d]);
+        }
+        dimBits = source.dimBits.clone();
+        dimWord = source.dimWord.clone();
+        dimShift = source.dimShift.clone();
+        stride = source.stride;
+        size = source.size;
+        hasUnparsed = source.hasUnparsed;
+        keys = source.keys.clone();
+        values = source.values.clone();
+        used = source.used;
+        table = source.table.clone();
+        // Posting lists are rebuilt on demand
+        if (source.dense != null)
+        {
+            dense = source.dense.clone();
+            denseDims = source.denseDims;
+            denseRadix = source.denseRadix.clone();
+            denseMul = source.denseMul.clone();
+        }
+    }
+
+    public int size()
+    {
+        return size;
+    }
+
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    public boolean containsKey(Object key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    public T get(Object key)
+    {
+        int idx = indexOf(key);
+        return idx < 0 ? null : valueAt(idx);
+    }
+
+    /**
+     * Store the value at the passed in coordinate.  Every column ID in the key must belong to a
+     * different axis (the axis is derived from the column ID).
+     */
+    public T put(Set<Long> key, T value)
+    {
+        if (key == null)
+        {
+            throw new IllegalArgumentException("Cell coordinate cannot be null");
+        }
+        prepareForPut(key);
+        hasUnparsed |= value instanceof UnparsedCell;
+
+        if (dense != null)
+        {
+            int idx = denseIndex(key);
+            if (idx < 0)
+            {
+                throw sameAxis(key);
+            }
+            Object old = dense[idx];
+            dense[idx] = value;
+            if (old == NO_VALUE)
+            {
+                size++;
+                modCount++;
+                return null;
+            }
+            return parsed(old);
+        }
+
+        long[] packed = new long[stride];
+        for (int w = 0; w < stride; w++)
+        {
+            packed[w] = encodeWord(key, w);
+            if (packed[w] < 0)
+            {
+                throw sameAxis(key);
+            }
+        }
+        int idx = find(packed, 0);
+        if (idx >= 0)
+        {
+            T old = parsed(values[idx]);
+            values[idx] = value;
+            return old;
+        }
+        append(packed, 0, value);
+
+        if (size >= MIN_DENSE_CELLS && size >= DENSE_FILL_RATIO * fullSlots())
+        {   // Mostly populated - switch to the dense layout
+            rebuild();
+        }
+        return null;
+    }
+
+    /**
+     * Store many cells at once (bulk load).  The columns of all the coordinates are assigned their
+     * ordinals first, so the key layout is settled with at most one re-layout, and the entry storage
+     * is sized for all the cells up front rather than grown as they arrive.
+     * @param coords coordinates of the cells, the first 'count' are used (none may be null).
+     * @param cellValues values of the cells, in the same order.
+     */
+    void putAll(Set<Long>[] coords, Object[] cellValues, int count)
+    {
+        boolean relayout = false;
+        for (int i = 0; i < count; i++)
+        {
+            relayout |= registerColumns(coords[i]);
+        }
+        if (relayout)
+        {
+            rebuild();
+        }
+        if (dense == null && used + count > values.length)
+        {
+            resize(Math.max(MIN_CAPACITY, Integer.highestOneBit(used + count - 1) << 1));
+        }
+        for (int i = 0; i < count; i++)
+        {
+            put(coords[i], (T) cellValues[i]);
+        }
+    }
+
+    public T remove(Object key)
+    {
+        int idx = indexOf(key);
+        if (idx < 0)
+        {
+            return null;
+        }
+        T old = valueAt(idx);
+        removeAt(idx);
+        if (dense != null && size < SPARSE_FILL_RATIO * fullSlots())
+        {   // No longer mostly populated - switch back to the sparse layout
+            rebuild();
+        }
+        return old;
+    }
+
+    public void clear()
+    {
+        numDims = 0;
+        dimAxisIds = new long[4];
+        dimOrdinals = new OrdinalMap[4];
+        dimBits = new int[4];
+        dimWord = new int[4];
+        dimShift = new int[4];
+        stride = 1;
+        keys = new long[MIN_CAPACITY];
+        values = new Object[MIN_CAPACITY];
+        table = new int[MIN_CAPACITY * 2];
+        used = 0;
+        postings = null;
+        postingSizes = null;
+        dense = null;
+        denseDims = 0;
+        denseRadix = null;
+        denseMul = null;
+        size = 0;
+        hasUnparsed = false;
+        modCount++;
+    }
+
+    public Set<Map.Entry<Set<Long>, T>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<Set<Long>, T>>()
+        {
+            public Iterator<Map.Entry<Set<Long>, T>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            public int size()
+            {
+                return size;
+            }
+
+            public boolean contains(Object o)
+            {
+                if (!(o instanceof Map.Entry))
+                {
+                    return false;
+                }
+                Map.Entry e = (Map.Entry) o;
+                int idx = indexOf(e.getKey());
+                if (idx < 0)
+                {
+                    return false;
+                }
+                Object v = valueAt(idx);
+                return v == null ? e.getValue() == null : v.equals(e.getValue());
+            }
+
+            public void clear()
+            {
+                CellMap.this.clear();
+            }
+        };
+    }
+
+    /**
+     * Remove every cell whose coordinate references the passed in column.  Only the affected
+     * cells are visited.
+     * @return number of cells removed.
+     */
+    int removeColumn(long colId)
+    {
+        int dim = dimOf(colId / Axis.BASE_AXIS_ID);
+        if (dim < 0)
+        {
+            return 0;
+        }
+        OrdinalMap ordinals = dimOrdinals[dim];
+        int ordinal = ordinals.get(colId);
+        if (ordinal == 0)
+        {
+            return 0;
+        }
+
+        int removed = 0;
+        if (dense != null)
+        {
+            final long mul = denseMul[dim];
+            final long span = mul * denseRadix[dim];
+            for (long high = 0; high < dense.length; high += span)
+            {
+                final long start = high + ordinal * mul;
+                for (long idx = start; idx < start + mul; idx++)
+                {
+                    if (dense[(int) idx] != NO_VALUE)
+                    {
+                        dense[(int) idx] = NO_VALUE;
+                        removed++;
+                    }
+                }
+            }
+            size -= removed;
+        }
+        else
+        {
+            if (postings == null)
+            {
+                buildPostings();
+            }
+            final int[] list = postings[dim][ordinal];
+            final int len = postingSizes[dim][ordinal];
+            for (int i = 0; i < len; i++)
+            {
+                int idx = list[i];
+                if (values[idx] != NO_VALUE)
+                {
+                    removeAt(idx);
+                    removed++;
+                }
+            }
+            postings[dim][ordinal] = null;
+            postingSizes[dim][ordinal] = 0;
+        }
+
+        // The column no longer has any cells; retire its ordinal so the fill ratio reflects live columns.
+        ordinals.retire(colId);
+        modCount++;
+
+        if (dense != null && size < SPARSE_FILL_RATIO * fullSlots())
+        {
+            rebuild();
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if the cells are currently held in the dense (flat array) layout.
+     */
+    boolean isDense()
+    {
+        return dense != null;
+    }
+
+    /**
+     * Locate the storage index for the passed in coordinate without allocating (for narrow cubes).
+     * @return storage index, or -1 if the coordinate is not stored (including coordinates that
+     * reference columns never stored, or more than one column on the same axis).
+     */
+    int indexOf(Object key)
+    {
+        if (!(key instanceof Collection))
+        {
+            return -1;
+        }
+        Collection<?> coord = (Collection<?>) key;
+        if (dense != null)
+        {
+            int idx = denseIndex(coord);
+            return idx < 0 || dense[idx] == NO_VALUE ? -1 : idx;
+        }
+        if (stride == 1)
+        {
+            long word = encodeWord(coord, 0);
+            return word < 0 ? -1 : find1(word);
+        }
+        long[] packed = new long[stride];
+        for (int w = 0; w < stride; w++)
+        {
+            long word = encodeWord(coord, w);
+            if (word < 0)
+            {
+                return -1;
+            }
+            packed[w] = word;
+        }
+        return find(packed, 0);
+    }
+
+    /**
+     * Locate the storage index for the passed in column IDs, which must each be on a different axis.
+     * This is indexOf(Object) for callers that bind one column per axis into a long[].
+     * @return storage index, or -1 if the coordinate is not stored.
+     */
+    int indexOf(long[] colIds)
+    {
+        if (dense != null)
+        {
+            long idx = 0;
+            for (long colId : colIds)
+            {
+                int dim = dimOf(colId / Axis.BASE_AXIS_ID);
+                if (dim < 0 || dim >= denseDims)
+                {
+                    return -1;
+                }
+                int ordinal = dimOrdinals[dim].get(colId);
+                if (ordinal == 0 || ordinal >= denseRadix[dim])
+                {
+                    return -1;
+                }
+                idx += ordinal * denseMul[dim];
+            }
+            return dense[(int) idx] == NO_VALUE ? -1 : (int) idx;
+        }
+
+        long word = 0;
+        long[] packed = stride == 1 ? null : new long[stride];
+        for (long colId : colIds)
+        {
+            int dim = dimOf(colId / Axis.BASE_AXIS_ID);
+            if (dim < 0)
+            {
+                return -1;
+            }
+            int ordinal = dimOrdinals[dim].get(colId);
+            if (ordinal == 0)
+            {
+                return -1;
+            }
+            if (packed == null)
+            {
+                word |= ((long) ordinal) << dimShift[dim];
+            }
+            else
+            {
+                packed[dimWord[dim]] |= ((long) ordinal) << dimShift[dim];
+            }
+        }
+        return packed == null ? find1(word) : find(packed, 0);
+    }
+
+    /**
+     * @return value at the storage index returned from indexOf().
+     */
+    T valueAt(int idx)
+    {
+        return parsed(dense != null ? dense[idx] : values[idx]);
+    }
+
+    /**
+     * Parse every UnparsedCell placeholder and store its value in its place.
+     */
+    synchronized void materialize()
+    {
+        if (!hasUnparsed)
+        {
+            return;
+        }
+        Object[] slots = dense != null ? dense : values;
+        for (int i = 0; i < slots.length; i++)
+        {
+            if (slots[i] instanceof UnparsedCell)
+            {
+                slots[i] = ((UnparsedCell) slots[i]).value();
+            }
+        }
+        hasUnparsed = false;
+    }
+
+    /**
+     * @return true if the store may hold cells that have not been parsed yet.
+     */
+    boolean hasUnparsed()
+    {
+        return hasUnparsed;
+    }
+
+    private static <T> T parsed(Object value)
+    {
+        return (T) (value instanceof UnparsedCell ? ((UnparsedCell) value).value() : value);
+    }
+
+    // ------------------------------------------------------------------------------------------
+    // Key encoding
+    // ------------------------------------------------------------------------------------------
+
+    /**
+     * Pack the ordinals of the columns that live in word 'w' of the key.
+     * @return packed word, or -1 if any column is unknown, or two columns are on the same axis.
+     */
+    private long encodeWord(Collection<?> coord, int w)
+    {
+        long word = 0;
+        for (Object id : coord)
+        {
+            if (!(id instanceof Number))
+            {
+                return -1;
+            }
+            long colId = ((Number) id).longValue();
+            int dim = dimOf(colId / Axis.BASE_AXIS_ID);
+            if (dim < 0)
+            {
+                return -1;
+            }
+            int ordinal = dimOrdinals[dim].get(colId);
+            if (ordinal == 0)
+            {
+                return -1;
+            }
+            if (dimWord[dim] != w)
+            {
+                continue;
+            }
+            int shift = dimShift[dim];
+            if (((word >>> shift) & mask(dimBits[dim])) != 0)
+            {   // Second column on the same axis - not a valid cell coordinate
+                return -1;
+            }
+            word |= ((long) ordinal) << shift;
+        }
+        return word;
+    }
+
+    /**
+     * Compute the dense array index of the coordinate.
+     * @return index, or -1 if any column is unknown, or two columns are on the same axis.
+     */
+    private int denseIndex(Collection<?> coord)
+    {
+        long idx = 0;
+        long seen = 0;
+        boolean[] seenWide = numDims > 64 ? new boolean[numDims] : null;
+        for (Object id : coord)
+        {
+            if (!(id instanceof Number))
+            {
+                return -1;
+            }
+            long colId = ((Number) id).longValue();
+            int dim = dimOf(colId / Axis.BASE_AXIS_ID);
+            if (dim < 0 || dim >= denseDims)
+            {
+                return -1;
+            }
+            int ordinal = dimOrdinals[dim].get(colId);
+            if (ordinal == 0 || ordinal >= denseRadix[dim])
+            {
+                return -1;
+            }
+            if (seenWide == null)
+            {
+                long bit = 1L << dim;
+                if ((seen & bit) != 0)
+                {
+                    return -1;
+                }
+                seen |= bit;
+            }
+            else
+            {
+                if (seenWide[dim])
+                {
+                    return -1;
+                }
+                seenWide[dim] = true;
+            }
+            idx += ordinal * denseMul[dim];
+        }
+        return (int) idx;
+    }
+
+    /**
+     * Assign dimensions and ordinals to the columns of the coordinate, re-laying out the
+     * stored cells if the current layout cannot hold them.
+     */
+    private void prepareForPut(Collection<Long> coord)
+    {
+        if (registerColumns(coord))
+        {
+            rebuild();
+        }
+    }
+
+    /**
+     * Assign dimensions and ordinals to the columns of the coordinate.
+     * @return true if the current layout cannot hold them (rebuild() needed).
+     */
+    private boolean registerColumns(Collection<Long> coord)
+    {
+        boolean relayout = false;
+        for (Long colId : coord)
+        {
+            long axisId = colId / Axis.BASE_AXIS_ID;
+            int dim = dimOf(axisId);
+            if (dim < 0)
+            {
+                dim = addDim(axisId);
+                relayout = true;
+            }
+            OrdinalMap ordinals = dimOrdinals[dim];
+            if (ordinals.get(colId) == 0)
+            {
+                int ordinal = ordinals.add(colId);
+                if (dense != null ? dim >= denseDims || ordinal >= denseRadix[dim] : ordinal > mask(dimBits[dim]))
+                {
+                    relayout = true;
+                }
+            }
+        }
+
+        return relayout;
+    }
+
+    private static IllegalArgumentException sameAxis(Collection<Long> coord)
+    {
+        return new IllegalArgumentException("Cell coordinate cannot contain more than one column from the same axis, coordinate: " + coord);
+    }
+
+    private int dimOf(long axisId)
+    {
+        for (int i = 0; i < numDims; i++)
+        {
+            if (dimAxisIds[i] == axisId)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int addDim(long axisId)
+    {
+        if (numDims == dimAxisIds.length)
+        {
+            int len = numDims * 2;
+            dimAxisIds = Arrays.copyOf(dimAxisIds, len);
+            dimOrdinals = Arrays.copyOf(dimOrdinals, len);
+            dimBits = Arrays.copyOf(dimBits, len);
+            dimWord = Arrays.copyOf(dimWord, len);
+            dimShift = Arrays.copyOf(dimShift, len);
+        }
+        dimAxisIds[numDims] = axisId;
+        dimOrdinals[numDims] = new OrdinalMap();
+        dimBits[numDims] = 0;
+        return numDims++;
+    }
+
+    /**
+     * @return product of the number of columns referenced on each axis (the number of
+     * complete coordinates the stored cells could occupy).
+     */
+    private long fullSlots()
+    {
+        if (numDims == 0)
+        {
+            return Long.MAX_VALUE;
+        }
+        long slots = 1;
+        for (int d = 0; d < numDims; d++)
+        {
+            slots *= Math.max(1, dimOrdinals[d].live());
+            if (slots > MAX_DENSE_SLOTS)
+            {
+                return Long.MAX_VALUE;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Lay out all stored cells again, choosing the sparse or dense layout from the current
+     * fill ratio.  Called when a new axis or column does not fit the current layout, or when
+     * the fill ratio crosses one of the thresholds.
+     */
+    private void rebuild()
+    {
+        // Extract live cells as ordinal vectors using the current (old) layout.
+        final int n = size;
+        final int dims = numDims;
+        final int[] ords = new int[n * dims];
+        final Object[] vals = new Object[n];
+        int k = 0;
+        for (int i = nextLive(0); i < limit(); i = nextLive(i + 1))
+        {
+            ordinalsAt(i, ords, k * dims);
+            vals[k++] = valueAt(i);
+        }
+
+        // Bit layout for sparse keys (with headroom so a few new columns do not force a relayout)
+        int word = 0;
+        int bitsInWord = 0;
+        for (int d = 0; d < dims; d++)
+        {
+            int bits = bitsFor(dimOrdinals[d].size() * 2L + 1);
+            if (bitsInWord + bits > MAX_BITS_PER_WORD)
+            {
+                word++;
+                bitsInWord = 0;
+            }
+            dimBits[d] = bits;
+            dimWord[d] = word;
+            dimShift[d] = bitsInWord;
+            bitsInWord += bits;
+        }
+        stride = word + 1;
+
+        long full = fullSlots();
+        double fillRatio = dense != null ? SPARSE_FILL_RATIO : DENSE_FILL_RATIO;
+        int[] radix = n >= MIN_DENSE_CELLS && n >= fillRatio * full ? denseRadixFor(dims) : null;
+        size = 0;
+        used = 0;
+        postings = null;
+        postingSizes = null;
+
+        if (radix != null)
+        {
+            long[] mul = new long[dims];
+            long slots = 1;
+            for (int d = 0; d < dims; d++)
+            {
+                mul[d] = slots;
+                slots *= radix[d];
+            }
+            denseDims = dims;
+            denseRadix = radix;
+            denseMul = mul;
+            dense = new Object[(int) slots];
+            Arrays.fill(dense, NO_VALUE);
+            keys = new long[0];
+            values = new Object[0];
+            table = new int[0];
+            for (int i = 0; i < n; i++)
+            {
+                long idx = 0;
+                for (int d = 0; d < dims; d++)
+                {
+                    idx += ords[i * dims + d] * mul[d];
+                }
+                dense[(int) idx] = vals[i];
+            }
+            size = n;
+        }
+        else
+        {
+            dense = null;
+            denseDims = 0;
+            denseRadix = null;
+            denseMul = null;
+            int capacity = Math.max(MIN_CAPACITY, n * 2);
+            keys = new long[capacity * stride];
+            values = new Object[capacity];
+            table = new int[tableSizeFor(capacity)];
+            long[] packed = new long[stride];
+            for (int i = 0; i < n; i++)
+            {
+                Arrays.fill(packed, 0L);
+                for (int d = 0; d < dims; d++)
+                {
+                    packed[dimWord[d]] |= ((long) ords[i * dims + d]) << dimShift[d];
+                }
+                append(packed, 0, vals[i]);
+            }
+        }
+        modCount++;
+    }
+
+    /**
+     * @return radix (number of ordinals, including 0 for 'no column') for each dimension of the
+     * dense layout, or null if the dense array would be too large.  Dimensions that outgrew the
+     * previous dense layout get headroom so that adding columns one at a time does not re-lay
+     * out the whole array each time.
+     */
+    private int[] denseRadixFor(int dims)
+    {
+        int[] radix = new int[dims];
+        long slots = 1;
+        for (int d = 0; d < dims; d++)
+        {
+            int count = dimOrdinals[d].size();
+            int r = count + 1;
+            if (dense != null)
+            {
+                if (d >= denseDims || count >= denseRadix[d])
+                {
+                    r += Math.max(1, count >> 2);
+                }
+                else
+                {
+                    r = denseRadix[d];
+                }
+            }
+            radix[d] = r;
+            slots *= r;
+            if (slots > MAX_DENSE_SLOTS)
+            {
+                return null;
+            }
+        }
+        return radix;
+    }
+
+    /**
+     * Decode the ordinals of the cell at the given storage index (current layout) into out[offset..].
+     */
+    private void ordinalsAt(int idx, int[] out, int offset)
+    {
+        if (dense != null)
+        {
+            long rest = idx;
+            for (int d = 0; d < numDims; d++)
+            {
+                if (d < denseDims)
+                {
+                    out[offset + d] = (int) (rest % denseRadix[d]);
+                    rest /= denseRadix[d];
+                }
+                else
+                {
+                    out[offset + d] = 0;
+                }
+            }
+        }
+        else
+        {
+            int base = idx * stride;
+            for (int d = 0; d < numDims; d++)
+            {
+                out[offset + d] = (int) ((keys[base + dimWord[d]] >>> dimShift[d]) & mask(dimBits[d]));
+            }
+        }
+    }
+
+    /**
+     * Decode the key stored at the given storage index back into a Set of column IDs.
+     */
+    private Set<Long> decode(int idx)
+    {
+        int[] ords = new int[numDims];
+        ordinalsAt(idx, ords, 0);
+        Set<Long> ids = new LongHashSet();
+        for (int d = 0; d < numDims; d++)
+        {
+            if (ords[d] != 0)
+            {
+                ids.add(dimOrdinals[d].colIdAt(ords[d]));
+            }
+        }
+        return ids;
+    }
+
+    private int limit()
+    {
+        return dense != null ? dense.length : used;
+    }
+
+    private int nextLive(int from)
+    {
+        final Object[] store = dense != null ? dense : values;
+        final int end = limit();
+        while (from < end && store[from] == NO_VALUE)
+        {
+            from++;
+        }
+        return from;
+    }
+
+    private static long mask(int bits)
+    {
+        return bits == 0 ? 0L : (-1L >>> (64 - bits));
+    }
+
+    private static int bitsFor(long maxValue)
+    {
+        return 64 - Long.numberOfLeadingZeros(maxValue);
+    }
+
+    // ------------------------------------------------------------------------------------------
+    // Open-addressing index (sparse layout)
+    // ------------------------------------------------------------------------------------------
+
+    private static int mix(long x)
+    {
+        // Same mixing function used by LongHashSet
+        x ^= x >> 23;
+        x *= 0x2127599bf4325c37L;
+        x ^= x >> 47;
+        return (int) x ^ (int) (x >>> 32);
+    }
+
+    private int hashAt(long[] src, int offset)
+    {
+        int h = 0;
+        for (int w = 0; w < stride; w++)
+        {
+            h = h * 31 + mix(src[offset + w]);
+        }
+        return h;
+    }
+
+    private int find1(long word)
+    {
+        final int[] tab = table;
+        final int m = tab.length - 1;
+        int slot = mix(word) & m;
+        int e;
+        while ((e = tab[slot]) != 0)
+        {
+            if (keys[e - 1] == word)
+            {
+                return e - 1;
+            }
+            slot = (slot + 1) & m;
+        }
+        return -1;
+    }
+
+    private int find(long[] src, int offset)
+    {
+        if (stride == 1)
+        {
+            return find1(src[offset]);
+        }
+        final int[] tab = table;
+        final int m = tab.length - 1;
+        int slot = hashAt(src, offset) & m;
+        int e;
+        while ((e = tab[slot]) != 0)
+        {
+            if (keysEqual(e - 1, src, offset))
+            {
+                return e - 1;
+            }
+            slot = (slot + 1) & m;
+        }
+        return -1;
+    }
+
+    private boolean keysEqual(int idx, long[] src, int offset)
+    {
+        int base = idx * stride;
+        for (int w = 0; w < stride; w++)
+        {
+            if (keys[base + w] != src[offset + w])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void append(long[] src, int offset, Object value)
+    {
+        if (used == values.length)
+        {
+            // Reclaim removed entries if they make up half the storage, otherwise grow.
+            resize(size * 2 <= used ? values.length : values.length * 2);
+        }
+        int idx = used++;
+        System.arraycopy(src, offset, keys, idx * stride, stride);
+        values[idx] = value;
+        size++;
+        insertIntoTable(idx);
+        if (postings != null)
+        {
+            addToPostings(idx);
+        }
+        modCount++;
+    }
+
+    private void buildPostings()
+    {
+        postings = new int[numDims][][];
+        postingSizes = new int[numDims][];
+        for (int d = 0; d < numDims; d++)
+        {
+            int ordinals = dimOrdinals[d].size() + 1;
+            postings[d] = new int[ordinals][];
+            postingSizes[d] = new int[ordinals];
+        }
+        for (int i = 0; i < used; i++)
+        {
+            if (values[i] != NO_VALUE)
+            {
+                addToPostings(i);
+            }
+        }
+    }
+
+    private void addToPostings(int idx)
+    {
+        final int base = idx * stride;
+        for (int d = 0; d < numDims; d++)
+        {
+            int ordinal = (int) ((keys[base + dimWord[d]] >>> dimShift[d]) & mask(dimBits[d]));
+            if (ordinal == 0)
+            {
+                continue;
+            }
+            int[][] lists = postings[d];
+            if (ordinal >= lists.length)
+            {   // Column added after the posting lists were built
+                int len = Math.max(ordinal + 1, lists.length * 2);
+                lists = postings[d] = Arrays.copyOf(lists, len);
+                postingSizes[d] = Arrays.copyOf(postingSizes[d], len);
+            }
+            int[] list = lists[ordinal];
+            int n = postingSizes[d][ordinal];
+            if (list == null)
+            {
+                list = lists[ordinal] = new int[4];
+            }
+            else if (n == list.length)
+            {
+                list = lists[ordinal] = Arrays.copyOf(list, n * 2);
+            }
+            list[n] = idx;
+            postingSizes[d][ordinal] = n + 1;
+        }
+    }
+
+    private void insertIntoTable(int idx)
+    {
+        final int m = table.length - 1;
+        int slot = hashAt(keys, idx * stride) & m;
+        while (table[slot] != 0)
+        {
+            slot = (slot + 1) & m;
+        }
+        table[slot] = idx + 1;
+    }
+
+    /**
+     * Compact out removed entries (preserving order) into storage of the given capacity.
+     */
+    private void resize(int capacity)
+    {
+        long[] newKeys = new long[capacity * stride];
+        Object[] newValues = new Object[capacity];
+        int n = 0;
+        for (int i = 0; i < used; i++)
+        {
+            if (values[i] != NO_VALUE)
+            {
+                System.arraycopy(keys, i * stride, newKeys, n * stride, stride);
+                newValues[n++] = values[i];
+            }
+        }
+        keys = newKeys;
+        values = newValues;
+        used = n;
+        postings = null;
+        postingSizes = null;
+        table = new int[tableSizeFor(capacity)];
+        for (int i = 0; i < n; i++)
+        {
+            insertIntoTable(i);
+        }
+    }
+
+    /**
+     * Remove the cell at the given storage index.  Never changes the layout, so storage
+     * indexes of other cells remain valid (required by iterator removal).
+     */
+    private void removeAt(int idx)
+    {
+        if (dense != null)
+        {
+            dense[idx] = NO_VALUE;
+            size--;
+            modCount++;
+            return;
+        }
+
+        // Backward-shift deletion keeps linear probe chains intact without tombstones in the index
+        final int m = table.length - 1;
+        int slot = hashAt(keys, idx * stride) & m;
+        while (table[slot] != idx + 1)
+        {
+            slot = (slot + 1) & m;
+        }
+        int hole = slot;
+        slot = (slot + 1) & m;
+        int e;
+        while ((e = table[slot]) != 0)
+        {
+            int home = hashAt(keys, (e - 1) * stride) & m;
+            if (((slot - home) & m) >= ((slot - hole) & m))
+            {
+                table[hole] = e;
+                hole = slot;
+            }
+            slot = (slot + 1) & m;
+        }
+        table[hole] = 0;
+        values[idx] = NO_VALUE;
+        size--;
+        modCount++;
+    }
+
+    private static int tableSizeFor(int capacity)
+    {
+        int n = Integer.highestOneBit(Math.max(capacity, MIN_CAPACITY) - 1) << 2;
+        return Math.max(n, MIN_CAPACITY * 2);
+    }
+
+    // ------------------------------------------------------------------------------------------
+    // Iteration
+    // ------------------------------------------------------------------------------------------
+
+    private class EntryIterator implements Iterator<Map.Entry<Set<Long>, T>>
+    {
+        private int next = nextLive(0);
+        private int last = -1;
+        private int expectedModCount = modCount;
+
+        public boolean hasNext()
+        {
+            return next < limit();
+        }
+
+        public Map.Entry<Set<Long>, T> next()
+        {
+            if (modCount != expectedModCount)
+            {
+                throw new ConcurrentModificationException();
+            }
+            if (next >= limit())
+            {
+                throw new NoSuchElementException();
+            }
+            last = next;
+            next = nextLive(next + 1);
+            return new CellEntry(last);
+        }
+
+        public void remove()
+        {
+            if (last < 0)
+            {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount)
+            {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(last);
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+
+    private class CellEntry implements Map.Entry<Set<Long>, T>
+    {
+        private final int idx;
+        private Set<Long> key;
+
+        CellEntry(int idx)
+        {
+            this.idx = idx;
+        }
+
+        public Set<Long> getKey()
+        {
+            if (key == null)
+            {
+                key = decode(idx);
+            }
+            return key;
+        }
+
+        public T getValue()
+        {
+            return valueAt(idx);
+        }
+
+        public T setValue(T value)
+        {
+            T old = valueAt(idx);
+            hasUnparsed |= value instanceof UnparsedCell;
+            if (dense != null)
+            {
+                dense[idx] = value;
+            }
+            else
+            {
+                values[idx] = value;
+            }
+            return old;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+            {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            Object v = getValue();
+            return getKey().equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+        }
+
+        public int hashCode()
+        {
+            Object v = getValue();
+            return getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+        }
+
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+    }
+
+    /**
+     * Primitive column ID to ordinal map for a single dimension (axis).  Ordinals are dense, starting
+     * at 1, and are never reused until the owning CellMap is cleared.
+     */
+    private static final class OrdinalMap
+    {
+        private long[] ids = new long[8];
+        private int[] ords = new int[8];
+        private long[] byOrdinal = new long[8];
+        private int count;
+        private int live;
+
+        OrdinalMap()
+        {
+        }
+
+        OrdinalMap(OrdinalMap source)
+        {
+            ids = source.ids.clone();
+            ords = source.ords.clone();
+            byOrdinal = source.byOrdinal.clone();
+            count = source.count;
+            live = source.live;
+        }
+
+        /**
+         * @return highest ordinal assigned.
+         */
+        int size()
+        {
+            return count;
+        }
+
+        /**
+         * @return number of ordinals that have not been retired.
+         */
+        int live()
+        {
+            return live;
+        }
+
+        int get(long colId)
+        {
+            final int m = ids.length - 1;
+            int slot = mix(colId) & m;
+            int ord;
+            while ((ord = ords[slot]) != 0)
+            {
+                if (ids[slot] == colId)
+                {
+                    return ord;
+                }
+                slot = (slot + 1) & m;
+            }
+            return 0;
+        }
+
+        int add(long colId)
+        {
+            if ((count + 1) * 2 > ids.length)
+            {
+                long[] oldIds = ids;
+                int[] oldOrds = ords;
+                ids = new long[oldIds.length * 2];
+                ords = new int[oldIds.length * 2];
+                for (int i = 0; i < oldIds.length; i++)
+                {
+                    if (oldOrds[i] != 0)
+                    {
+                        insert(oldIds[i], oldOrds[i]);
+                    }
+                }
+            }
+            int ordinal = ++count;
+            live++;
+            if (ordinal == byOrdinal.length)
+            {
+                byOrdinal = Arrays.copyOf(byOrdinal, byOrdinal.length * 2);
+            }
+            byOrdinal[ordinal] = colId;
+            insert(colId, ordinal);
+            return ordinal;
+        }
+
+        long colIdAt(int ordinal)
+        {
+            return byOrdinal[ordinal];
+        }
+
+        /**
+         * Stop mapping the column ID to its ordinal (the column no longer has cells).  The ordinal
+         * itself is not reused; if the column is stored again it receives a new ordinal.
+         */
+        void retire(long colId)
+        {
+            final int m = ids.length - 1;
+            int slot = mix(colId) & m;
+            while (ords[slot] != 0 && ids[slot] != colId)
+            {
+                slot = (slot + 1) & m;
+            }
+            if (ords[slot] == 0)
+            {
+                return;
+            }
+            live--;
+            // Backward-shift deletion
+            int hole = slot;
+            slot = (slot + 1) & m;
+            while (ords[slot] != 0)
+            {
+                int home = mix(ids[slot]) & m;
+                if (((slot - home) & m) >= ((slot - hole) & m))
+                {
+                    ids[hole] = ids[slot];
+                    ords[hole] = ords[slot];
+                    hole = slot;
+                }
+                slot = (slot + 1) & m;
+            }
+            ords[hole] = 0;
+        }
+
+        private void insert(long colId, int ordinal)
+        {
+            final int m = ids.length - 1;
+            int slot = mix(colId) & m;
+            while (ords[slot] != 0)
+            {
+                slot = (slot + 1) & m;
+            }
+            ids[slot] = colId;
+            ords[slot] = ordinal;
+        }
+    }
+}
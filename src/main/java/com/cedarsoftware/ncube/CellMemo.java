@@ -0,0 +1,189 @@
+package com.cedarsoftware.ncube;
+
+import com.cedarsoftware.util.CaseInsensitiveSet;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded (least recently used) cache of executed cell results for one n-cube.  A result is stored
+ * under the cell it came from plus the values of the input keys that were read (TrackingMap) while
+ * the cell executed.  A later execution of the same cell, with the same values for those keys, is
+ * answered from the cache.
+ *
+ * For each cell, the union of the key sets read so far is kept, and cache keys are built from the
+ * input values of all of those keys.  If an execution reads a key that no earlier execution read
+ * (for example, a different branch was taken), the union grows and entries built from the smaller
+ * union simply stop being found (and age out).  A hit therefore always means that every key the
+ * cached execution read has the same value now.
+ *
+ * Entries are dropped as a whole when the n-cube changes.  Only valid for cells whose result
+ * depends on nothing but the input keys they read (no output Map writes, no other n-cubes that
+ * may change, no iterating over the whole input).
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+final class CellMemo
+{
+    static final int DEFAULT_MAX_ENTRIES = 1000;
+    private final Map<Integer, String[]> dependencies = new ConcurrentHashMap<>();
+    private final Map<Key, Result> results;
+
+    /**
+     * Cached result, along with the input keys the execution read (reported to RuleInfo on a hit).
+     */
+    static final class Result
+    {
+        final Object value;
+        final Collection<String> keysUsed;
+
+        private Result(Object value, Collection<String> keysUsed)
+        {
+            this.value = value;
+            this.keysUsed = keysUsed;
+        }
+    }
+
+    static final class Key
+    {
+        private final int cellIdx;
+        private final String[] keys;
+        private final Object[] values;
+        private final int hash;
+
+        private Key(int cellIdx, String[] keys, Object[] values)
+        {
+            this.cellIdx = cellIdx;
+            this.keys = keys;
+            this.values = values;
+            hash = 31 * (31 * cellIdx + Arrays.hashCode(keys)) + Arrays.hashCode(values);
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key))
+            {
+                return false;
+            }
+            Key that = (Key) o;
+            return cellIdx == that.cellIdx && hash == that.hash && Arrays.equals(keys, that.keys) && Arrays.equals(values, that.values);
+        }
+
+        public int hashCode()
+        {
+            return hash;
+        }
+    }
+
+    CellMemo(final int maxEntries)
+    {
+        results = Collections.synchronizedMap(new LinkedHashMap<Key, Result>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<Key, Result> eldest)
+            {
+                return size() > maxEntries;
+            }
+        });
+    }
+
+    /**
+     * @return CellMemo sized by the passed in 'memoizeCells' meta-property value (a Number of
+     * entries, or Boolean true for the default size), or null if memoization is not enabled.
+     */
+    static CellMemo create(Object setting)
+    {
+        if (setting instanceof Number)
+        {
+            int max = ((Number) setting).intValue();
+            return max > 0 ? new CellMemo(max) : null;
+        }
+        if (Boolean.TRUE.equals(setting) || "true".equalsIgnoreCase(String.valueOf(setting)))
+        {
+            return new CellMemo(DEFAULT_MAX_ENTRIES);
+        }
+        return null;
+    }
+
+    /**
+     * @param input Map (case-insensitive keys) holding the input of the coming execution.
+     * @return Key to look the cell up with, or null if the cell has never been executed (nothing
+     * can be cached for it yet).
+     */
+    Key key(int cellIdx, Map input)
+    {
+        final String[] keys = dependencies.get(cellIdx);
+        return keys == null ? null : new Key(cellIdx, keys, valuesOf(keys, input));
+    }
+
+    Result get(Key key)
+    {
+        return key == null ? null : results.get(key);
+    }
+
+    /**
+     * Record the result of executing the cell.
+     * @param input Map (case-insensitive keys) holding the input as it was before the execution
+     *              (the execution may modify the input).
+     * @param keysUsed Collection of input keys read during the execution.
+     */
+    void put(int cellIdx, Map input, Collection keysUsed, Object value)
+    {
+        final Set<String> used = new CaseInsensitiveSet<>();
+        for (Object key : keysUsed)
+        {
+            if (key instanceof String)
+            {
+                used.add((String) key);
+            }
+        }
+
+        String[] keys = dependencies.get(cellIdx);
+        if (keys == null || !new CaseInsensitiveSet<>(Arrays.asList(keys)).containsAll(used))
+        {
+            final Set<String> union = new CaseInsensitiveSet<>();
+            if (keys != null)
+            {
+                union.addAll(Arrays.asList(keys));
+            }
+            union.addAll(used);
+            keys = union.toArray(new String[union.size()]);
+            dependencies.put(cellIdx, keys);
+        }
+        results.put(new Key(cellIdx, keys, valuesOf(keys, input)), new Result(value, used));
+    }
+
+    int size()
+    {
+        return results.size();
+    }
+
+    private static Object[] valuesOf(String[] keys, Map input)
+    {
+        final Object[] values = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++)
+        {
+            final Object value = input.get(keys[i]);
+            values[i] = value != null || input.containsKey(keys[i]) ? value : LookupPlan.NOT_BOUND;
+        }
+        return values;
+    }
+}
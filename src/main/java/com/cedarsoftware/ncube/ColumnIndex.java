@@ -0,0 +1,548 @@
+package com.cedarsoftware.ncube;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Primitive lookup structure for the columns of an axis, specialized by axis value type:
+ * <pre>
+ *     LONG, DATE    DISCRETE, NEAREST: sorted long[] of values (Dates as epoch millis)
+ *                   RANGE: sorted long[] of range lows, with the matching highs
+ *     DOUBLE        same, with double[]
+ *     STRING        DISCRETE: open addressed hash table, collision free (perfect) when a seed
+ *                   for that can be found
+ *     Point2D,      NEAREST: k-d tree (PointIndex)
+ *     Point3D,
+ *     LatLon
+ *     SET           sorted endpoints of all the members of all the RangeSets (primitive arrays for
+ *                   LONG, DATE, DOUBLE), so a value is located with one binary search.  RANGE
+ *                   axes of other value types use the same Comparable endpoint arrays.
+ * </pre>
+ * Values are compared exactly as the Comparable values stored on the Axis compare (Long, Date and
+ * Double compareTo(), String equals()), so a column found here is the column Axis.findColumn() finds
+ * through its TreeMap / RangeMap.  The index is built from the columns of the axis on first use and
+ * dropped whenever the columns change.
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+final class ColumnIndex
+{
+    private static final int MAX_SEEDS = 16;
+    private final AxisType type;
+    private final Column[] columns;
+    private long[] longs;           // values, or interval lows
+    private long[] longHighs;
+    private double[] doubles;       // values, or interval lows
+    private double[] doubleHighs;
+    private Comparable[] lows;      // interval lows and highs, other value types
+    private Comparable[] highs;
+    private boolean[] closed;       // interval includes its high (single value of a RangeSet)
+    private PointIndex points;
+    private String[] strings;       // hash table slots (null = empty)
+    private Column[] stringColumns;
+    private int seed;
+    private boolean perfect;
+
+    private ColumnIndex(AxisType type, int size)
+    {
+        this.type = type;
+        columns = new Column[size];
+    }
+
+    /**
+     * One range [low, high) of a RANGE column, or one member (range or single value [low, low]) of the
+     * RangeSet of a SET column.
+     */
+    private static final class Interval
+    {
+        final Comparable low;
+        final Comparable high;
+        final boolean closed;
+        final Column column;
+
+        Interval(Comparable item, Column column)
+        {
+            if (item instanceof Range)
+            {
+                low = ((Range) item).getLow();
+                high = ((Range) item).getHigh();
+                closed = false;
+            }
+            else
+            {
+                low = item;
+                high = item;
+                closed = true;
+            }
+            this.column = column;
+        }
+    }
+
+    /**
+     * @param columns Collection of the columns of the axis, without the default column.
+     * @return ColumnIndex for the passed in axis type and value type, or null if there is no
+     * specialized structure for the combination (the axis then uses its general structures).
+     */
+    static ColumnIndex build(AxisType type, AxisValueType valueType, Collection<Column> columns)
+    {
+        final boolean integral = valueType == AxisValueType.LONG || valueType == AxisValueType.DATE;
+        final boolean floating = valueType == AxisValueType.DOUBLE;
+        if (type == AxisType.RANGE || type == AxisType.SET)
+        {
+            try
+            {
+                return intervals(type, integral, floating, columns);
+            }
+            catch (ClassCastException e)
+            {   // Values of mixed types (COMPARABLE axis) - leave it to the general structures
+                return null;
+            }
+        }
+        if ((type == AxisType.DISCRETE || type == AxisType.NEAREST) && (integral || floating))
+        {
+            final Class expected = valueType == AxisValueType.LONG ? Long.class : floating ? Double.class : Date.class;
+            final List<Column> sorted = new ArrayList<>(columns.size());
+            for (Column column : columns)
+            {
+                if (!expected.isInstance(column.getValue()))
+                {   // Not a value this index was made for - leave the axis to its general structures
+                    return null;
+                }
+                sorted.add(column);
+            }
+            Collections.sort(sorted, new Comparator<Column>()
+            {
+                public int compare(Column c1, Column c2)
+                {
+                    return c1.getValue().compareTo(c2.getValue());
+                }
+            });
+            final int size = sorted.size();
+            final ColumnIndex index = new ColumnIndex(type, size);
+            if (integral)
+            {
+                index.longs = new long[size];
+            }
+            else
+            {
+                index.doubles = new double[size];
+            }
+            for (int i = 0; i < size; i++)
+            {
+                final Column column = sorted.get(i);
+                index.columns[i] = column;
+                if (integral)
+                {
+                    index.longs[i] = toLong(column.getValue());
+                }
+                else
+                {
+                    index.doubles[i] = (Double) column.getValue();
+                }
+            }
+            return index;
+        }
+        if (type == AxisType.NEAREST && !integral && !floating)
+        {
+            final PointIndex points = PointIndex.build(columns);
+            if (points == null)
+            {
+                return null;
+            }
+            final ColumnIndex index = new ColumnIndex(type, 0);
+            index.points = points;
+            return index;
+        }
+        if (type == AxisType.DISCRETE && valueType == AxisValueType.STRING)
+        {
+            for (Column column : columns)
+            {
+                if (!(column.getValue() instanceof String))
+                {
+                    return null;
+                }
+            }
+            final ColumnIndex index = new ColumnIndex(type, columns.size());
+            index.hashStrings(new ArrayList<>(columns));
+            return index;
+        }
+        return null;
+    }
+
+    /**
+     * Sorted endpoints of all the (non-overlapping) intervals of a RANGE or SET axis: primitive arrays
+     * for LONG, DATE, and DOUBLE axes, Comparable arrays otherwise.
+     */
+    private static ColumnIndex intervals(AxisType type, boolean integral, boolean floating, Collection<Column> columns)
+    {
+        final List<Interval> list = new ArrayList<>();
+        for (Column column : columns)
+        {
+            final Comparable value = column.getValue();
+            if (value instanceof RangeSet)
+            {
+                final RangeSet set = (RangeSet) value;
+                for (int i = 0; i < set.size(); i++)
+                {
+                    list.add(new Interval(set.get(i), column));
+                }
+            }
+            else if (value instanceof Range)
+            {
+                list.add(new Interval(value, column));
+            }
+            else
+            {
+                return null;
+            }
+        }
+
+        final List<Interval> sorted = new ArrayList<>(list.size());
+        for (Interval interval : list)
+        {
+            final boolean primitive = integral ? interval.low instanceof Long || interval.low instanceof Date :
+                    !floating || interval.low instanceof Double;
+            if (!primitive || interval.low.getClass() != interval.high.getClass())
+            {
+                return null;
+            }
+            if (interval.closed || interval.low.compareTo(interval.high) < 0)
+            {   // An empty range [x, x) matches nothing
+                sorted.add(interval);
+            }
+        }
+        Collections.sort(sorted, new Comparator<Interval>()
+        {
+            public int compare(Interval i1, Interval i2)
+            {
+                return i1.low.compareTo(i2.low);
+            }
+        });
+        for (int i = 1; i < sorted.size(); i++)
+        {   // Members of one RangeSet may overlap each other (only columns are checked against each other)
+            final Interval prev = sorted.get(i - 1);
+            final int cmp = sorted.get(i).low.compareTo(prev.high);
+            if (cmp < 0 || (cmp == 0 && prev.closed))
+            {
+                return null;
+            }
+        }
+
+        final int size = sorted.size();
+        final ColumnIndex index = new ColumnIndex(type, size);
+        index.closed = new boolean[size];
+        if (integral)
+        {
+            index.longs = new long[size];
+            index.longHighs = new long[size];
+        }
+        else if (floating)
+        {
+            index.doubles = new double[size];
+            index.doubleHighs = new double[size];
+        }
+        else
+        {
+            index.lows = new Comparable[size];
+            index.highs = new Comparable[size];
+        }
+        for (int i = 0; i < size; i++)
+        {
+            final Interval interval = sorted.get(i);
+            index.columns[i] = interval.column;
+            index.closed[i] = interval.closed;
+            if (integral)
+            {
+                index.longs[i] = toLong(interval.low);
+                index.longHighs[i] = toLong(interval.high);
+            }
+            else if (floating)
+            {
+                index.doubles[i] = (Double) interval.low;
+                index.doubleHighs[i] = (Double) interval.high;
+            }
+            else
+            {
+                index.lows[i] = interval.low;
+                index.highs[i] = interval.high;
+            }
+        }
+        return index;
+    }
+
+    private static long toLong(Comparable value)
+    {
+        return value instanceof Date ? ((Date) value).getTime() : (Long) value;
+    }
+
+    /**
+     * @param value Comparable already promoted to the value type of the axis (Long, Date, Double,
+     *              String, or a point on a NEAREST axis).
+     * @return Column matching the value, or null if no column matches.
+     */
+    Column find(Comparable value)
+    {
+        if (points != null)
+        {
+            return points.find(value);
+        }
+        if (lows != null)
+        {
+            return findInterval(value);
+        }
+        if (value instanceof Long)
+        {
+            return find((long) (Long) value);
+        }
+        if (value instanceof Date)
+        {
+            return find(((Date) value).getTime());
+        }
+        if (value instanceof Double)
+        {
+            return find((double) (Double) value);
+        }
+        return value instanceof String && strings != null ? find((String) value) : null;
+    }
+
+    /**
+     * @return Column of the interval containing the passed in value, on an axis indexed with
+     * Comparable endpoints.
+     */
+    private Column findInterval(Comparable value)
+    {
+        final Comparable[] keys = lows;
+        // Number of lows <= value
+        int low = 0;
+        int high = keys.length;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (keys[mid].compareTo(value) <= 0)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        final int floor = low - 1;
+        if (floor < 0)
+        {
+            return null;
+        }
+        final int cmp = value.compareTo(highs[floor]);
+        return cmp < 0 || (cmp == 0 && closed[floor]) ? columns[floor] : null;
+    }
+
+    /**
+     * @return Column matching the passed in value (epoch millis on a DATE axis), or null.
+     */
+    Column find(long value)
+    {
+        final long[] keys = longs;
+        if (keys.length == 0)
+        {
+            return null;
+        }
+        // Number of keys <= value
+        int low = 0;
+        int high = keys.length;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (keys[mid] <= value)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        final int floor = low - 1;
+
+        if (type == AxisType.DISCRETE)
+        {
+            return floor >= 0 && keys[floor] == value ? columns[floor] : null;
+        }
+        if (longHighs != null)
+        {   // [low, high), or [low, high] for a single value
+            return floor >= 0 && (value < longHighs[floor] || (closed[floor] && value == longHighs[floor])) ? columns[floor] : null;
+        }
+        // NEAREST: the closer of the floor and the next higher value, the floor on a tie
+        if (floor < 0)
+        {
+            return columns[0];
+        }
+        if (floor == keys.length - 1)
+        {
+            return columns[floor];
+        }
+        final long delta1 = Math.abs(value - keys[floor]);
+        final long delta2 = Math.abs(value - keys[floor + 1]);
+        return delta1 <= delta2 ? columns[floor] : columns[floor + 1];
+    }
+
+    /**
+     * @return Column matching the passed in value, or null.
+     */
+    Column find(double value)
+    {
+        final double[] keys = doubles;
+        if (keys.length == 0)
+        {
+            return null;
+        }
+        // Number of keys <= value, in Double.compareTo() order (same as the TreeMap of Doubles)
+        int low = 0;
+        int high = keys.length;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (Double.compare(keys[mid], value) <= 0)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        final int floor = low - 1;
+
+        if (type == AxisType.DISCRETE)
+        {
+            return floor >= 0 && Double.compare(keys[floor], value) == 0 ? columns[floor] : null;
+        }
+        if (doubleHighs != null)
+        {   // [low, high), or [low, high] for a single value
+            if (floor < 0)
+            {
+                return null;
+            }
+            final int cmp = Double.compare(value, doubleHighs[floor]);
+            return cmp < 0 || (cmp == 0 && closed[floor]) ? columns[floor] : null;
+        }
+        // NEAREST: the closer of the floor and the next higher value, the floor on a tie
+        if (floor < 0)
+        {
+            return columns[0];
+        }
+        if (floor == keys.length - 1 || keys[floor] == keys[floor + 1])
+        {
+            return columns[floor];
+        }
+        final double delta1 = Math.abs(value - keys[floor]);
+        final double delta2 = Math.abs(value - keys[floor + 1]);
+        return delta1 <= delta2 ? columns[floor] : columns[floor + 1];
+    }
+
+    /**
+     * @return Column whose value equals the passed in String, or null.
+     */
+    Column find(String value)
+    {
+        final String[] table = strings;
+        final int mask = table.length - 1;
+        int slot = mix(value.hashCode(), seed) & mask;
+        if (perfect)
+        {
+            return value.equals(table[slot]) ? stringColumns[slot] : null;
+        }
+        while (table[slot] != null)
+        {
+            if (value.equals(table[slot]))
+            {
+                return stringColumns[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Place the String values in a power of 2 table (at most half full), looking for a seed that puts
+     * every value in its own slot.  If there is none, fall back to linear probing.
+     */
+    private void hashStrings(List<Column> cols)
+    {
+        int capacity = 2;
+        while (capacity < cols.size() * 2)
+        {
+            capacity <<= 1;
+        }
+        final int mask = capacity - 1;
+        for (int candidate = 0; candidate < MAX_SEEDS; candidate++)
+        {
+            final String[] table = new String[capacity];
+            final Column[] tableColumns = new Column[capacity];
+            boolean collisionFree = true;
+            for (Column column : cols)
+            {
+                final String value = (String) column.getValue();
+                final int slot = mix(value.hashCode(), candidate) & mask;
+                if (table[slot] != null)
+                {
+                    collisionFree = false;
+                    break;
+                }
+                table[slot] = value;
+                tableColumns[slot] = column;
+            }
+            if (collisionFree)
+            {
+                install(table, tableColumns, candidate, true);
+                return;
+            }
+        }
+
+        final String[] table = new String[capacity];
+        final Column[] tableColumns = new Column[capacity];
+        for (Column column : cols)
+        {
+            final String value = (String) column.getValue();
+            int slot = mix(value.hashCode(), 0) & mask;
+            while (table[slot] != null)
+            {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = value;
+            tableColumns[slot] = column;
+        }
+        install(table, tableColumns, 0, false);
+    }
+
+    private void install(String[] table, Column[] tableColumns, int seed, boolean perfect)
+    {
+        strings = table;
+        stringColumns = tableColumns;
+        this.seed = seed;
+        this.perfect = perfect;
+    }
+
+    private static int mix(int hash, int seed)
+    {
+        int h = hash * 0x9E3779B9 + seed * 0x85EBCA6B;
+        return h ^ (h >>> 16);
+    }
+}
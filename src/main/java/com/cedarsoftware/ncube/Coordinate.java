@@ -0,0 +1,322 @@
+package com.cedarsoftware.ncube;
+
+import com.cedarsoftware.util.CaseInsensitiveMap;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Input coordinate bound to the axes of a specific n-cube.  Obtain one from NCube.coordinate(),
+ * set the axis values by axis index (the order of NCube.getAxes()) or by name, and pass it to
+ * getCell().  Axis names are resolved to slots once, when the Coordinate is created, so getCell()
+ * binds the values without any String (case-insensitive) key lookups.  A Coordinate can be cleared
+ * and reused for the next lookup.
+ *
+ * A Coordinate is a Map (case-insensitive keys), so it can be passed to every API that accepts an
+ * input Map, and Groovy cells see it as 'input'.  Keys that are not axis names (for example, scope
+ * keys read by expressions) are held alongside the axis values.  If the n-cube is modified after
+ * the Coordinate was created, the Coordinate still works, through the regular Map path.
+ *
+ * Instances are not thread-safe; use one per thread.
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+public class Coordinate extends AbstractMap<String, Object>
+{
+    final LookupPlan plan;
+    private final Object[] values;
+    private int bound;
+    private Map<String, Object> others;
+
+    Coordinate(LookupPlan plan)
+    {
+        this.plan = plan;
+        values = new Object[plan.axisNames.length];
+        Arrays.fill(values, LookupPlan.NOT_BOUND);
+    }
+
+    /**
+     * @param axisName String name of an axis (case ignored)
+     * @return int index of the named axis, to be used with set(int, Object), or -1 if the n-cube
+     * has no axis by that name.
+     */
+    public int getAxisIndex(String axisName)
+    {
+        return plan.indexOf(axisName);
+    }
+
+    /**
+     * Bind a value to the axis at the given index.
+     * @param axisIndex int index of the axis (order of NCube.getAxes(), or from getAxisIndex())
+     * @param value Object value to bind (null binds the Default column)
+     * @return this Coordinate
+     */
+    public Coordinate set(int axisIndex, Object value)
+    {
+        if (values[axisIndex] == LookupPlan.NOT_BOUND)
+        {
+            bound++;
+        }
+        values[axisIndex] = value;
+        return this;
+    }
+
+    /**
+     * Bind a value to the named axis, or to any other input key.
+     * @return this Coordinate
+     */
+    public Coordinate set(String key, Object value)
+    {
+        put(key, value);
+        return this;
+    }
+
+    /**
+     * @return value bound to the axis at the given index, or null if none is bound.
+     */
+    public Object get(int axisIndex)
+    {
+        final Object value = values[axisIndex];
+        return value == LookupPlan.NOT_BOUND ? null : value;
+    }
+
+    /**
+     * Remove the value bound to the axis at the given index.
+     * @return this Coordinate
+     */
+    public Coordinate unset(int axisIndex)
+    {
+        if (values[axisIndex] != LookupPlan.NOT_BOUND)
+        {
+            values[axisIndex] = LookupPlan.NOT_BOUND;
+            bound--;
+        }
+        return this;
+    }
+
+    /**
+     * @return value in the given slot, or LookupPlan.NOT_BOUND.
+     */
+    Object valueAt(int axisIndex)
+    {
+        return values[axisIndex];
+    }
+
+    public int size()
+    {
+        return bound + (others == null ? 0 : others.size());
+    }
+
+    public boolean containsKey(Object key)
+    {
+        final int slot = slotOf(key);
+        if (slot >= 0)
+        {
+            return values[slot] != LookupPlan.NOT_BOUND;
+        }
+        return others != null && others.containsKey(key);
+    }
+
+    public Object get(Object key)
+    {
+        final int slot = slotOf(key);
+        if (slot >= 0)
+        {
+            return get(slot);
+        }
+        return others == null ? null : others.get(key);
+    }
+
+    public Object put(String key, Object value)
+    {
+        final int slot = slotOf(key);
+        if (slot >= 0)
+        {
+            final Object old = get(slot);
+            set(slot, value);
+            return old;
+        }
+        if (others == null)
+        {
+            others = new CaseInsensitiveMap<>();
+        }
+        return others.put(key, value);
+    }
+
+    public Object remove(Object key)
+    {
+        final int slot = slotOf(key);
+        if (slot >= 0)
+        {
+            final Object old = get(slot);
+            unset(slot);
+            return old;
+        }
+        return others == null ? null : others.remove(key);
+    }
+
+    public void clear()
+    {
+        Arrays.fill(values, LookupPlan.NOT_BOUND);
+        bound = 0;
+        if (others != null)
+        {
+            others.clear();
+        }
+    }
+
+    private int slotOf(Object key)
+    {
+        return key instanceof String ? plan.indexOf((String) key) : -1;
+    }
+
+    public Set<Map.Entry<String, Object>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<String, Object>>()
+        {
+            public Iterator<Map.Entry<String, Object>> iterator()
+            {
+                return new EntryIterator();
+            }
+
+            public int size()
+            {
+                return Coordinate.this.size();
+            }
+        };
+    }
+
+    /**
+     * Iterates the bound axis values (in axis order), then the other keys.
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, Object>>
+    {
+        private int next = nextBound(0);
+        private int last = -1;
+        private Iterator<Map.Entry<String, Object>> otherIterator;
+
+        private int nextBound(int from)
+        {
+            while (from < values.length && values[from] == LookupPlan.NOT_BOUND)
+            {
+                from++;
+            }
+            return from;
+        }
+
+        private Iterator<Map.Entry<String, Object>> others()
+        {
+            if (otherIterator == null && others != null)
+            {
+                otherIterator = others.entrySet().iterator();
+            }
+            return otherIterator;
+        }
+
+        public boolean hasNext()
+        {
+            return next < values.length || (others() != null && otherIterator.hasNext());
+        }
+
+        public Map.Entry<String, Object> next()
+        {
+            if (next < values.length)
+            {
+                last = next;
+                next = nextBound(next + 1);
+                return new SlotEntry(last);
+            }
+            if (others() == null)
+            {
+                throw new NoSuchElementException();
+            }
+            last = -1;
+            return otherIterator.next();
+        }
+
+        public void remove()
+        {
+            if (last >= 0)
+            {
+                unset(last);
+                last = -1;
+            }
+            else if (otherIterator != null)
+            {
+                otherIterator.remove();
+            }
+            else
+            {
+                throw new IllegalStateException();
+            }
+        }
+    }
+
+    private class SlotEntry implements Map.Entry<String, Object>
+    {
+        private final int slot;
+
+        private SlotEntry(int slot)
+        {
+            this.slot = slot;
+        }
+
+        public String getKey()
+        {
+            return plan.axisNames[slot];
+        }
+
+        public Object getValue()
+        {
+            return get(slot);
+        }
+
+        public Object setValue(Object value)
+        {
+            final Object old = get(slot);
+            set(slot, value);
+            return old;
+        }
+
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Map.Entry))
+            {
+                return false;
+            }
+            Map.Entry e = (Map.Entry) o;
+            Object v = getValue();
+            return getKey().equals(e.getKey()) && (v == null ? e.getValue() == null : v.equals(e.getValue()));
+        }
+
+        public int hashCode()
+        {
+            Object v = getValue();
+            return getKey().hashCode() ^ (v == null ? 0 : v.hashCode());
+        }
+
+        public String toString()
+        {
+            return getKey() + "=" + getValue();
+        }
+    }
+}
@@ -0,0 +1,421 @@
+package com.cedarsoftware.ncube;
+
+import com.cedarsoftware.util.CaseInsensitiveMap;
+import com.cedarsoftware.util.io.JsonObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Single pass reader of the n-cube JSON format.  Everything but the 'cells' array is small (name,
+ * meta-properties, axes) and is read into JSON Maps, exactly as JsonReader with USE_MAPS would.  As soon
+ * as the name and the axes have been read, the n-cube is built, and each entry of the 'cells' array is
+ * read and placed in the n-cube before the next one is read, so the cells never exist as a JSON Map
+ * tree (only one cell at a time does).  If 'cells' comes before 'ncube' or 'axes' in the document,
+ * the cells are read into Maps and placed at the end.  Members that come after 'cells' (meta-properties,
+ * default cell value) are applied to the n-cube once the document has been read.  With a hydration executor set
+ * (NCube.setHydrationExecutor()), cells are read in batches that are hydrated in parallel.
+ * <pre>
+ *     JSON object    JsonObject
+ *     JSON array     Object[]
+ *     integer        Long (BigInteger if it does not fit)
+ *     decimal        Double
+ *     true / false   Boolean
+ * </pre>
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+final class CubeJsonReader
+{
+    private static final int BUFFER_SIZE = 16384;
+    private static final int PARALLEL_BATCH_SIZE = 65536;
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private long offset;            // position of buffer[0] in the document (for error messages)
+    private final StringBuilder text = new StringBuilder();
+
+    private CubeJsonReader(Reader reader)
+    {
+        this.reader = reader;
+    }
+
+    /**
+     * @param reader Reader positioned at the start of an n-cube in JSON format.  It is not closed.
+     * @return NCube built from the JSON.
+     */
+    static <T> NCube<T> read(Reader reader) throws IOException
+    {
+        return new CubeJsonReader(reader).readCube();
+    }
+
+    private <T> NCube<T> readCube() throws IOException
+    {
+        final JsonObject<String, Object> header = new JsonObject<>();
+        final Map<Object, Long> userIdToUniqueId = new CaseInsensitiveMap<>();
+        NCube<T> ncube = null;
+        boolean trailing = false;       // header members after the cells
+
+        expect('{');
+        if (peek() == '}')
+        {
+            pos++;
+        }
+        else
+        {
+            do
+            {
+                final String key = readKey();
+                if ("cells".equals(key) && ncube == null && header.containsKey("ncube") && header.containsKey("axes"))
+                {
+                    ncube = NCube.hydrateAxes(header, userIdToUniqueId);
+                    readCells(ncube, userIdToUniqueId);
+                }
+                else
+                {
+                    header.put(key, readValue());
+                    trailing |= ncube != null;
+                }
+            }
+            while (endOfMember('}'));
+        }
+
+        if (ncube == null)
+        {   // Unusual member order (or no cells) - same as a fully parsed document
+            return NCube.hydrateCube(header);
+        }
+        if (trailing)
+        {   // Meta-properties or default cell value after the cells
+            NCube.hydrateHeader(ncube, header);
+        }
+        return ncube;
+    }
+
+    /**
+     * Read the 'cells' array, placing each cell in the n-cube as soon as it has been read.
+     */
+    private void readCells(NCube ncube, Map<Object, Long> userIdToUniqueId) throws IOException
+    {
+        if (peek() != '[')
+        {   // Not an array (invalid), fail the way the Map based hydration does
+            NCube.hydrateCells(ncube, (Object[]) readValue(), userIdToUniqueId);
+            return;
+        }
+        pos++;
+        if (peek() == ']')
+        {
+            pos++;
+            return;
+        }
+        if (NCube.getHydrationExecutor() == null)
+        {
+            do
+            {
+                NCube.hydrateCell(ncube, (JsonObject) readValue(), userIdToUniqueId);
+            }
+            while (endOfMember(']'));
+            return;
+        }
+
+        // Parallel hydration: hand the cells over in batches, so at most one batch exists as Maps
+        final List<Object> batch = new ArrayList<>();
+        boolean more;
+        do
+        {
+            batch.add(readValue());
+            more = endOfMember(']');
+            if (batch.size() == PARALLEL_BATCH_SIZE || !more)
+            {
+                NCube.hydrateCells(ncube, batch.toArray(), userIdToUniqueId);
+                batch.clear();
+            }
+        }
+        while (more);
+    }
+
+    private Object readValue() throws IOException
+    {
+        final char c = peek();
+        switch (c)
+        {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                pos++;
+                return readString();
+            case 't':
+                expectWord("true");
+                return Boolean.TRUE;
+            case 'f':
+                expectWord("false");
+                return Boolean.FALSE;
+            case 'n':
+                expectWord("null");
+                return null;
+            default:
+                if (c == '-' || (c >= '0' && c <= '9'))
+                {
+                    return readNumber();
+                }
+                throw error("Unexpected character '" + c + "'");
+        }
+    }
+
+    private JsonObject readObject() throws IOException
+    {
+        final JsonObject<String, Object> map = new JsonObject<>();
+        pos++;
+        if (peek() == '}')
+        {
+            pos++;
+            return map;
+        }
+        do
+        {
+            final String key = readKey();
+            map.put(key, readValue());
+        }
+        while (endOfMember('}'));
+        return map;
+    }
+
+    private Object[] readArray() throws IOException
+    {
+        final List<Object> list = new ArrayList<>();
+        pos++;
+        if (peek() == ']')
+        {
+            pos++;
+            return new Object[0];
+        }
+        do
+        {
+            list.add(readValue());
+        }
+        while (endOfMember(']'));
+        return list.toArray();
+    }
+
+    private String readKey() throws IOException
+    {
+        expect('"');
+        final String key = readString();
+        expect(':');
+        return key;
+    }
+
+    /**
+     * @return true if a ',' follows (another member), false if the passed in closing character follows.
+     */
+    private boolean endOfMember(char close) throws IOException
+    {
+        final char c = peek();
+        pos++;
+        if (c == ',')
+        {
+            return true;
+        }
+        if (c == close)
+        {
+            return false;
+        }
+        throw error("Expected ',' or '" + close + "' but found '" + c + "'");
+    }
+
+    /**
+     * Read the rest of a String (the opening quote has been consumed).
+     */
+    private String readString() throws IOException
+    {
+        text.setLength(0);
+        while (true)
+        {
+            int start = pos;
+            while (pos < limit)
+            {   // Copy runs of plain characters straight from the buffer
+                final char c = buffer[pos];
+                if (c == '"' || c == '\\')
+                {
+                    break;
+                }
+                pos++;
+            }
+            text.append(buffer, start, pos - start);
+            if (pos == limit)
+            {
+                if (!fill())
+                {
+                    throw error("Unterminated String");
+                }
+                continue;
+            }
+            final char c = buffer[pos++];
+            if (c == '"')
+            {
+                return text.toString();
+            }
+            final char escaped = next();
+            switch (escaped)
+            {
+                case 'n': text.append('\n'); break;
+                case 't': text.append('\t'); break;
+                case 'r': text.append('\r'); break;
+                case 'b': text.append('\b'); break;
+                case 'f': text.append('\f'); break;
+                case 'u':
+                    int code = 0;
+                    for (int i = 0; i < 4; i++)
+                    {
+                        final int digit = Character.digit(next(), 16);
+                        if (digit < 0)
+                        {
+                            throw error("Invalid unicode escape");
+                        }
+                        code = (code << 4) | digit;
+                    }
+                    text.append((char) code);
+                    break;
+                default:    // '"', '\\', '/'
+                    text.append(escaped);
+            }
+        }
+    }
+
+    private Object readNumber() throws IOException
+    {
+        text.setLength(0);
+        boolean decimal = false;
+        while (true)
+        {
+            if (pos == limit && !fill())
+            {
+                break;
+            }
+            final char c = buffer[pos];
+            if ((c >= '0' && c <= '9') || c == '-' || c == '+')
+            {
+                text.append(c);
+            }
+            else if (c == '.' || c == 'e' || c == 'E')
+            {
+                decimal = true;
+                text.append(c);
+            }
+            else
+            {
+                break;
+            }
+            pos++;
+        }
+        final String number = text.toString();
+        try
+        {
+            if (decimal)
+            {
+                return Double.parseDouble(number);
+            }
+            try
+            {
+                return Long.parseLong(number);
+            }
+            catch (NumberFormatException e)
+            {
+                return new BigInteger(number);
+            }
+        }
+        catch (NumberFormatException e)
+        {
+            throw error("Invalid number '" + number + "'");
+        }
+    }
+
+    private void expectWord(String word) throws IOException
+    {
+        for (int i = 0; i < word.length(); i++)
+        {
+            if (next() != word.charAt(i))
+            {
+                throw error("Expected '" + word + "'");
+            }
+        }
+    }
+
+    private void expect(char expected) throws IOException
+    {
+        final char c = peek();
+        if (c != expected)
+        {
+            throw error("Expected '" + expected + "' but found '" + c + "'");
+        }
+        pos++;
+    }
+
+    /**
+     * @return next non-whitespace character, without consuming it.
+     */
+    private char peek() throws IOException
+    {
+        while (true)
+        {
+            if (pos == limit && !fill())
+            {
+                throw error("Unexpected end of JSON");
+            }
+            final char c = buffer[pos];
+            if (c != ' ' && c != '\n' && c != '\r' && c != '\t')
+            {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    private char next() throws IOException
+    {
+        if (pos == limit && !fill())
+        {
+            throw error("Unexpected end of JSON");
+        }
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException
+    {
+        offset += limit;
+        pos = 0;
+        limit = 0;
+        final int count = reader.read(buffer, 0, BUFFER_SIZE);
+        if (count <= 0)
+        {
+            return false;
+        }
+        limit = count;
+        return true;
+    }
+
+    private IllegalArgumentException error(String message)
+    {
+        return new IllegalArgumentException(message + " in n-cube JSON at position " + (offset + pos));
+    }
+}
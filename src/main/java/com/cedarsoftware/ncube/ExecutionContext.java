@@ -0,0 +1,121 @@
+package com.cedarsoftware.ncube;
+
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Cell execution stack of one getCell() call chain.  Each frame records the n-cube name and input
+ * coordinate of a cell being executed.  Nested getCell() calls made from executing cells (go(),
+ * at(), runRuleCube(), ...) pass along the same output Map, and therefore find the same context
+ * there (in the RuleInfo at output[NCube.RULE_EXEC_INFO]).  Because the context travels with the
+ * output Map rather than with the thread, work handed off to another thread (along with its output
+ * Map) keeps its stack, and idle threads hold no stack at all.
+ *
+ * Frames are pooled: pushing a frame reuses a previously popped one, so executing a cell does not
+ * allocate.  The stack is only rendered to a String when it is needed (error messages).
+ *
+ * Instances are not thread-safe.  Concurrent getCell() calls must not share an output Map.
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+public final class ExecutionContext
+{
+    private Frame[] frames = new Frame[8];
+    private int depth;
+
+    /**
+     * This is a "Pointer" (or Key) to a cell in an NCube.
+     * It consists of a String cube Name and the input coordinate.
+     */
+    private static final class Frame
+    {
+        String cubeName;
+        Map coord;
+    }
+
+    /**
+     * @return int number of cells currently executing in this context.
+     */
+    public int getDepth()
+    {
+        return depth;
+    }
+
+    void push(String cubeName, Map coordinate)
+    {
+        if (depth == frames.length)
+        {
+            final Frame[] grown = new Frame[depth * 2];
+            System.arraycopy(frames, 0, grown, 0, depth);
+            frames = grown;
+        }
+        Frame frame = frames[depth];
+        if (frame == null)
+        {
+            frame = new Frame();
+            frames[depth] = frame;
+        }
+        frame.cubeName = cubeName;
+        frame.coord = coordinate;
+        depth++;
+    }
+
+    void pop()
+    {
+        final Frame frame = frames[--depth];
+        frame.cubeName = null;
+        frame.coord = null;   // Do not hold onto the input after the cell has executed
+    }
+
+    /**
+     * @return String rendering of the stack, outermost cell first, one "-> cell:" line per frame.
+     */
+    public String toString()
+    {
+        final StringBuilder s = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+        {
+            if (i > 0)
+            {
+                s.append('\n');
+            }
+            s.append("-> cell:");
+            append(s, frames[i]);
+        }
+        return s.toString();
+    }
+
+    private static void append(StringBuilder s, Frame frame)
+    {
+        s.append(frame.cubeName);
+        s.append(":[");
+
+        Iterator<Map.Entry<String, Object>> i = frame.coord.entrySet().iterator();
+        while (i.hasNext())
+        {
+            Map.Entry<String, Object> coordinate = i.next();
+            s.append(coordinate.getKey());
+            s.append(':');
+            s.append(coordinate.getValue());
+            if (i.hasNext())
+            {
+                s.append(',');
+            }
+        }
+        s.append(']');
+    }
+}
@@ -0,0 +1,366 @@
+package com.cedarsoftware.ncube;
+
+import com.cedarsoftware.util.CaseInsensitiveMap;
+import com.cedarsoftware.util.TrackingMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precompiled form of what getCell() needs to bind an input coordinate on an n-cube without RULE
+ * axes: the axes in slot order, their names, and the declared (non-executable) required scope keys.
+ * On n-cubes with RULE axes, the rule execution walks the axes by slot (int index) using the same
+ * plan, with ruleAxes marking the RULE axes.  A plan is immutable.  NCube replaces (never modifies) its plan when the n-cube changes, and
+ * Coordinate instances are bound to the plan they were created from.
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+final class LookupPlan
+{
+    static final Object NOT_BOUND = new Object();
+    final boolean simple;
+    final Axis[] axes;
+    final String[] axisNames;
+    final boolean[] ruleAxes;
+    final List<String> inputKeys;
+    private final String[] declaredScope;
+    // Slot of each axis name and declared scope key (axis slots first, then the other declared keys)
+    private final Map<String, Integer> slots = new CaseInsensitiveMap<>();
+    private final int[] declaredSlots;
+
+    /**
+     * @param axes Axes of the n-cube, in n-cube order (this becomes the slot order)
+     * @param hasRuleAxis boolean true if any of the axes is a RULE axis
+     * @param declaredScope value of the n-cube's 'requiredScopeKeys' meta-property
+     */
+    LookupPlan(Collection<Axis> axes, boolean hasRuleAxis, Object declaredScope)
+    {
+        final int len = axes.size();
+        this.axes = axes.toArray(new Axis[len]);
+        axisNames = new String[len];
+        ruleAxes = new boolean[len];
+        for (int i = 0; i < len; i++)
+        {
+            axisNames[i] = this.axes[i].getName();
+            ruleAxes[i] = this.axes[i].getType() == AxisType.RULE;
+        }
+        inputKeys = Collections.unmodifiableList(Arrays.asList(axisNames));
+
+        // Declared scope that is an expression must be executed per call - general path only.
+        boolean eligible = !hasRuleAxis;
+        final List<String> keys = new ArrayList<>();
+        if (declaredScope instanceof Collection)
+        {
+            for (Object key : (Collection) declaredScope)
+            {
+                if (key instanceof String)
+                {
+                    keys.add((String) key);
+                }
+                else
+                {
+                    eligible = false;
+                }
+            }
+        }
+        else if (declaredScope != null)
+        {
+            eligible = false;
+        }
+        this.declaredScope = keys.toArray(new String[keys.size()]);
+        simple = eligible;
+
+        for (int i = 0; i < len; i++)
+        {
+            slots.put(axisNames[i], i);
+        }
+        declaredSlots = new int[this.declaredScope.length];
+        for (int i = 0; i < declaredSlots.length; i++)
+        {
+            Integer slot = slots.get(this.declaredScope[i]);
+            if (slot == null)
+            {
+                slot = slots.size();
+                slots.put(this.declaredScope[i], slot);
+            }
+            declaredSlots[i] = slot;
+        }
+    }
+
+    /**
+     * @return int slot of the named axis (name matched case-insensitively), or -1 if there is no
+     * such axis.
+     */
+    int indexOf(String axisName)
+    {
+        for (int i = 0; i < axisNames.length; i++)
+        {
+            if (axisNames[i].equalsIgnoreCase(axisName))
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Bind the coordinate to one column per axis.
+     * @return column IDs (in slot order), or null if the coordinate cannot be bound here (missing
+     * required scope, value not found on an axis), in which case the general path handles it
+     * (including producing the same exception messages).
+     */
+    long[] bind(Map coordinate)
+    {
+        if (coordinate instanceof Coordinate && ((Coordinate) coordinate).plan == this)
+        {
+            return bind((Coordinate) coordinate);
+        }
+        if (coordinate instanceof TrackingMap)
+        {   // Read the wrapped Map so that the caller's TrackingMap does not record our reads
+            coordinate = ((TrackingMap) coordinate).getWrappedMap();
+        }
+        final Object[] values = valuesOf(coordinate);
+        if (values == null)
+        {
+            return null;
+        }
+
+        final int len = axes.length;
+        final long[] ids = new long[len];
+        for (int i = 0; i < len; i++)
+        {
+            if (!bindSlot(i, values[i], ids))
+            {
+                return null;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Bind a batch of coordinates, one axis at a time.  Each distinct value is located on an axis
+     * once (findColumn() is the expensive part of binding), no matter how many rows carry it.
+     * @return array holding, for each row, the column IDs (in slot order), or null for rows that
+     * cannot be bound here (to be handled by the general path).
+     */
+    long[][] bindAll(List<? extends Map> coordinates)
+    {
+        final int rows = coordinates.size();
+        final Object[][] values = new Object[rows][];
+        final long[][] ids = new long[rows][];
+
+        for (int row = 0; row < rows; row++)
+        {
+            Map coordinate = coordinates.get(row);
+            if (coordinate instanceof TrackingMap)
+            {   // Read the wrapped Map so that the caller's TrackingMap does not record our reads
+                coordinate = ((TrackingMap) coordinate).getWrappedMap();
+            }
+            if (coordinate == null || (values[row] = valuesOf(coordinate)) == null)
+            {
+                continue;
+            }
+            ids[row] = new long[axes.length];
+        }
+
+        for (int slot = 0; slot < axes.length; slot++)
+        {
+            final Axis axis = axes[slot];
+            final Map<Object, Column> columns = new HashMap<>();
+            for (int row = 0; row < rows; row++)
+            {
+                if (ids[row] == null)
+                {
+                    continue;
+                }
+                Object value = values[row][slot];
+                if (value == NOT_BOUND)
+                {
+                    if (!axis.hasDefaultColumn())
+                    {
+                        ids[row] = null;
+                        continue;
+                    }
+                    value = null;
+                }
+
+                Column column = columns.get(value);
+                if (column == null && !columns.containsKey(value))
+                {
+                    try
+                    {
+                        column = findColumn(axis, value);
+                    }
+                    catch (RuntimeException e)
+                    {   // Let the general path raise it, in row order
+                        ids[row] = null;
+                        continue;
+                    }
+                    columns.put(value, column);
+                }
+                if (column == null)
+                {
+                    ids[row] = null;
+                    continue;
+                }
+                ids[row][slot] = column.id;
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return values of the coordinate by slot (NOT_BOUND where the coordinate has no value), or null
+     * if the coordinate lacks a declared required scope key.  Keys are matched case-insensitively; a Map
+     * that is not a CaseInsensitiveMap is read in one pass over its entries (when keys differ only by
+     * case, the last one wins, the same result as copying it into a CaseInsensitiveMap).  The array may
+     * extend past the axis slots.
+     */
+    private Object[] valuesOf(Map coordinate)
+    {
+        final Object[] values = new Object[slots.size()];
+        if (coordinate instanceof Coordinate && ((Coordinate) coordinate).plan == this)
+        {
+            for (String key : declaredScope)
+            {
+                if (!coordinate.containsKey(key))
+                {
+                    return null;
+                }
+            }
+            for (int i = 0; i < axes.length; i++)
+            {
+                values[i] = ((Coordinate) coordinate).valueAt(i);
+            }
+            return values;
+        }
+
+        if (coordinate instanceof CaseInsensitiveMap)
+        {
+            for (int i = 0; i < axisNames.length; i++)
+            {
+                values[i] = get(coordinate, axisNames[i]);
+            }
+            for (int i = 0; i < declaredSlots.length; i++)
+            {
+                values[declaredSlots[i]] = get(coordinate, declaredScope[i]);
+            }
+        }
+        else
+        {
+            Arrays.fill(values, NOT_BOUND);
+            for (Object item : coordinate.entrySet())
+            {
+                final Map.Entry entry = (Map.Entry) item;
+                if (entry.getKey() instanceof String)
+                {
+                    final Integer slot = slots.get(entry.getKey());
+                    if (slot != null)
+                    {
+                        values[slot] = entry.getValue();
+                    }
+                }
+            }
+        }
+
+        for (int slot : declaredSlots)
+        {
+            if (values[slot] == NOT_BOUND)
+            {
+                return null;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Bind a Coordinate created from this plan: values are already held by slot.
+     */
+    private long[] bind(Coordinate coordinate)
+    {
+        for (String key : declaredScope)
+        {
+            if (!coordinate.containsKey(key))
+            {
+                return null;
+            }
+        }
+
+        final int len = axes.length;
+        final long[] ids = new long[len];
+        for (int i = 0; i < len; i++)
+        {
+            if (!bindSlot(i, coordinate.valueAt(i), ids))
+            {
+                return null;
+            }
+        }
+        return ids;
+    }
+
+    private boolean bindSlot(int slot, Object value, long[] ids)
+    {
+        final Axis axis = axes[slot];
+        if (value == NOT_BOUND)
+        {
+            if (!axis.hasDefaultColumn())
+            {
+                return false;
+            }
+            value = null;
+        }
+        final Column column = findColumn(axis, value);
+        if (column == null)
+        {
+            return false;
+        }
+        ids[slot] = column.id;
+        return true;
+    }
+
+    /**
+     * Locate the column on the axis for the passed in input value, through the primitive findColumn()
+     * overloads when the value is a Long or a Double (no promotion, no re-boxing on axes of that type).
+     */
+    static Column findColumn(Axis axis, Object value)
+    {
+        if (value instanceof Long)
+        {
+            return axis.findColumn(((Long) value).longValue());
+        }
+        if (value instanceof Double)
+        {
+            return axis.findColumn(((Double) value).doubleValue());
+        }
+        return axis.findColumn((Comparable) value);
+    }
+
+    /**
+     * @return value associated to the key in the CaseInsensitiveMap, or NOT_BOUND if the Map does not
+     * contain the key.
+     */
+    private static Object get(Map coordinate, String key)
+    {
+        final Object value = coordinate.get(key);
+        return value != null || coordinate.containsKey(key) ? value : NOT_BOUND;
+    }
+}
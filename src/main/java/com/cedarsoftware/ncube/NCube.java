@@ -18,26 +18,39 @@ import com.cedarsoftware.util.ReflectionUtils;
 import com.cedarsoftware.util.StringUtilities;
 import com.cedarsoftware.util.TrackingMap;
 import com.cedarsoftware.util.io.JsonObject;
-import com.cedarsoftware.util.io.JsonReader;
 import com.cedarsoftware.util.io.JsonWriter;
 import groovy.util.MapEntry;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.StringReader;
 import java.lang.reflect.Array;
 import java.lang.reflect.Field;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Deque;
 import java.util.Enumeration;
 import java.util.HashMap;
@@ -50,7 +63,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
@@ -86,21 +109,41 @@ public class NCube<T>
     private String name;
     private String sha1;
     private final Map<String, Axis> axisList = new CaseInsensitiveMap<>();
-    final Map<Set<Long>, T> cells = new LinkedHashMap<>();
+    private final Map<Long, Axis> idToAxis = new HashMap<>();
+    CellMap<T> cells = new CellMap<>();
     private T defaultCellValue;
     public static final String validCubeNameChars = "0-9a-zA-Z._-";
     public static final String RULE_EXEC_INFO = "_rule";
-    private final Map<String, Advice> advices = new LinkedHashMap<>();
+    public static final String MEMOIZE_CELLS = "memoizeCells";
+    public static final String RULE_TRACE = "ruleTrace";
+    public static final String WRITE_GZIP = "gzip";
+    public static final String WRITE_DEFLATE_LEVEL = "deflateLevel";
+    public static final String WRITE_BUFFER_SIZE = "bufferSize";
+    // Copy-on-write: replaced, never modified, so advice can be added while other threads execute cells
+    private volatile Map<String, Advice> advices = new LinkedHashMap<>();
     private Map metaProps = new CaseInsensitiveMap<>();
     //  Sets up the defaultApplicationId for cubes loaded in from disk.
     private transient ApplicationID appId = ApplicationID.testAppId;
-    private static final ThreadLocal<Deque<StackEntry>> executionStack = new ThreadLocal<Deque<StackEntry>>()
-    {
-        public Deque<StackEntry> initialValue()
-        {
-            return new ArrayDeque<>();
-        }
-    };
+    // Copy-on-write state.  A frozen n-cube cannot be modified.  An n-cube obtained from edit() shares the
+    // cell store and the axes of the frozen n-cube it was created from, until it first modifies them.
+    private boolean frozen;
+    private boolean sharedCells;
+    private final Set<Long> sharedAxisIds = new LongHashSet();
+    // Built on first getCell(), dropped whenever the n-cube is modified (see clearSha1()).
+    private transient LookupPlan lookupPlan;
+    // Opt-in (MEMOIZE_CELLS meta-property) cache of executed cell results, dropped along with the lookup plan.
+    private transient CellMemo cellMemo;
+    // RULE_TRACE meta-property: trace 1 in traceSampling executions (0 = never), null until first read.
+    private transient Integer traceSampling;
+    private final AtomicLong traceCounter = new AtomicLong();
+    private static final int PARALLEL_CHUNK_SIZE = 1024;
+    private static volatile ExecutorService conditionExecutor;
+    // True on a thread evaluating a condition for evaluateConditions() (nested n-cubes evaluate inline)
+    private static final ThreadLocal<Boolean> onConditionWorker = new ThreadLocal<>();
+    private static volatile boolean lazyCellHydration;
+    private static volatile ExecutorService hydrationExecutor;
+    private static volatile int hydrationParallelism;
+    static final int PARALLEL_HYDRATION_THRESHOLD = 16384;
 
     /**
      * Creata a new NCube instance with the passed in name
@@ -160,7 +203,7 @@ public class NCube<T>
                 input = new TrackingMap(input);
             }
             CommandCell cmd = (CommandCell) value;
-            value = executeExpression(prepareExecutionContext(input, output), cmd);
+            value = executeExpression(prepareExecutionContext(input, output), cmd, getExecutionContext(output));
         }
         return value;
     }
@@ -173,6 +216,7 @@ public class NCube<T>
      */
     public Object setMetaProperty(String key, Object value)
     {
+        ensureMutable();
         clearSha1();
         return metaProps.put(key, value);
     }
@@ -182,6 +226,7 @@ public class NCube<T>
      */
     public Object removeMetaProperty(String key)
     {
+        ensureMutable();
         Object prop =  metaProps.remove(key);
         clearSha1();
         return prop;
@@ -193,6 +238,7 @@ public class NCube<T>
      */
     public void addMetaProperties(Map<String, Object> allAtOnce)
     {
+        ensureMutable();
         for (Map.Entry<String, Object> entry : allAtOnce.entrySet())
         {
             final String key = entry.getKey();
@@ -206,56 +252,22 @@ public class NCube<T>
      */
     public void clearMetaProperties()
     {
+        ensureMutable();
         metaProps.clear();
         clearSha1();
     }
 
-    /**
-     * This is a "Pointer" (or Key) to a cell in an NCube.
-     * It consists of a String cube Name and a Set of
-     * Column references (one Column per axis).
-     */
-    private static class StackEntry
-    {
-        final String cubeName;
-        final Map coord;
-
-        public StackEntry(String name, Map coordinate)
-        {
-            cubeName = name;
-            coord = coordinate;
-        }
-
-        public String toString()
-        {
-            StringBuilder s = new StringBuilder();
-            s.append(cubeName);
-            s.append(":[");
-
-            Iterator<Map.Entry<String, Object>> i = coord.entrySet().iterator();
-            while (i.hasNext())
-            {
-                Map.Entry<String, Object> coordinate = i.next();
-                s.append(coordinate.getKey());
-                s.append(':');
-                s.append(coordinate.getValue());
-                if (i.hasNext())
-                {
-                    s.append(',');
-                }
-            }
-            s.append(']');
-            return s.toString();
-        }
-    }
-
     /**
      * Add advice to this n-cube that will be called before / after any Controller Method or
-     * URL-based Expression, for the given method
+     * URL-based Expression, for the given method.  Allowed on a frozen n-cube: advice is not part of
+     * the n-cube's content (it is not persisted, nor part of the SHA-1), it is attached by NCubeManager
+     * to the n-cubes in its cache, and concurrent readers see either the old or the new set of advices.
      */
-    void addAdvice(Advice advice, String method)
+    synchronized void addAdvice(Advice advice, String method)
     {
-        advices.put(advice.getName() + '/' + method, advice);
+        final Map<String, Advice> copy = new LinkedHashMap<>(advices);
+        copy.put(advice.getName() + '/' + method, advice);
+        advices = copy;
     }
 
     /**
@@ -280,9 +292,9 @@ public class NCube<T>
     /**
      * For testing, advices need to be removed after test completes.
      */
-    void clearAdvices()
+    synchronized void clearAdvices()
     {
-        advices.clear();
+        advices = new LinkedHashMap<>();
     }
 
     /**
@@ -311,8 +323,17 @@ public class NCube<T>
         return appId;
     }
 
+    /**
+     * Set the ApplicationID of this n-cube.  On a frozen n-cube, only the ApplicationID it already has
+     * can be set (NCubeManager stamps n-cubes with the ApplicationID they are stored under).
+     */
     public void setApplicationID(ApplicationID appId)
     {
+        if (this.appId == null ? appId == null : this.appId.equals(appId))
+        {
+            return;
+        }
+        ensureMutable();
         this.appId = appId;
     }
 
@@ -348,8 +369,9 @@ public class NCube<T>
      */
     public T removeCell(final Map coordinate)
     {
+        final CellMap<T> store = cellsForWrite();
         clearSha1();
-        return cells.remove(getCoordinateKey(coordinate));
+        return store.remove(getCoordinateKey(coordinate));
     }
 
     /**
@@ -358,13 +380,14 @@ public class NCube<T>
      */
     public T removeCellById(final Set<Long> coordinate)
     {
+        final CellMap<T> store = cellsForWrite();
         clearSha1();
         Set<Long> ids = ensureFullCoordinate(coordinate);
         if (ids == null)
         {
             return null;
         }
-        return cells.remove(ids);
+        return store.remove(ids);
     }
 
     /**
@@ -432,8 +455,9 @@ public class NCube<T>
         {
             throw new IllegalArgumentException("Cannot set a cell to be an array type directly (except byte[]). Instead use GroovyExpression.");
         }
+        final CellMap<T> store = cellsForWrite();
         clearSha1();
-        return cells.put(getCoordinateKey(coordinate), value);
+        return store.put(getCoordinateKey(coordinate), value);
     }
 
     /**
@@ -446,13 +470,14 @@ public class NCube<T>
         {
             throw new IllegalArgumentException("Cannot set a cell to be an array type directly (except byte[]). Instead use GroovyExpression.");
         }
+        final CellMap<T> store = cellsForWrite();
         clearSha1();
         Set<Long> ids = ensureFullCoordinate(coordinate);
         if (ids == null)
         {
             throw new CoordinateNotFoundException("Unable to setCellById() into n-cube: " + name + " using coordinate: " + coordinate);
         }
-        return cells.put(ids, value);
+        return store.put(ids, value);
     }
 
     /**
@@ -483,6 +508,18 @@ public class NCube<T>
         return cells.get(ids);
     }
 
+    /**
+     * Create an empty input coordinate bound to the axes of this n-cube.  Values are set by axis
+     * index (the order of getAxes()) or by name, and the Coordinate is then passed to getCell() (or
+     * any API accepting a Map coordinate).  Binding a Coordinate to columns skips the String key
+     * lookups a Map coordinate requires.  Coordinates can be cleared and reused.
+     * @return Coordinate for this n-cube
+     */
+    public Coordinate coordinate()
+    {
+        return new Coordinate(getLookupPlan());
+    }
+
     /**
      * Fetch the contents of the cell at the location specified by the coordinate argument.
      * Be aware that if you have any rule cubes in the execution path, they can execute
@@ -535,13 +572,25 @@ public class NCube<T>
      */
     public T getCell(final Map coordinate, final Map output, Object defaultValue)
     {
+        final LookupPlan plan = getLookupPlan();
+        if (plan.simple && coordinate != null)
+        {
+            final long[] ids = plan.bind(coordinate);
+            if (ids != null)
+            {   // Fast path: no coordinate copy, no scope sets, no Set<Long> key
+                return getCellFromPlan(plan, ids, coordinate, output, defaultValue);
+            }
+        }
+
         final RuleInfo ruleInfo = getRuleInfo(output);
-        Map input = validateCoordinate(coordinate, output);
+        final ExecutionContext context = ruleInfo.getExecutionContext();
+        final boolean traced = isTraced(ruleInfo);
+        Map input = validateCoordinate(coordinate, output, traced);
         T lastStatementValue = null;
 
         if (!hasRuleAxis())
         {   // Perform fast bind and execute.
-            lastStatementValue = getCellById(getCoordinateKey(input), input, output, defaultValue);
+            lastStatementValue = getCellAt(cells.indexOf(getCoordinateKey(input)), input, output, defaultValue, context);
             ruleInfo.setLastExecutedStatement(lastStatementValue);
             output.put("return", lastStatementValue);
             return lastStatementValue;
@@ -549,92 +598,140 @@ public class NCube<T>
 
         boolean run = true;
         final List<Binding> bindings = ruleInfo.getAxisBindings();
-        final int depth = executionStack.get().size();
-        final int dimensions = getNumDimensions();
-        final String[] axisNames = axisList.keySet().toArray(new String[dimensions]);
+        final int depth = context.getDepth();
+        final Axis[] axes = plan.axes;
+        final String[] axisNames = plan.axisNames;
+        final boolean[] ruleAxes = plan.ruleAxes;
+        final int dimensions = axes.length;
+        final long[] ids = traced ? null : new long[dimensions];
 
         while (run)
         {
             run = false;
-            final Map<String, List<Column>> columnToAxisBindings = bindCoordinateToAxisColumns(input);
-            final Map<String, Integer> counters = getCountersPerAxis(axisNames);
-            final Map<Long, Object> cachedConditionValues = new HashMap<>();
-            final Map<String, Integer> conditionsFiredCountPerAxis = new HashMap<>();
+            // Columns bound on each axis (all candidate columns on a rule axis), the column index
+            // currently visited on each axis (variable radix counter), and per rule axis, the number
+            // of conditions that fired.
+            final Column[][] boundColumns = bindCoordinateToAxisColumns(plan, input);
+            final int[] counters = new int[dimensions];
+            final int[] conditionsFired = new int[dimensions];
+            // Condition results, by rule axis slot offset + column index
+            final int[] offsets = new int[dimensions];
+            int conditions = 0;
+            for (int slot = 0; slot < dimensions; slot++)
+            {
+                offsets[slot] = conditions;
+                conditions += ruleAxes[slot] ? boundColumns[slot].length : 0;
+            }
+            final BitSet conditionRun = new BitSet(conditions);
+            final BitSet conditionTrue = new BitSet(conditions);
+            // Answers simple conditions (see RuleIndex) without executing them
+            final RuleIndex.Probe[] probes = new RuleIndex.Probe[dimensions];
+            for (int slot = 0; slot < dimensions; slot++)
+            {
+                final RuleIndex index = ruleAxes[slot] ? axes[slot].getRuleIndex() : null;
+                probes[slot] = index == null ? null : index.probe(input);
+            }
+            // Results of side-effect free conditions on fireAll axes, evaluated concurrently up front
+            final ConditionResult[] evaluated = evaluateConditions(plan, boundColumns, offsets, conditions, input, context);
 
             try
             {
                 Map ctx = prepareExecutionContext(input, output);
                 do
                 {
-                    final Binding binding = new Binding(name, depth);
-
-                    for (final Axis axis: axisList.values())
+                    int slot = 0;
+                    for (; slot < dimensions; slot++)
                     {
-                        final String axisName = axis.getName();
-                        final Column boundColumn = columnToAxisBindings.get(axisName).get(counters.get(axisName) - 1);
-
-                        if (axis.getType() == AxisType.RULE)
+                        if (!ruleAxes[slot])
                         {
-                            Object conditionValue;
-                            if (!cachedConditionValues.containsKey(boundColumn.id))
-                            {   // Has the condition on the Rule axis been run this execution?  If not, run it and cache it.
-                                CommandCell cmd = (CommandCell) boundColumn.getValue();
-
-                                // If the cmd == null, then we are looking at a default column on a rule axis.
-                                // the conditionValue becomes 'true' for Default column when ruleAxisBindCount = 0
-                                final Integer count = conditionsFiredCountPerAxis.get(axisName);
-                                conditionValue = cmd == null ? isZero(count) : executeExpression(ctx, cmd);
-                                final boolean conditionAnswer = isTrue(conditionValue);
-                                cachedConditionValues.put(boundColumn.id, conditionAnswer);
-
-                                if (conditionAnswer)
-                                {   // Rule fired
-                                    conditionsFiredCountPerAxis.put(axisName, count == null ? 1 : count + 1);
-                                    if (!axis.isFireAll())
-                                    {   // Only fire one condition on this axis (fireAll is false)
-                                        counters.put(axisName, 1);
-                                        List<Column> boundCols = new ArrayList<>();
-                                        boundCols.add(boundColumn);
-                                        columnToAxisBindings.put(axisName, boundCols);
-                                    }
-                                }
-                            }
-                            else
-                            {   // re-use condition on this rule axis (happens when more than one rule axis on an n-cube)
-                                conditionValue = cachedConditionValues.get(boundColumn.id);
-                            }
+                            continue;
+                        }
 
-                            // A rule column on a given axis can be accessed more than once (example: A, B, C on
-                            // one rule axis, X, Y, Z on another).  This generates coordinate combinations
-                            // (AX, AY, AZ, BX, BY, BZ, CX, CY, CZ).  The condition columns must be run only once, on
-                            // subsequent access, the cached result of the condition is used.
-                            if (isTrue(conditionValue))
+                        // A rule column on a given axis can be accessed more than once (example: A, B, C on
+                        // one rule axis, X, Y, Z on another).  This generates coordinate combinations
+                        // (AX, AY, AZ, BX, BY, BZ, CX, CY, CZ).  The condition columns must be run only once, on
+                        // subsequent access, the cached result of the condition is used.
+                        final int condition = offsets[slot] + counters[slot];
+                        if (!conditionRun.get(condition))
+                        {   // Has the condition on the Rule axis been run this execution?  If not, run it and cache it.
+                            final Column boundColumn = boundColumns[slot][counters[slot]];
+                            final CommandCell cmd = (CommandCell) boundColumn.getValue();
+
+                            // If the cmd == null, then we are looking at a default column on a rule axis.
+                            // the conditionValue becomes 'true' for Default column when ruleAxisBindCount = 0
+                            final boolean conditionAnswer;
+                            if (cmd == null)
+                            {
+                                conditionAnswer = conditionsFired[slot] == 0;
+                            }
+                            else if (evaluated != null && evaluated[condition] != null)
                             {
-                                binding.bind(axisName, boundColumn);
+                                conditionAnswer = isTrue(evaluated[condition].consume(input));
+                                trackInputKeysUsed(input, output);
                             }
                             else
-                            {   // Incomplete binding - no need to attempt further bindings on other axes.
-                                break;
+                            {
+                                final int indexed = probes[slot] == null ? RuleIndex.UNKNOWN : probes[slot].test(boundColumn.id);
+                                if (indexed == RuleIndex.UNKNOWN)
+                                {
+                                    conditionAnswer = isTrue(executeExpression(ctx, cmd, context));
+                                }
+                                else
+                                {
+                                    conditionAnswer = indexed == RuleIndex.TRUE;
+                                    if (probes[slot].readKey())
+                                    {   // Report the input key read, as the executed condition would have
+                                        trackInputKeysUsed(input, output);
+                                    }
+                                }
+                            }
+                            conditionRun.set(condition);
+
+                            if (conditionAnswer)
+                            {   // Rule fired
+                                conditionTrue.set(condition);
+                                conditionsFired[slot]++;
+                                if (!axes[slot].isFireAll())
+                                {   // Only fire one condition on this axis (fireAll is false)
+                                    counters[slot] = 0;
+                                    boundColumns[slot] = new Column[] {boundColumn};
+                                    conditionRun.set(offsets[slot]);
+                                    conditionTrue.set(offsets[slot]);
+                                }
                             }
                         }
-                        else
-                        {
-                            binding.bind(axisName, boundColumn);
+
+                        if (!conditionTrue.get(offsets[slot] + counters[slot]))
+                        {   // Incomplete binding - no need to attempt further bindings on other axes.
+                            break;
                         }
                     }
 
                     // Step #2 Execute cell and store return value, associating it to the Axes and Columns it bound to
-                    if (binding.getNumBoundAxes() == dimensions)
+                    if (slot == dimensions && !traced)
+                    {   // Execute the cell without recording a Binding
+                        for (int i = 0; i < dimensions; i++)
+                        {
+                            ids[i] = boundColumns[i][counters[i]].id;
+                        }
+                        lastStatementValue = executeCell(cellOrDefault(cells.indexOf(ids), null), input, output, context);
+                    }
+                    else if (slot == dimensions)
                     {   // Conditions on rule axes that do not evaluate to true, do not generate complete coordinates (intentionally skipped)
+                        final Binding binding = new Binding(name, depth);
+                        for (int i = 0; i < dimensions; i++)
+                        {
+                            binding.bind(axisNames[i], boundColumns[i][counters[i]]);
+                        }
                         bindings.add(binding);
-                        lastStatementValue = executeAssociatedStatement(input, output, ruleInfo, binding);
+                        lastStatementValue = executeAssociatedStatement(input, output, ruleInfo, binding, context);
                     }
 
                     // Step #3 increment counters (variable radix increment)
-                } while (incrementVariableRadixCount(counters, columnToAxisBindings, axisNames));
+                } while (incrementVariableRadixCount(counters, boundColumns));
 
                 // Verify all rule axes were bound 1 or more times
-                ensureAllRuleAxesBound(coordinate, conditionsFiredCountPerAxis);
+                ensureAllRuleAxesBound(coordinate, plan, conditionsFired);
             }
             catch (RuleStop ignored)
             {
@@ -653,7 +750,241 @@ public class NCube<T>
         return lastStatementValue;
     }
 
-    private Object executeExpression(Map ctx, CommandCell cmd)
+    /**
+     * Set the executor on which conditions of RULE axes are evaluated concurrently, or null (the
+     * default) to evaluate all conditions on the calling thread.  Only conditions on fireAll axes,
+     * whose columns carry the meta-property Column.SIDE_EFFECT_FREE = true, are evaluated
+     * concurrently.  They are all evaluated before any cell on the n-cube executes, each against its
+     * own output Map, so such a condition must not write to the output Map or the input, nor depend
+     * on cells that do.  The cells still execute on the calling thread, in column order, and the
+     * Bindings and RuleInfo are the same as when the conditions are evaluated one after another.
+     * Rule cubes executed from within such a condition evaluate their own conditions on the worker
+     * thread, one after another, so a bounded executor cannot deadlock waiting on itself.
+     */
+    public static void setConditionExecutor(ExecutorService executor)
+    {
+        conditionExecutor = executor;
+    }
+
+    /**
+     * @return ExecutorService used to evaluate side-effect free rule conditions concurrently, or null.
+     */
+    public static ExecutorService getConditionExecutor()
+    {
+        return conditionExecutor;
+    }
+
+    /**
+     * Turn lazy cell hydration on or off (off by default).  When on, n-cubes loaded from JSON or from the
+     * binary format build their axes and cell coordinates as usual, but cell values that need parsing
+     * (expressions, URL cells, dates, points, binary, big numbers...) are kept in their raw form and parsed
+     * the first time the cell is read (getCell(), getCellById(), getCellNoExecute(), ...).  Whole-cube
+     * APIs (getCellMap(), sha1(), toFormattedJson()) parse all remaining cells.  A malformed cell value is
+     * therefore reported when the cell is first read rather than when the n-cube is loaded.
+     */
+    public static void setLazyCellHydration(boolean lazy)
+    {
+        lazyCellHydration = lazy;
+    }
+
+    /**
+     * @return true if cell values are parsed on first read rather than when an n-cube is loaded.
+     */
+    public static boolean isLazyCellHydration()
+    {
+        return lazyCellHydration;
+    }
+
+    /**
+     * Set the executor on which the cells of large n-cubes (PARALLEL_HYDRATION_THRESHOLD cells or more)
+     * are hydrated when the n-cube is loaded from JSON, or null (the default) to hydrate all cells on the
+     * loading thread.  Cell values are parsed, and cell coordinates built and validated, by as many tasks
+     * as the executor runs at once (the parallelism of a ForkJoinPool, the core pool size of a
+     * ThreadPoolExecutor, otherwise one per available processor); the cells are then stored in the n-cube
+     * on the loading thread.
+     */
+    public static void setHydrationExecutor(ExecutorService executor)
+    {
+        setHydrationExecutor(executor, 0);
+    }
+
+    /**
+     * Set the executor on which the cells of large n-cubes are hydrated (see setHydrationExecutor(ExecutorService))
+     * and the maximum number of tasks submitted to it per n-cube.
+     * @param executor ExecutorService to use, or null to hydrate all cells on the loading thread.
+     * @param parallelism int maximum number of tasks working at once, or 0 to size it from the executor.
+     */
+    public static void setHydrationExecutor(ExecutorService executor, int parallelism)
+    {
+        if (parallelism < 0)
+        {
+            throw new IllegalArgumentException("Hydration parallelism cannot be negative: " + parallelism);
+        }
+        hydrationParallelism = parallelism;
+        hydrationExecutor = executor;
+    }
+
+    /**
+     * @return ExecutorService used to hydrate the cells of large n-cubes in parallel, or null.
+     */
+    public static ExecutorService getHydrationExecutor()
+    {
+        return hydrationExecutor;
+    }
+
+    /**
+     * @return int maximum number of tasks hydrating the cells of one n-cube on the hydration executor.
+     */
+    public static int getHydrationParallelism()
+    {
+        if (hydrationParallelism > 0)
+        {
+            return hydrationParallelism;
+        }
+        final ExecutorService executor = hydrationExecutor;
+        if (executor instanceof ForkJoinPool)
+        {
+            return ((ForkJoinPool) executor).getParallelism();
+        }
+        if (executor instanceof ThreadPoolExecutor && ((ThreadPoolExecutor) executor).getCorePoolSize() > 0)
+        {
+            return ((ThreadPoolExecutor) executor).getCorePoolSize();
+        }
+        return Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Outcome of a condition evaluated ahead of the rule execution.  The value (or exception) and the
+     * input keys read are handed to the rule execution if, and when, it reaches the condition.
+     */
+    private static final class ConditionResult
+    {
+        private Object value;
+        private Throwable error;
+        private Collection keysUsed;
+
+        /**
+         * @return value of the condition, after reading the keys it read from the passed in input.
+         */
+        private Object consume(Map input)
+        {
+            for (Object key : keysUsed)
+            {   // Record the reads on the rule execution's input, as if the condition had run there
+                input.get(key);
+            }
+            if (error instanceof RuntimeException)
+            {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error)
+            {
+                throw (Error) error;
+            }
+            if (error != null)
+            {
+                throw new IllegalStateException(error);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Evaluate, concurrently on the condition executor, the side-effect free conditions bound on fireAll
+     * RULE axes (except indexed ones, which are answered without executing them).  Nothing is evaluated
+     * here when already on a thread evaluating a condition (a nested n-cube): the rule execution then
+     * evaluates the conditions itself.
+     * @return ConditionResult[] indexed like the rule execution's condition bits (null entries for
+     * conditions not evaluated here), or null if no condition was evaluated.
+     */
+    private ConditionResult[] evaluateConditions(LookupPlan plan, Column[][] boundColumns, int[] offsets, int conditions,
+                                                 Map input, final ExecutionContext context)
+    {
+        final ExecutorService executor = conditionExecutor;
+        if (executor == null || Boolean.TRUE.equals(onConditionWorker.get()))
+        {
+            return null;
+        }
+
+        final Map source = input instanceof TrackingMap ? ((TrackingMap) input).getWrappedMap() : input;
+        final ConditionResult[] results = new ConditionResult[conditions];
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int slot = 0; slot < boundColumns.length; slot++)
+        {
+            if (!plan.ruleAxes[slot] || !plan.axes[slot].isFireAll())
+            {
+                continue;
+            }
+            final RuleIndex index = plan.axes[slot].getRuleIndex();
+            for (int i = 0; i < boundColumns[slot].length; i++)
+            {
+                final Column column = boundColumns[slot][i];
+                final Object sideEffectFree = column.getMetaProperty(Column.SIDE_EFFECT_FREE);
+                if (!(column.getValue() instanceof CommandCell) || (index != null && index.covers(column.id)) ||
+                        !(Boolean.TRUE.equals(sideEffectFree) || "true".equalsIgnoreCase(String.valueOf(sideEffectFree))))
+                {
+                    continue;
+                }
+
+                final CommandCell cmd = (CommandCell) column.getValue();
+                final ConditionResult result = new ConditionResult();
+                results[offsets[slot] + i] = result;
+                final Runnable task = new Runnable()
+                {
+                    public void run()
+                    {
+                        final Boolean nested = onConditionWorker.get();
+                        onConditionWorker.set(Boolean.TRUE);
+                        final TrackingMap conditionInput = new TrackingMap(source);
+                        try
+                        {
+                            result.value = executeExpression(prepareExecutionContext(conditionInput, new HashMap()), cmd, context);
+                        }
+                        catch (Throwable t)
+                        {
+                            result.error = t;
+                        }
+                        finally
+                        {
+                            onConditionWorker.set(nested);
+                        }
+                        result.keysUsed = conditionInput.keysUsed();
+                    }
+                };
+                try
+                {
+                    futures.add(executor.submit(task));
+                }
+                catch (RejectedExecutionException e)
+                {
+                    task.run();
+                }
+            }
+        }
+
+        for (Future<?> future : futures)
+        {
+            try
+            {
+                future.get();
+            }
+            catch (ExecutionException e)
+            {
+                throw new IllegalStateException("Error evaluating rule conditions in parallel, n-cube: " + name, e.getCause());
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted evaluating rule conditions in parallel, n-cube: " + name, e);
+            }
+        }
+        return futures.isEmpty() ? null : results;
+    }
+
+    /**
+     * Execute the passed in command.  Errors are reported with the cell execution stack of the passed
+     * in context (which may be null when there is no getCell() call chain).
+     */
+    private Object executeExpression(Map ctx, CommandCell cmd, ExecutionContext context)
     {
         try
         {
@@ -670,7 +1001,7 @@ public class NCube<T>
             String msg = e.getMessage();
             if (!msg.contains("-> cell:"))
             {
-                throw new CoordinateNotFoundException(e.getMessage() + "\nerror occurred in cube: " + name + "\n" + stackToString());
+                throw new CoordinateNotFoundException(e.getMessage() + "\nerror occurred in cube: " + name + "\n" + stackToString(context));
             }
             else
             {
@@ -679,16 +1010,16 @@ public class NCube<T>
         }
         catch (Throwable t)
         {
-            throw new CommandCellException("Error occurred in cube: " + name + "\n" + stackToString(), t);
+            throw new CommandCellException("Error occurred in cube: " + name + "\n" + stackToString(context), t);
         }
     }
 
-    private T executeAssociatedStatement(Map input, Map output, RuleInfo ruleInfo, Binding binding)
+    private T executeAssociatedStatement(Map input, Map output, RuleInfo ruleInfo, Binding binding, ExecutionContext context)
     {
         try
         {
             final Set<Long> colIds = binding.getIdCoordinate();
-            T statementValue = getCellById(colIds, input, output);
+            T statementValue = getCellById(colIds, input, output, null, context);
             binding.setValue(statementValue);
             return statementValue;
         }
@@ -740,19 +1071,15 @@ public class NCube<T>
      * Verify that at least one rule on each rule axis fired.  If not, then you have a
      * CoordinateNotFoundException.
      * @param coordinate Input (Map) coordinate for getCell()
-     * @param conditionsFiredCountPerAxis Map that tracks AxisName to number of fired-columns bound to axis
+     * @param conditionsFired int[] number of fired-columns bound to each axis (by plan slot)
      */
-    private void ensureAllRuleAxesBound(Map coordinate, Map<String, Integer> conditionsFiredCountPerAxis)
+    private void ensureAllRuleAxesBound(Map coordinate, LookupPlan plan, int[] conditionsFired)
     {
-        for (Axis axis : axisList.values())
+        for (int slot = 0; slot < conditionsFired.length; slot++)
         {
-            if (axis.getType() == AxisType.RULE)
+            if (plan.ruleAxes[slot] && conditionsFired[slot] < 1)
             {
-                Integer count = conditionsFiredCountPerAxis.get(axis.getName());
-                if (count == null || count < 1)
-                {
-                    throw new CoordinateNotFoundException("No conditions on the rule axis: " + axis.getName() + " fired, and there is no default column on this axis, cube: " + name + ", input: " + coordinate);
-                }
+                throw new CoordinateNotFoundException("No conditions on the rule axis: " + plan.axisNames[slot] + " fired, and there is no default column on this axis, cube: " + name + ", input: " + coordinate);
             }
         }
     }
@@ -791,30 +1118,126 @@ public class NCube<T>
      */
     T getCellById(final Set<Long> idCoord, final Map coordinate, final Map output, Object defaultValue)
     {
-        // First, get a ThreadLocal copy of an NCube execution stack
-        Deque<StackEntry> stackFrame = executionStack.get();
-        boolean pushed = false;
-        try
+        return getCellById(idCoord, coordinate, output, defaultValue, getRuleInfo(output).getExecutionContext());
+    }
+
+    private T getCellById(final Set<Long> idCoord, final Map coordinate, final Map output, Object defaultValue, ExecutionContext context)
+    {
+        return executeCell(cellOrDefault(cells.indexOf(idCoord), defaultValue), coordinate, output, context);
+    }
+
+    /**
+     * Execute the cell at the passed in cell index (from CellMap.indexOf()), answering from the
+     * memoized results when the n-cube has MEMOIZE_CELLS enabled and the cell has already been
+     * executed with the same values for the input keys it reads.  Memoized cells are always executed
+     * with a TrackingMap input (the memo is keyed by the input keys read), even when not traced.
+     */
+    private T getCellAt(int cellIdx, Map input, Map output, Object defaultValue, ExecutionContext context)
+    {
+        final T cellValue = cellOrDefault(cellIdx, defaultValue);
+        final CellMemo memo = cellIdx >= 0 && cellValue instanceof CommandCell ? getCellMemo() : null;
+        if (memo == null)
+        {
+            return executeCell(cellValue, input, output, context);
+        }
+
+        final boolean traced = input instanceof TrackingMap;
+        final TrackingMap tracking = traced ? (TrackingMap) input : new TrackingMap(input);
+        final Map wrapped = tracking.getWrappedMap();
+        final CellMemo.Result cached = memo.get(memo.key(cellIdx, wrapped));
+        if (cached != null)
+        {
+            if (traced)
+            {
+                getRuleInfo(output).addInputKeysUsed(cached.keysUsed);
+            }
+            return (T) cached.value;
+        }
+        final Map before = new CaseInsensitiveMap<>(wrapped);
+        final T value = executeCell(cellValue, tracking, output, context);
+        memo.put(cellIdx, before, tracking.keysUsed(), value);
+        return value;
+    }
+
+    /**
+     * @return boolean true if this execution records its trace in the RuleInfo: a Binding per executed
+     * rule cell (RuleInfo.getAxisBindings()) and the input keys read (RuleInfo.getInputKeysUsed()).
+     * A value set on the RuleInfo (RuleInfo.setTrace()) applies to the whole call chain sharing it.
+     * Otherwise, the RULE_TRACE meta-property of this n-cube decides: true (default) traces every
+     * execution, false none, and a Number N traces 1 in N executions.
+     */
+    private boolean isTraced(RuleInfo ruleInfo)
+    {
+        final Boolean trace = ruleInfo.getTrace();
+        if (trace != null)
+        {
+            return trace;
+        }
+        Integer sampling = traceSampling;
+        if (sampling == null)
         {
-            // Form fully qualified cell lookup (NCube name + coordinate)
-            // Add fully qualified coordinate to ThreadLocal execution stack
-            final StackEntry entry = new StackEntry(name, coordinate);
-            stackFrame.push(entry);
-            pushed = true;
-            T cellValue;
-            if (cells.containsKey(idCoord))
-            {   // If there is content at the given coordinate...
-                cellValue = cells.get(idCoord);
+            final Object setting = getMetaProperty(RULE_TRACE);
+            if (setting instanceof Number)
+            {
+                sampling = Math.max(((Number) setting).intValue(), 0);
             }
             else
-            {   // Choose the correct default
-                cellValue = defaultCellValue == null ? (T) defaultValue : defaultCellValue;
+            {
+                sampling = Boolean.FALSE.equals(setting) || "false".equalsIgnoreCase(String.valueOf(setting)) ? 0 : 1;
+            }
+            traceSampling = sampling;
+        }
+        if (sampling <= 1)
+        {
+            return sampling == 1;
+        }
+        return traceCounter.getAndIncrement() % sampling == 0;
+    }
+
+    private CellMemo getCellMemo()
+    {
+        CellMemo memo = cellMemo;
+        if (memo == null)
+        {
+            final Object setting = getMetaProperty(MEMOIZE_CELLS);
+            if (setting == null)
+            {
+                return null;
             }
+            memo = CellMemo.create(setting);
+            cellMemo = memo;
+        }
+        return memo;
+    }
+
+    /**
+     * @return the value stored at the passed in cell index (from CellMap.indexOf()), or the default
+     * value if the index is negative (no cell).
+     */
+    private T cellOrDefault(int cellIdx, Object defaultValue)
+    {
+        if (cellIdx >= 0)
+        {   // If there is content at the given coordinate...
+            return cells.valueAt(cellIdx);
+        }
+        // Choose the correct default
+        return defaultCellValue == null ? (T) defaultValue : defaultCellValue;
+    }
 
+    /**
+     * Execute the passed in cell value (if it is a CommandCell), with the execution context recording
+     * this n-cube and coordinate.  Otherwise, the value itself is returned.
+     */
+    private T executeCell(T cellValue, final Map coordinate, final Map output, final ExecutionContext context)
+    {
+        // Add fully qualified coordinate (NCube name + coordinate) to the execution stack
+        context.push(name, coordinate);
+        try
+        {
             if (cellValue instanceof CommandCell)
             {
                 Map ctx = prepareExecutionContext(coordinate, output);
-                return (T) executeExpression(ctx, (CommandCell) cellValue);
+                return (T) executeExpression(ctx, (CommandCell) cellValue, context);
             }
             else
             {
@@ -823,14 +1246,270 @@ public class NCube<T>
             return cellValue;
         }
         finally
-        {	// Unwind stack: always remove if stacked pushed, even if Exception has been thrown
-            if (pushed)
+        {	// Unwind stack: always remove, even if Exception has been thrown
+            context.pop();
+        }
+    }
+
+    /**
+     * Fetch the contents of the cells at the passed in coordinates.  Same as calling getCell() for
+     * each coordinate in turn, but on n-cubes without RULE axes the coordinates are bound to columns
+     * as a batch: axis by axis, with each distinct value located on an axis only once.
+     * @param coordinates List of coordinates (Maps, e.g. Coordinate instances).
+     * @param outputs List that receives the output Map of each coordinate, in the same order, or
+     *                null if the output Maps are not needed.
+     * @param defaultValue Object returned for a coordinate that has no cell (see getCell()).
+     * @return List of cell values in the same order as the coordinates.
+     */
+    public List<T> getCells(final List<? extends Map> coordinates, final List<Map> outputs, Object defaultValue)
+    {
+        final int rows = coordinates.size();
+        final List<T> results = new ArrayList<>(rows);
+        final LookupPlan plan = getLookupPlan();
+        final long[][] ids = plan.simple ? plan.bindAll(coordinates) : null;
+
+        for (int row = 0; row < rows; row++)
+        {
+            final Map coordinate = coordinates.get(row);
+            final Map output = new HashMap();
+            if (ids != null && ids[row] != null)
+            {
+                results.add(getCellFromPlan(plan, ids[row], coordinate, output, defaultValue));
+            }
+            else
+            {   // Rule cubes, and coordinates that did not bind (reports the error as getCell() does)
+                results.add(getCell(coordinate, output, defaultValue));
+            }
+            if (outputs != null)
+            {
+                outputs.add(output);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * See getCells(coordinates, outputs, defaultValue)
+     */
+    public List<T> getCells(final List<? extends Map> coordinates)
+    {
+        return getCells(coordinates, null, null);
+    }
+
+    /**
+     * Receives the cells fetched by getCellsParallel() in unordered mode.  Called from the worker
+     * threads, as rows complete, so implementations must be thread-safe.
+     */
+    public interface CellVisitor<T>
+    {
+        /**
+         * @param index int position of the coordinate in the List passed to getCellsParallel()
+         * @param coordinate Map the input coordinate
+         * @param value T cell value (same as getCell() would return)
+         * @param output Map output of the row (same as getCell() would populate)
+         */
+        void visit(int index, Map coordinate, T value, Map output);
+    }
+
+    /**
+     * Fetch the contents of the cells at the passed in coordinates, spreading the coordinates over
+     * 'parallelism' tasks run by the passed in executor (e.g. a ForkJoinPool).  Each task processes
+     * chunks of rows through getCells(), so every row gets its own output Map (and RuleInfo) and
+     * executes on the task's thread, with that thread's execution stack.
+     * @param coordinates List of coordinates (Maps, e.g. Coordinate instances).
+     * @param outputs List that receives the output Map of each coordinate, in the same order, or
+     *                null if the output Maps are not needed.
+     * @param defaultValue Object returned for a coordinate that has no cell (see getCell()).
+     * @param executor ExecutorService that runs the tasks.
+     * @param parallelism int maximum number of tasks (and therefore threads) working at once.
+     * @return List of cell values in the same order as the coordinates.
+     */
+    public List<T> getCellsParallel(final List<? extends Map> coordinates, final List<Map> outputs, final Object defaultValue,
+                                    final ExecutorService executor, final int parallelism)
+    {
+        final Object[] values = new Object[coordinates.size()];
+        final Map[] outs = outputs == null ? null : new Map[coordinates.size()];
+        getCellsParallel(coordinates, defaultValue, executor, parallelism, new CellVisitor<T>()
+        {
+            public void visit(int index, Map coordinate, T value, Map output)
+            {
+                values[index] = value;
+                if (outs != null)
+                {
+                    outs[index] = output;
+                }
+            }
+        });
+
+        if (outputs != null)
+        {
+            outputs.addAll(Arrays.asList(outs));
+        }
+        return (List<T>) Arrays.asList(values);
+    }
+
+    /**
+     * Unordered form of getCellsParallel(): each cell is handed to the visitor as soon as its chunk
+     * of rows completes, so results do not need to be held until the whole batch is done.  If any
+     * row fails, the remaining chunks are skipped and the exception is thrown from this method.
+     * @param coordinates List of coordinates (Maps, e.g. Coordinate instances).
+     * @param defaultValue Object returned for a coordinate that has no cell (see getCell()).
+     * @param executor ExecutorService that runs the tasks.
+     * @param parallelism int maximum number of tasks (and therefore threads) working at once.
+     * @param visitor CellVisitor called (from the worker threads) with each row's result.
+     */
+    public void getCellsParallel(final List<? extends Map> coordinates, final Object defaultValue,
+                                 final ExecutorService executor, final int parallelism, final CellVisitor<T> visitor)
+    {
+        final int rows = coordinates.size();
+        final int chunkSize = Math.max(1, Math.min(PARALLEL_CHUNK_SIZE, (rows + Math.max(1, parallelism) - 1) / Math.max(1, parallelism)));
+        final int chunks = (rows + chunkSize - 1) / chunkSize;
+        runChunks(chunks, new ChunkTask()
+        {
+            public void run(int chunk)
+            {
+                final int start = chunk * chunkSize;
+                final List<? extends Map> rowsInChunk = coordinates.subList(start, Math.min(rows, start + chunkSize));
+                final List<Map> outputs = new ArrayList<>(rowsInChunk.size());
+                final List<T> values = getCells(rowsInChunk, outputs, defaultValue);
+                for (int i = 0; i < values.size(); i++)
+                {
+                    visitor.visit(start + i, rowsInChunk.get(i), values.get(i), outputs.get(i));
+                }
+            }
+        }, executor, parallelism, "Error fetching cells in parallel from n-cube: " + name);
+    }
+
+    /**
+     * One chunk of the work that runChunks() spreads over the threads of an executor.
+     */
+    private interface ChunkTask
+    {
+        void run(int chunk);
+    }
+
+    /**
+     * Run chunks 0 to chunks - 1 of the passed in work with up to 'parallelism' tasks on the passed in
+     * executor (on the calling thread when there is no executor or one task is enough).  Each task takes
+     * the next chunk until there are none left or a chunk has failed.  The first failure is thrown from
+     * this method: unchecked exceptions as they are, anything else wrapped in an IllegalStateException
+     * carrying the passed in message.
+     */
+    private static void runChunks(final int chunks, final ChunkTask work, final ExecutorService executor,
+                                  final int parallelism, final String errorMessage)
+    {
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                int chunk;
+                while (!failed.get() && (chunk = nextChunk.getAndIncrement()) < chunks)
+                {
+                    try
+                    {
+                        work.run(chunk);
+                    }
+                    catch (RuntimeException | Error e)
+                    {
+                        failed.set(true);
+                        throw e;
+                    }
+                }
+            }
+        };
+
+        final int tasks = Math.min(Math.max(1, parallelism), chunks);
+        if (executor == null || tasks <= 1)
+        {
+            task.run();
+            return;
+        }
+
+        final List<Future<?>> futures = new ArrayList<>(tasks);
+        for (int i = 0; i < tasks; i++)
+        {
+            futures.add(executor.submit(task));
+        }
+
+        Throwable error = null;
+        for (Future<?> future : futures)
+        {
+            try
             {
-                stackFrame.pop();
+                future.get();
             }
+            catch (ExecutionException e)
+            {
+                error = error == null ? e.getCause() : error;
+            }
+            catch (InterruptedException e)
+            {
+                failed.set(true);
+                Thread.currentThread().interrupt();
+                error = error == null ? e : error;
+            }
+        }
+
+        if (error instanceof RuntimeException)
+        {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error)
+        {
+            throw (Error) error;
+        }
+        if (error != null)
+        {
+            throw new IllegalStateException(errorMessage, error);
         }
     }
 
+    /**
+     * Fetch (and execute) the cell bound by the lookup plan.  Produces the same output (return
+     * value, RuleInfo input keys used) as the general getCell() path.
+     */
+    private T getCellFromPlan(LookupPlan plan, long[] ids, Map coordinate, Map output, Object defaultValue)
+    {
+        final RuleInfo ruleInfo = getRuleInfo(output);
+        final boolean traced = isTraced(ruleInfo);
+        final int cellIdx = cells.indexOf(ids);
+        T value = cellOrDefault(cellIdx, defaultValue);
+
+        if (value instanceof CommandCell)
+        {   // Executable cells receive the same (duplicated, tracked) input that the general path provides
+            final Map copy = new CaseInsensitiveMap<>(coordinate);
+            final Map input = traced ? new TrackingMap(copy) : copy;
+            if (traced)
+            {
+                for (String axisName : plan.axisNames)
+                {
+                    input.get(axisName);
+                }
+            }
+            value = getCellAt(cellIdx, input, output, defaultValue, ruleInfo.getExecutionContext());
+        }
+        else if (traced)
+        {
+            ruleInfo.addInputKeysUsed(plan.inputKeys);
+        }
+        ruleInfo.setLastExecutedStatement(value);
+        output.put("return", value);
+        return value;
+    }
+
+    private LookupPlan getLookupPlan()
+    {
+        LookupPlan plan = lookupPlan;
+        if (plan == null)
+        {
+            plan = new LookupPlan(axisList.values(), hasRuleAxis(), getMetaProperty("requiredScopeKeys"));
+            lookupPlan = plan;
+        }
+        return plan;
+    }
+
     private void trackInputKeysUsed(Map input, Map output)
     {
         if (input instanceof TrackingMap)
@@ -885,7 +1564,7 @@ public class NCube<T>
      */
     public Map<Object, T> getMap(final Map coordinate, Map output, Object defaultValue)
     {
-        final Map coord = validateCoordinate(coordinate, new HashMap());
+        final Map coord = validateCoordinate(coordinate, new HashMap(), true);
         final Axis wildcardAxis = getWildcardAxis(coord);
         final List<Column> columns = getWildcardColumns(wildcardAxis, coord);
         final Map<Object, T> result = new LinkedHashMap<>();
@@ -900,6 +1579,21 @@ public class NCube<T>
         return result;
     }
 
+    /**
+     * @return ExecutionContext of the getCell() call chain that the passed in output Map belongs to, or
+     * null if the output Map is not (yet) part of one.  Does not add RuleInfo to the output Map.
+     */
+    private static ExecutionContext getExecutionContext(Map output)
+    {
+        final Object ruleInfo = output.get(RULE_EXEC_INFO);
+        return ruleInfo instanceof RuleInfo ? ((RuleInfo) ruleInfo).getExecutionContext() : null;
+    }
+
+    private static String stackToString(ExecutionContext context)
+    {
+        return context == null ? "" : context.toString();
+    }
+
     /**
      * Get / Create the RuleInfo Map stored at output[NCube.RULE_EXEC_INFO]
      */
@@ -972,59 +1666,43 @@ public class NCube<T>
         return true;
     }
 
-    private static boolean isZero(Integer count)
-    {
-        return count == null || count == 0;
-    }
-
     /**
-     * Bind the input coordinate to each axis.  The reason the column is a List of columns that the coordinate
-     * binds to on the axis, is to support RULE axes.  On a regular axis, the coordinate binds
+     * Bind the input coordinate to each axis.  The reason the columns are an array of columns that the
+     * coordinate binds to on the axis, is to support RULE axes.  On a regular axis, the coordinate binds
      * to a column (with a binary search or hashMap lookup), however, on a RULE axis, the act
-     * of binding to an axis results in a List<Column>.
+     * of binding to an axis results in an array of candidate columns.
      * @param input The passed in input coordinate to bind (or multi-bind) to each axis.
+     * @return Column[][] holding the bound columns of each axis, by plan slot.
      */
-    private Map<String, List<Column>> bindCoordinateToAxisColumns(Map input)
+    private Column[][] bindCoordinateToAxisColumns(LookupPlan plan, Map input)
     {
-        Map<String, List<Column>> bindings = new CaseInsensitiveMap<>();
-        for (final Map.Entry<String, Axis> entry : axisList.entrySet())
+        final int dimensions = plan.axes.length;
+        final Column[][] bindings = new Column[dimensions][];
+        for (int slot = 0; slot < dimensions; slot++)
         {
-            final String axisName = entry.getKey();
-            final Axis axis = entry.getValue();
-            final Comparable value = (Comparable) input.get(axisName);
+            final String axisName = plan.axisNames[slot];
+            final Axis axis = plan.axes[slot];
+            final Object value = input.get(axisName);
 
-            if (axis.getType() == AxisType.RULE)
+            if (plan.ruleAxes[slot])
             {   // For RULE axis, all possible columns must be added (they are tested later during execution)
-                bindings.put(axisName, axis.getRuleColumnsStartingAt((String) input.get(axisName)));
+                final List<Column> cols = axis.getRuleColumnsStartingAt((String) input.get(axisName));
+                bindings[slot] = cols.toArray(new Column[cols.size()]);
             }
             else
             {   // Find the single column that binds to the input coordinate on a regular axis.
-                final Column column = axis.findColumn(value);
+                final Column column = LookupPlan.findColumn(axis, value);
                 if (column == null)
                 {
                     throw new CoordinateNotFoundException("Value '" + value + "' not found on axis: " + axis.getName() + ", cube: " + name);
                 }
-                List<Column> cols = new ArrayList<>();
-                cols.add(column);
-                bindings.put(axisName, cols);
+                bindings[slot] = new Column[] {column};
             }
         }
 
         return bindings;
     }
 
-    private static Map<String, Integer> getCountersPerAxis(final String[] axisNames)
-    {
-        final Map<String, Integer> counters = new CaseInsensitiveMap<>();
-
-        // Set counters to 1
-        for (final String axisName : axisNames)
-        {
-            counters.put(axisName, 1);
-        }
-        return counters;
-    }
-
     /**
      * Make sure the returned Set<Long> contains a column ID for each axis, even if the input set does
      * not have a coordinate for an axis, but the axis has a default column (the default column's ID will
@@ -1045,11 +1723,13 @@ public class NCube<T>
 
         for (Long colId : coordinate)
         {
-            Axis axis = getAxisFromColumnId(colId);
+            Axis axis = findAxisByColumnId(colId);
             if (axis != null)
             {
-                allAxes.remove(axis.getName());
-                point.add(colId);
+                if (point.add(colId) && !allAxes.remove(axis.getName()))
+                {   // More than one column specified for the same axis
+                    return null;
+                }
             }
         }
 
@@ -1127,54 +1807,28 @@ public class NCube<T>
         }
     }
 
-    private static String stackToString()
-    {
-        final Deque<StackEntry> stack = executionStack.get();
-        final Iterator<StackEntry> i = stack.descendingIterator();
-        final StringBuilder s = new StringBuilder();
-
-        while (i.hasNext())
-        {
-            final StackEntry key = i.next();
-            s.append("-> cell:");
-            s.append(key.toString());
-            if (i.hasNext())
-            {
-                s.append('\n');
-            }
-        }
-
-        return s.toString();
-    }
-
     /**
-     * Increment the variable radix number passed in.  The number is represented by a Map, where the keys are the
-     * digit names (axis names), and the values are the associated values for the number.
-     * @return false if more incrementing can be done, otherwise true.
+     * Increment the variable radix number passed in.  The number is represented by an array of digits
+     * (one per axis), where the radix of each digit is the number of columns bound on that axis.
+     * @return true if more incrementing can be done, otherwise false.
      */
-    private static boolean incrementVariableRadixCount(final Map<String, Integer> counters,
-                                                       final Map<String, List<Column>> bindings,
-                                                       final String[] axisNames)
+    private static boolean incrementVariableRadixCount(final int[] counters, final Column[][] bindings)
     {
-        int digit = axisNames.length - 1;
+        int digit = counters.length - 1;
 
         while (true)
         {
-            final String axisName = axisNames[digit];
-            final int count = counters.get(axisName);
-            final List<Column> cols = bindings.get(axisName);
-
-            if (count >= cols.size())
+            if (counters[digit] + 1 >= bindings[digit].length)
             {   // Reach max value for given dimension (digit)
                 if (digit == 0)
                 {   // we have reached the max radix for the most significant digit - we are done
                     return false;
                 }
-                counters.put(axisNames[digit--], 1);
+                counters[digit--] = 0;
             }
             else
             {
-                counters.put(axisName, count + 1);  // increment counter
+                counters[digit]++;  // increment counter
                 return true;
             }
         }
@@ -1256,7 +1910,7 @@ public class NCube<T>
         {
             final Axis axis = entry.getValue();
             final Object value = safeCoord.get(entry.getKey());
-            final Column column = axis.findColumn((Comparable) value);
+            final Column column = LookupPlan.findColumn(axis, value);
             if (column == null)
             {
                 throw new CoordinateNotFoundException("Value '" + coordinate + "' not found on axis: " + axis.getName() + ", cube: " + name);
@@ -1271,8 +1925,10 @@ public class NCube<T>
      * Ensure that the Map coordinate dimensionality satisfies this nCube.
      * This method verifies that all axes are listed by name in the input coordinate.
      * @param coordinate Map input coordinate
+     * @param track boolean true to return the duplicate wrapped in a TrackingMap (input keys read are
+     *              reported to the RuleInfo).
      */
-    private Map validateCoordinate(final Map coordinate, final Map output)
+    private Map validateCoordinate(final Map coordinate, final Map output, boolean track)
     {
         if (coordinate == null)
         {
@@ -1295,7 +1951,7 @@ public class NCube<T>
             }
         }
 
-        return new TrackingMap(copy);
+        return track ? new TrackingMap(copy) : copy;
     }
 
     /**
@@ -1357,6 +2013,7 @@ public class NCube<T>
      */
     public void setDefaultCellValue(final T defaultCellValue)
     {
+        ensureMutable();
         this.defaultCellValue = defaultCellValue;
         clearSha1();
     }
@@ -1366,7 +2023,7 @@ public class NCube<T>
      */
     public void clearCells()
     {
-        cells.clear();
+        dropCells();
         clearSha1();
     }
 
@@ -1404,7 +2061,7 @@ public class NCube<T>
      */
     public Column addColumn(final String axisName, final Comparable value, String colName, Long suggestedId)
     {
-        final Axis axis = getAxis(axisName);
+        final Axis axis = axisForWrite(axisList.get(axisName));
         if (axis == null)
         {
             throw new IllegalArgumentException("Could not add column. Axis name '" + axisName + "' was not found on cube: " + name);
@@ -1423,7 +2080,7 @@ public class NCube<T>
      */
     public boolean deleteColumn(final String axisName, final Comparable value)
     {
-        final Axis axis = getAxis(axisName);
+        final Axis axis = axisForWrite(axisList.get(axisName));
         if (axis == null)
         {
             throw new IllegalArgumentException("Could not delete column. Axis name '" + axisName + "' was not found on cube: " + name);
@@ -1464,20 +2121,8 @@ public class NCube<T>
 
         clearSha1();
 
-        long colId = column.id;
-
         // Remove all cells that reference the deleted column
-        final Iterator<Set<Long>> i = cells.keySet().iterator();
-
-        while (i.hasNext())
-        {
-            final Collection<Long> key = i.next();
-            // Locate the uniquely identified column, regardless of axis order
-            if (key.contains(colId))
-            {
-                i.remove();
-            }
-        }
+        cellsForWrite().removeColumn(column.id);
         return true;
     }
 
@@ -1488,11 +2133,12 @@ public class NCube<T>
      */
     public void updateColumn(long id, Comparable value)
     {
-        Axis axis = getAxisFromColumnId(id);
+        Axis axis = findAxisByColumnId(id);
         if (axis == null)
         {
             throw new IllegalArgumentException("No column exists with the id " + id + " within cube: " + name);
         }
+        axis = axisForWrite(axis);
         clearSha1();
         axis.updateColumn(id, value);
     }
@@ -1516,24 +2162,16 @@ public class NCube<T>
             throw new IllegalArgumentException("No axis exists with the name: " + axisName + ", cube: " + name);
         }
 
-        final Axis axisToUpdate = axisList.get(axisName);
+        final Axis axisToUpdate = axisForWrite(axisList.get(axisName));
         final Set<Long> colsToDel = axisToUpdate.updateColumns(newCols);
-        Iterator<Set<Long>> i = cells.keySet().iterator();
 
+        // If there are columns to delete, then delete any cells referencing those columns
         if (!colsToDel.isEmpty())
-        {   // If there are columns to delete, then delete any cells referencing those columns
-            while (i.hasNext())
+        {
+            final CellMap<T> store = cellsForWrite();
+            for (Long id : colsToDel)
             {
-                Collection<Long> cols = i.next();
-
-                for (Long id : colsToDel)
-                {
-                    if (cols.contains(id))
-                    {   // If cell referenced deleted column, drop the cell
-                        i.remove();
-                        break;
-                    }
-                }
+                store.removeColumn(id);
             }
         }
 
@@ -1542,21 +2180,26 @@ public class NCube<T>
     }
 
     /**
-     * Given the passed in Column ID, return the axis that contains the column.
+     * Given the passed in Column ID, return the axis that contains the column.  The Axis may be shared,
+     * and then read-only (see getAxis()).
      * @param id Long id of a Column on one of the Axes within this n-cube.
      * @return Axis containing the column id, or null if the id does not match
      * any columns.
      */
     public Axis getAxisFromColumnId(long id)
     {
-        for (final Axis axis : axisList.values())
+        return findAxisByColumnId(id);
+    }
+
+    private Axis findAxisByColumnId(long id)
+    {
+        // Column IDs are allocated within their axis' ID range (axis ID * BASE_AXIS_ID + n)
+        final Axis axis = idToAxis.get(id / Axis.BASE_AXIS_ID);
+        if (axis == null || axis.getColumnById(id) == null)
         {
-            if (axis.getColumnById(id) != null)
-            {
-                return axis;
-            }
+            return null;
         }
-        return null;
+        return axis;
     }
 
     /**
@@ -1573,11 +2216,15 @@ public class NCube<T>
      */
     public Map<Set<Long>, T> getCellMap()
     {
+        cells.materialize();
         return Collections.unmodifiableMap(cells);
     }
 
     /**
-     * Retrieve an axis (by name) from this NCube.
+     * Retrieve an axis (by name) from this NCube.  An Axis shared with other n-cubes (the axes of a
+     * frozen n-cube and of the n-cubes obtained from it with edit(), and loaded reference axes) is
+     * read-only: its methods that modify it throw an IllegalStateException.  Change it through the
+     * methods of this n-cube (addColumn(), updateColumns(), ...), or through getAxisForWrite().
      * @param axisName String name of Axis to fetch.
      * @return Axis instance requested by name, or null
      * if it does not exist.
@@ -1587,6 +2234,18 @@ public class NCube<T>
         return axisList.get(axisName);
     }
 
+    /**
+     * Retrieve an axis (by name) from this NCube, to modify it directly.  If the axis is shared with
+     * other n-cubes (read-only), it is copied first, and the copy replaces it in this n-cube.  Call
+     * clearSha1() after modifying the returned Axis.
+     * @param axisName String name of Axis to fetch.
+     * @return Axis instance requested by name, owned by this n-cube, or null if it does not exist.
+     */
+    public Axis getAxisForWrite(final String axisName)
+    {
+        return axisForWrite(axisList.get(axisName));
+    }
+
     /**
      * Add an Axis to this NCube.
      * All cells will be cleared when axis is added.
@@ -1594,25 +2253,34 @@ public class NCube<T>
      */
     public void addAxis(final Axis axis)
     {
+        ensureMutable();
         String axisName = axis.getName();
         if (axisList.containsKey(axisName))
         {
             throw new IllegalArgumentException("An axis with the name '" + axisName + "' already exists on cube: " + name);
         }
 
-        for (Axis axe : axisList.values())
+        if (idToAxis.containsKey(axis.id))
         {
-            if (axe.id == axis.id)
-            {
-                throw new IllegalArgumentException("An axis with the id '" + axe.id + "' already exists on cube: " + name);
-            }
+            throw new IllegalArgumentException("An axis with the id '" + axis.id + "' already exists on cube: " + name);
         }
 
-        cells.clear();
+        dropCells();
         axisList.put(axisName, axis);
+        idToAxis.put(axis.id, axis);
         clearSha1();
     }
 
+    /**
+     * Add an Axis that is shared with other n-cubes (a loaded reference axis, read-only).  It is copied
+     * before this n-cube modifies it.
+     */
+    void addSharedAxis(final Axis axis)
+    {
+        addAxis(axis);
+        sharedAxisIds.add(axis.id);
+    }
+
     /**
      * Rename an axis
      * @param oldName String old name
@@ -1620,15 +2288,16 @@ public class NCube<T>
      */
     public void renameAxis(final String oldName, final String newName)
     {
+        ensureMutable();
         if (StringUtilities.isEmpty(oldName) || StringUtilities.isEmpty(newName))
         {
             throw new IllegalArgumentException("Axis name cannot be empty or blank");
         }
-        if (getAxis(newName) != null)
+        if (axisList.containsKey(newName))
         {
             throw new IllegalArgumentException("There is already an axis named '" + oldName + "' on cube: " + name);
         }
-        final Axis axis = getAxis(oldName);
+        final Axis axis = axisForWrite(axisList.get(oldName));
         if (axis == null)
         {
             throw new IllegalArgumentException("Axis '" + oldName + "' not on cube: " + name);
@@ -1641,7 +2310,7 @@ public class NCube<T>
 
     public void breakAxisReference(final String axisName)
     {
-        Axis axis = getAxis(axisName);
+        Axis axis = axisForWrite(axisList.get(axisName));
         axis.breakReference();
         clearSha1();
     }
@@ -1654,9 +2323,16 @@ public class NCube<T>
      */
     public boolean deleteAxis(final String axisName)
     {
-        cells.clear();
+        dropCells();
         clearSha1();
-        return axisList.remove(axisName) != null;
+        final Axis axis = axisList.remove(axisName);
+        if (axis == null)
+        {
+            return false;
+        }
+        idToAxis.remove(axis.id);
+        sharedAxisIds.remove(axis.id);
+        return true;
     }
 
     /**
@@ -1668,7 +2344,7 @@ public class NCube<T>
     }
 
     /**
-     * @return List<Axis> a List of all axis within this n-cube.
+     * @return List<Axis> a List of all axis within this n-cube.  Shared Axes are read-only (see getAxis()).
      */
     public List<Axis> getAxes()
     {
@@ -1779,7 +2455,7 @@ public class NCube<T>
             }
         }
 
-        for (Axis axis : getAxes())
+        for (Axis axis : axisList.values())
         {
             if (axis.getType() == AxisType.RULE)
             {
@@ -1816,7 +2492,7 @@ public class NCube<T>
      * retain backward and forward compatibility.
      */
     public String toFormattedJson()
-    {
+    {   // JsonFormatter reads the cells through getCellMap(), which materializes lazily hydrated cells
         return new JsonFormatter().format(this);
     }
 
@@ -1852,10 +2528,7 @@ public class NCube<T>
     {
         try
         {
-            Map options = new HashMap<>();
-            options.put(JsonReader.USE_MAPS, true);
-            Map jsonNCube = (Map) JsonReader.jsonToJava(json, options);
-            return hydrateCube(jsonNCube);
+            return CubeJsonReader.read(new StringReader(json));
         }
         catch (RuntimeException | ThreadDeath e)
         {
@@ -1879,10 +2552,7 @@ public class NCube<T>
     {
         try
         {
-            Map options = new HashMap<>();
-            options.put(JsonReader.USE_MAPS, true);
-            Map jsonNCube = (Map) JsonReader.jsonToJava(stream, options);
-            return hydrateCube(jsonNCube);
+            return CubeJsonReader.read(new InputStreamReader(stream, StandardCharsets.UTF_8));
         }
         catch (RuntimeException | ThreadDeath e)
         {
@@ -1894,7 +2564,30 @@ public class NCube<T>
         }
     }
 
-    private static <T> NCube<T> hydrateCube(Map jsonNCube)
+    /**
+     * Build the n-cube from the JSON format already parsed into Maps (JsonReader with USE_MAPS).
+     */
+    static <T> NCube<T> hydrateCube(Map jsonNCube)
+    {
+        final Map<Object, Long> userIdToUniqueId = new CaseInsensitiveMap<>();
+        final NCube<T> ncube = hydrateAxes(jsonNCube, userIdToUniqueId);
+
+        // Read cells
+        if (jsonNCube.containsKey("cells"))
+        {   // Allow JSON to have no cells - empty cube
+            hydrateCells(ncube, (Object[]) jsonNCube.get("cells"), userIdToUniqueId);
+        }
+
+        return ncube;
+    }
+
+    /**
+     * Build the n-cube (name, meta-properties, default cell value, and axes) from everything in the
+     * passed in JSON Map except its cells.
+     * @param userIdToUniqueId Map filled with the column ids used in the JSON, mapped to the ids of the
+     *                         columns created for them (used to place cells given by column id).
+     */
+    static <T> NCube<T> hydrateAxes(Map jsonNCube, Map<Object, Long> userIdToUniqueId)
     {
         final String cubeName = getString(jsonNCube, "ncube");  // new cubes always have ncube as they key in JSON storage
         if (StringUtilities.isEmpty(cubeName))
@@ -1902,24 +2595,7 @@ public class NCube<T>
             throw new IllegalArgumentException("JSON format must have a root 'ncube' field containing the String name of the cube.");
         }
         final NCube ncube = new NCube(cubeName);
-        ncube.metaProps = new CaseInsensitiveMap();
-        ncube.metaProps.putAll(jsonNCube);
-        ncube.metaProps.remove("ncube");
-        ncube.metaProps.remove(DEFAULT_CELL_VALUE);
-        ncube.metaProps.remove(DEFAULT_CELL_VALUE_TYPE);
-        ncube.metaProps.remove(DEFAULT_CELL_VALUE_URL);
-        ncube.metaProps.remove(DEFAULT_CELL_VALUE_CACHE);
-        ncube.metaProps.remove("ruleMode");
-        ncube.metaProps.remove("axes");
-        ncube.metaProps.remove("cells");
-        ncube.metaProps.remove("ruleMode");
-        ncube.metaProps.remove("sha1");
-        loadMetaProperties(ncube.metaProps);
-
-        String defType = jsonNCube.containsKey(DEFAULT_CELL_VALUE_TYPE) ? getString(jsonNCube, DEFAULT_CELL_VALUE_TYPE) : null;
-        String defUrl = jsonNCube.containsKey(DEFAULT_CELL_VALUE_URL) ? getString(jsonNCube, DEFAULT_CELL_VALUE_URL) : null;
-        boolean defCache = getBoolean(jsonNCube, DEFAULT_CELL_VALUE_CACHE);
-        ncube.defaultCellValue = CellInfo.parseJsonValue(jsonNCube.get(DEFAULT_CELL_VALUE), defUrl, defType, defCache);
+        hydrateHeader(ncube, jsonNCube);
 
         if (!jsonNCube.containsKey("axes"))
         {
@@ -1933,7 +2609,6 @@ public class NCube<T>
             throw new IllegalArgumentException("Must be at least one axis defined in the JSON format, cube: " + cubeName);
         }
 
-        Map<Object, Long> userIdToUniqueId = new CaseInsensitiveMap<>();
         long idBase = 1;
 
         // Read axes
@@ -1945,9 +2620,9 @@ public class NCube<T>
             boolean isRef = getBoolean(jsonAxis, "isRef");
             if (isRef)
             {
-                ReferenceAxisLoader refAxisLoader = new ReferenceAxisLoader(cubeName, axisName, jsonAxis);
-                Axis newAxis = new Axis(axisName, idBase++, hasDefault, refAxisLoader);
-                ncube.addAxis(newAxis);
+                // Shared with the other n-cubes referring to the same axis, copied on first write
+                Axis newAxis = ReferenceAxisRegistry.getAxis(cubeName, axisName, idBase++, hasDefault, jsonAxis);
+                ncube.addSharedAxis(newAxis);
                 for (Column column : newAxis.getColumns())
                 {
                     userIdToUniqueId.put(column.id, column.id);
@@ -2103,71 +2778,204 @@ public class NCube<T>
             }
         }
 
-        // Read cells
-        if (jsonNCube.containsKey("cells"))
-        {   // Allow JSON to have no cells - empty cube
-            Object[] cells = (Object[]) jsonNCube.get("cells");
-
-            for (Object cell : cells)
+        return ncube;
+    }
+
+    /**
+     * Set the meta-properties and the default cell value of the n-cube from the top-level members of
+     * the passed in JSON Map (everything but its name, axes and cells), replacing any set before.
+     */
+    static void hydrateHeader(NCube ncube, Map jsonNCube)
+    {
+        ncube.metaProps = new CaseInsensitiveMap();
+        ncube.metaProps.putAll(jsonNCube);
+        ncube.metaProps.remove("ncube");
+        ncube.metaProps.remove(DEFAULT_CELL_VALUE);
+        ncube.metaProps.remove(DEFAULT_CELL_VALUE_TYPE);
+        ncube.metaProps.remove(DEFAULT_CELL_VALUE_URL);
+        ncube.metaProps.remove(DEFAULT_CELL_VALUE_CACHE);
+        ncube.metaProps.remove("ruleMode");
+        ncube.metaProps.remove("axes");
+        ncube.metaProps.remove("cells");
+        ncube.metaProps.remove("ruleMode");
+        ncube.metaProps.remove("sha1");
+        loadMetaProperties(ncube.metaProps);
+
+        String defType = jsonNCube.containsKey(DEFAULT_CELL_VALUE_TYPE) ? getString(jsonNCube, DEFAULT_CELL_VALUE_TYPE) : null;
+        String defUrl = jsonNCube.containsKey(DEFAULT_CELL_VALUE_URL) ? getString(jsonNCube, DEFAULT_CELL_VALUE_URL) : null;
+        boolean defCache = getBoolean(jsonNCube, DEFAULT_CELL_VALUE_CACHE);
+        ncube.defaultCellValue = CellInfo.parseJsonValue(jsonNCube.get(DEFAULT_CELL_VALUE), defUrl, defType, defCache);
+    }
+
+    /**
+     * Parse one entry of the 'cells' array of the JSON format and place it in the passed in n-cube
+     * (built by hydrateAxes()).  Cells that do not bind to the axes are skipped (orphaned cells).
+     */
+    static void hydrateCell(NCube ncube, JsonObject cMap, Map<Object, Long> userIdToUniqueId)
+    {
+        final String cubeName = ncube.getName();
+        Object ids = cMap.get("id");
+        Object v = parseCellValue(cMap);
+
+        if (ids instanceof Object[])
+        {   // If specified as ID array, build coordinate that way
+            Set<Long> colIds = toColumnIds((Object[]) ids, userIdToUniqueId);
+            try
+            {
+                ncube.setCellById(v, colIds);
+            }
+            catch (CoordinateNotFoundException e)
+            {
+                LOG.debug("Orphaned cell on n-cube: " + cubeName + ", ids: " + colIds);
+            }
+        }
+        else
+        {
+            if (!(cMap.get("key") instanceof JsonObject))
+            {
+                throw new IllegalArgumentException("'key' must be a JSON object {}, cube: " + cubeName);
+            }
+
+            JsonObject<String, Object> keys = (JsonObject<String, Object>) cMap.get("key");
+            for (Map.Entry<String, Object> entry : keys.entrySet())
+            {
+                keys.put(entry.getKey(), CellInfo.parseJsonValue(entry.getValue(), null, null, false));
+            }
+            try
+            {
+                ncube.setCell(v, keys);
+            }
+            catch (CoordinateNotFoundException e)
+            {
+                LOG.debug("Orphaned cell on n-cube: " + cubeName + ", coord: " + keys);
+            }
+        }
+    }
+
+    /**
+     * @return value of a cell of the JSON format (or its UnparsedCell with lazy cell hydration).
+     */
+    private static Object parseCellValue(JsonObject cMap)
+    {
+        String type = (String) cMap.get("type");
+        String url = (String) cMap.get("url");
+        boolean cache = false;
+
+        if (cMap.containsKey("cache"))
+        {
+            cache = getBoolean(cMap, "cache");
+        }
+
+        final Object value = cMap.get("value");
+        return lazyCellHydration && UnparsedCell.isDeferrable(value, url, type) ?
+                UnparsedCell.fromJson(value, url, type, cache) : CellInfo.parseJsonValue(value, url, type, cache);
+    }
+
+    /**
+     * @return column ids of the n-cube for the column ids of the 'id' array of a cell in the JSON format
+     * (ids that do not match a column are dropped).
+     */
+    private static Set<Long> toColumnIds(Object[] ids, Map<Object, Long> userIdToUniqueId)
+    {
+        Set<Long> colIds = new LongHashSet();
+        for (Object id : ids)
+        {
+            Long colId = userIdToUniqueId.get(id);
+            if (colId != null)
+            {
+                colIds.add(colId);
+            }
+        }
+        return colIds;
+    }
+
+    /**
+     * Place the entries of the 'cells' array of the JSON format in the passed in n-cube (built by
+     * hydrateAxes()).  When a hydration executor is set (see setHydrationExecutor()) and there are at
+     * least PARALLEL_HYDRATION_THRESHOLD cells, the array is split into chunks whose cell values are
+     * parsed and whose coordinates are built and validated on the executor's threads.  The cells given
+     * by column 'id' ahead of the first cell given by 'key' are then stored in one bulk step on the
+     * calling thread, and the remaining cells one at a time in array order.  When two entries address
+     * the same cell, the later one wins, just as when the cells are hydrated sequentially.
+     */
+    static void hydrateCells(final NCube ncube, final Object[] jsonCells, final Map<Object, Long> userIdToUniqueId)
+    {
+        final ExecutorService executor = hydrationExecutor;
+        if (executor == null || jsonCells.length < PARALLEL_HYDRATION_THRESHOLD)
+        {
+            for (Object cell : jsonCells)
             {
-                JsonObject cMap = (JsonObject) cell;
-                Object ids = cMap.get("id");
-                String type = (String) cMap.get("type");
-                String url = (String) cMap.get("url");
-                boolean cache = false;
+                hydrateCell(ncube, (JsonObject) cell, userIdToUniqueId);
+            }
+            return;
+        }
 
-                if (cMap.containsKey("cache"))
+        final int count = jsonCells.length;
+        final Set<Long>[] coords = new Set[count];
+        final Object[] values = new Object[count];
+        final int chunks = (count + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+        runChunks(chunks, new ChunkTask()
+        {
+            public void run(int chunk)
+            {
+                final int end = Math.min(count, (chunk + 1) * PARALLEL_CHUNK_SIZE);
+                for (int i = chunk * PARALLEL_CHUNK_SIZE; i < end; i++)
                 {
-                    cache = getBoolean(cMap, "cache");
-                }
-
-                Object v = CellInfo.parseJsonValue(cMap.get("value"), url, type, cache);
-
-                if (ids instanceof Object[])
-                {   // If specified as ID array, build coordinate that way
-                    Set<Long> colIds = new LongHashSet();
-                    for (Object id : (Object[])ids)
-                    {
-                        if (!userIdToUniqueId.containsKey(id))
-                        {
-                            continue;
-                        }
-                        colIds.add(userIdToUniqueId.get(id));
+                    final JsonObject cMap = (JsonObject) jsonCells[i];
+                    final Object ids = cMap.get("id");
+                    if (!(ids instanceof Object[]))
+                    {   // Bound by 'key' on the calling thread
+                        continue;
                     }
-                    try
+                    final Object value = parseCellValue(cMap);
+                    if (!(value instanceof byte[]) && value != null && value.getClass().isArray())
                     {
-                        ncube.setCellById(v, colIds);
+                        throw new IllegalArgumentException("Cannot set a cell to be an array type directly (except byte[]). Instead use GroovyExpression.");
                     }
-                    catch (CoordinateNotFoundException e)
+                    final Set<Long> colIds = toColumnIds((Object[]) ids, userIdToUniqueId);
+                    final Set<Long> coord = ncube.ensureFullCoordinate(colIds);
+                    if (coord == null)
                     {
-                        LOG.debug("Orphaned cell on n-cube: " + cubeName + ", ids: " + colIds);
+                        LOG.debug("Orphaned cell on n-cube: " + ncube.getName() + ", ids: " + colIds);
+                        continue;
                     }
+                    values[i] = value;
+                    coords[i] = coord;
                 }
-                else
-                {
-                    if (!(cMap.get("key") instanceof JsonObject))
-                    {
-                        throw new IllegalArgumentException("'key' must be a JSON object {}, cube: " + cubeName);
-                    }
+            }
+        }, executor, getHydrationParallelism(), "Error loading cells in parallel, n-cube: " + ncube.getName());
 
-                    JsonObject<String, Object> keys = (JsonObject<String, Object>) cMap.get("key");
-                    for (Map.Entry<String, Object> entry : keys.entrySet())
-                    {
-                        keys.put(entry.getKey(), CellInfo.parseJsonValue(entry.getValue(), null, null, false));
-                    }
-                    try
-                    {
-                        ncube.setCell(v, keys);
-                    }
-                    catch (CoordinateNotFoundException e)
-                    {
-                        LOG.debug("Orphaned cell on n-cube: " + cubeName + ", coord: " + keys);
-                    }
-                }
+        // Bulk merge of the cells given by 'id' ahead of the first cell given by 'key'
+        int first = 0;
+        while (first < count && ((JsonObject) jsonCells[first]).get("id") instanceof Object[])
+        {
+            first++;
+        }
+        int n = 0;
+        for (int i = 0; i < first; i++)
+        {
+            if (coords[i] != null)
+            {
+                coords[n] = coords[i];
+                values[n++] = values[i];
             }
         }
+        ncube.cellsForWrite().putAll(coords, values, n);
+        ncube.clearSha1();
 
-        return ncube;
+        // The rest in array order, so that a later entry for the same cell wins
+        for (int i = first; i < count; i++)
+        {
+            final JsonObject cMap = (JsonObject) jsonCells[i];
+            if (!(cMap.get("id") instanceof Object[]))
+            {
+                hydrateCell(ncube, cMap, userIdToUniqueId);
+            }
+            else if (coords[i] != null)
+            {
+                ncube.cellsForWrite().put(coords[i], values[i]);
+            }
+        }
     }
 
     private static void loadMetaProperties(Map props)
@@ -2281,12 +3089,237 @@ public class NCube<T>
     }
 
     /**
-     * Create an equivalent n-cube as 'this'.
+     * Create an equivalent n-cube as 'this', with the passed in name.  The copy is structural (no
+     * serialization), and independent of this n-cube: the axes, columns, and meta-properties are
+     * copied, as is the cell store.  Cell and meta-property values that are not modified in place
+     * (Strings, numbers, CommandCells - including their compiled code - points, ranges) are shared with
+     * this n-cube, mutable ones (arrays, Dates, Lists, Maps) are copied.  Loaded reference axes, which
+     * are read-only, stay shared until the copy modifies them (see getAxisForWrite()).
+     */
+    public NCube<T> duplicate(String newName)
+    {
+        final NCube<T> copy = new NCube<>(null);
+        copy.name = newName;
+        copy.defaultCellValue = (T) copyCellValue(defaultCellValue);
+        for (Map.Entry<String, Object> entry : (Set<Map.Entry<String, Object>>) metaProps.entrySet())
+        {
+            copy.metaProps.put(entry.getKey(), copyCellValue(entry.getValue()));
+        }
+
+        for (Axis axis : axisList.values())
+        {
+            final boolean shared = axis.isReadOnly() && axis.isReference();
+            final Axis axisCopy = shared ? axis : new Axis(axis);
+            copy.axisList.put(axisCopy.getName(), axisCopy);
+            copy.idToAxis.put(axisCopy.id, axisCopy);
+            if (shared)
+            {
+                copy.sharedAxisIds.add(axisCopy.id);
+            }
+        }
+
+        copy.cells = new CellMap<>(cells);
+        for (Map.Entry<Set<Long>, T> entry : copy.cells.entrySet())
+        {
+            final T value = entry.getValue();
+            final Object valueCopy = copyCellValue(value);
+            if (valueCopy != value)
+            {
+                entry.setValue((T) valueCopy);
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * @return the passed in value, or a (deep) copy of it if it is a value that can be modified in place
+     * (array, Date, Collection, Map).
+     */
+    private static Object copyCellValue(Object value)
+    {
+        if (value instanceof Date)
+        {
+            return new Date(((Date) value).getTime());
+        }
+        if (value instanceof Object[])
+        {
+            final Object[] array = ((Object[]) value).clone();
+            for (int i = 0; i < array.length; i++)
+            {
+                array[i] = copyCellValue(array[i]);
+            }
+            return array;
+        }
+        if (value != null && value.getClass().isArray())
+        {   // Array of primitives
+            final int len = Array.getLength(value);
+            final Object array = Array.newInstance(value.getClass().getComponentType(), len);
+            System.arraycopy(value, 0, array, 0, len);
+            return array;
+        }
+        if (value instanceof Map)
+        {
+            final Map map = value instanceof JsonObject ? new JsonObject() :
+                    value instanceof CaseInsensitiveMap ? new CaseInsensitiveMap() : new LinkedHashMap();
+            for (Map.Entry entry : (Set<Map.Entry>) ((Map) value).entrySet())
+            {
+                map.put(entry.getKey(), copyCellValue(entry.getValue()));
+            }
+            return map;
+        }
+        if (value instanceof Collection)
+        {
+            final Collection collection = value instanceof Set ? new LinkedHashSet() : new ArrayList();
+            for (Object item : (Collection) value)
+            {
+                collection.add(copyCellValue(item));
+            }
+            return collection;
+        }
+        return value;
+    }
+
+    /**
+     * Make this n-cube immutable.  Any attempt to modify a frozen n-cube (cells, axes, columns,
+     * meta-properties, default cell value, name) throws an IllegalStateException.  Because nothing
+     * is written while reading a frozen n-cube, any number of threads can call getCell() on it without
+     * locks.  To change a frozen n-cube, call edit(), modify the returned copy, freeze() it, and publish
+     * it in place of the original (e.g. NCubeManager.addCube()).  Readers holding the original
+     * continue to see a consistent snapshot.  The axes of a frozen n-cube are made read-only (see
+     * Axis.makeReadOnly()), as are the axes the n-cubes obtained with edit() share with it.  Columns
+     * of a frozen n-cube must be treated as read-only.  The ApplicationID cannot be changed either;
+     * advice can still be added (see addAdvice()).
+     * @return this n-cube (frozen)
+     */
+    public NCube<T> freeze()
+    {
+        if (!frozen)
+        {
+            sha1();     // computed now so that readers never write the cached SHA-1 or lookup plan
+            getLookupPlan();
+            for (Axis axis : axisList.values())
+            {
+                axis.makeReadOnly();
+            }
+            frozen = true;
+        }
+        return this;
+    }
+
+    /**
+     * @return boolean true if this n-cube has been frozen (made immutable), false otherwise.
+     */
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    /**
+     * Create a modifiable copy of this n-cube.  If this n-cube is frozen, the copy shares its cell
+     * store and axes (copy-on-write): the cells are copied the first time the copy modifies a cell,
+     * and an axis is copied the first time the copy modifies it (through its own methods, or
+     * getAxisForWrite()).  Otherwise, the cells and the axes this n-cube owns are copied immediately
+     * (shared reference axes stay shared).  Either way, this n-cube is never affected by changes made
+     * to the returned n-cube.
+     * @return NCube modifiable n-cube equivalent to this n-cube
+     */
+    public NCube<T> edit()
+    {
+        NCube<T> copy = new NCube<>(name);
+        copy.appId = appId;
+        copy.defaultCellValue = defaultCellValue;
+        copy.metaProps.putAll(metaProps);
+        copy.advices = new LinkedHashMap<>(advices);
+
+        for (Axis axis : axisList.values())
+        {
+            final boolean shared = frozen || sharedAxisIds.contains(axis.id);
+            final Axis axisCopy = shared ? axis : new Axis(axis);
+            copy.axisList.put(axisCopy.getName(), axisCopy);
+            copy.idToAxis.put(axisCopy.id, axisCopy);
+            if (shared)
+            {
+                copy.sharedAxisIds.add(axisCopy.id);
+            }
+        }
+
+        if (frozen)
+        {
+            copy.cells = cells;
+            copy.sharedCells = true;
+        }
+        else
+        {
+            copy.cells = new CellMap<>(cells);
+        }
+        copy.sha1 = sha1;
+        return copy;
+    }
+
+    private void ensureMutable()
+    {
+        if (frozen)
+        {
+            throw new IllegalStateException("Cannot modify a frozen n-cube, use edit() to obtain a modifiable copy, cube: " + name);
+        }
+    }
+
+    /**
+     * @return the cell store of this n-cube, ready to be modified (copied first if it is shared
+     * with the frozen n-cube this n-cube was created from).
+     */
+    private CellMap<T> cellsForWrite()
+    {
+        ensureMutable();
+        if (sharedCells)
+        {
+            cells = new CellMap<>(cells);
+            sharedCells = false;
+        }
+        return cells;
+    }
+
+    /**
+     * Remove all cells.  A shared cell store is dropped rather than cleared.
+     */
+    private void dropCells()
+    {
+        ensureMutable();
+        if (sharedCells)
+        {
+            cells = new CellMap<>();
+            sharedCells = false;
+        }
+        else
+        {
+            cells.clear();
+        }
+    }
+
+    /**
+     * @return the passed in Axis of this n-cube, ready to be modified (null if null passed in).
+     */
+    private Axis axisForWrite(Axis axis)
+    {
+        ensureMutable();
+        return detachAxis(axis);
+    }
+
+    /**
+     * If the passed in Axis is shared (with the frozen n-cube this n-cube was created from, or with
+     * other n-cubes referring to the same reference axis), replace it with a copy and return the copy,
+     * otherwise return the passed in Axis.  Only called on the way to modifying the axis.
      */
-    public NCube duplicate(String newName)
+    private Axis detachAxis(Axis axis)
     {
-        NCube copy = createCubeFromBytes(getCubeAsGzipJsonBytes());
-        copy.setName(newName);
+        if (axis == null || (!sharedAxisIds.remove(axis.id) && !axis.isReadOnly()))
+        {
+            return axis;
+        }
+        Axis copy = new Axis(axis);
+        axisList.put(copy.getName(), copy);
+        idToAxis.put(copy.id, copy);
+        lookupPlan = null;
         return copy;
     }
 
@@ -2313,6 +3346,9 @@ public class NCube<T>
     public void clearSha1()
     {
         sha1 = null;
+        lookupPlan = null;
+        cellMemo = null;
+        traceSampling = null;
     }
 
     /**
@@ -2347,6 +3383,7 @@ public class NCube<T>
             return sha1;
         }
 
+        cells.materialize();
         final byte sep = 0;
         MessageDigest sha1Digest = EncryptionUtilities.getSHA1Digest();
         sha1Digest.update(name == null ? "".getBytes() : name.getBytes());
@@ -2441,7 +3478,7 @@ public class NCube<T>
         List<String> list = new ArrayList<>();
         for (Long colId : columns)
         {
-            Axis axis = getAxisFromColumnId(colId);
+            Axis axis = findAxisByColumnId(colId);
             if (axis != null)
             {   // Rare case where a column has an invalid ID.
                 Column column = axis.getColumnById(colId);
@@ -2708,7 +3745,7 @@ public class NCube<T>
         Map<String, T> properCoord = new CaseInsensitiveMap<>();
         for (Long colId : idCoord)
         {
-            Axis axis = getAxisFromColumnId(colId);
+            Axis axis = findAxisByColumnId(colId);
             Column column = axis.getColumnById(colId);
             Object value = column.getValueThatMatches();
             if (value == null)
@@ -2747,7 +3784,7 @@ public class NCube<T>
         Map coord = new CaseInsensitiveMap<>();
         for (Long colId : idCoord)
         {
-            Axis axis = getAxisFromColumnId(colId);
+            Axis axis = findAxisByColumnId(colId);
             if (axis == null)
             {
                 return coord;
@@ -2843,7 +3880,7 @@ public class NCube<T>
 
     /**
      * Create an n-cube from a stream of bytes.  The stream can be either a JSON stream
-     * of an n-cube or a g-zip JSON stream.
+     * of an n-cube, a g-zip JSON stream, or the binary format (getCubeAsBinaryBytes()).
      */
     public static <T> NCube<T> createCubeFromStream(InputStream stream)
     {
@@ -2867,6 +3904,10 @@ public class NCube<T>
             }
 
             newStream.reset();
+            if (BinaryCubeFormat.isBinary(header))
+            {
+                return createCubeFromBinary(ByteBuffer.wrap(IOUtilities.inputStreamToBytes(newStream)));
+            }
             newStream = ByteUtilities.isGzipped(header) ? new GZIPInputStream(newStream) : newStream;
             return fromSimpleJson(newStream);
         }
@@ -2880,18 +3921,127 @@ public class NCube<T>
         }
     }
 
+    /**
+     * Create an n-cube from the binary format (see getCubeAsBinaryBytes()), starting at the current
+     * position of the passed in buffer.  Values are decoded from the buffer as they are first needed.
+     */
+    public static <T> NCube<T> createCubeFromBinary(ByteBuffer buffer)
+    {
+        if (buffer == null)
+        {
+            throw new IllegalArgumentException("Buffer cannot be null to create cube.");
+        }
+        return BinaryCubeFormat.read(buffer);
+    }
+
+    /**
+     * Create an n-cube from a file in the binary format (see getCubeAsBinaryBytes()).  The file is
+     * memory mapped rather than read into the heap.
+     */
+    public static <T> NCube<T> createCubeFromBinaryFile(File file)
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+        {
+            return createCubeFromBinary(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Error reading cube from file: " + file, e);
+        }
+    }
+
+    /**
+     * @return byte[] containing the bytes of this N-Cube in the versioned binary format, which loads
+     * without JSON parsing or decompression.  Use createCubeFromBinary() or createCubeFromBytes() to
+     * read it back.
+     */
+    public byte[] getCubeAsBinaryBytes()
+    {
+        ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
+        try
+        {
+            BinaryCubeFormat.write(this, byteOut);
+        }
+        catch (IOException e)
+        {
+            throw new IllegalStateException("Error writing cube to stream", e);
+        }
+        return byteOut.toByteArray();
+    }
+
     /**
      * @return byte[] containing the bytes of this N-Cube when converted to JSON format and then gzipped.
      */
     public byte[] getCubeAsGzipJsonBytes()
     {
         ByteArrayOutputStream byteOut = new ByteArrayOutputStream();
-        OutputStream gzipOut = null;
+        writeCube(byteOut, null);
+        return byteOut.toByteArray();
+    }
+
+    /**
+     * Write this n-cube in JSON format (gzipped by default) to the passed in stream.  The JSON is
+     * produced as the axes and cells are visited and is compressed as it is written, so neither the
+     * JSON text nor the compressed bytes are ever held in memory as a whole.  The stream is flushed,
+     * but not closed.  An IllegalStateException is thrown if the stream fails, including while the
+     * end of the gzip stream is written.
+     * @param out OutputStream to write to.
+     * @param options Map of options (may be null):<br>
+     * WRITE_GZIP: Boolean, gzip the JSON (default true)<br>
+     * WRITE_DEFLATE_LEVEL: Integer, Deflater compression level, 0-9 (default Deflater.DEFAULT_COMPRESSION)<br>
+     * WRITE_BUFFER_SIZE: Integer, size of the output buffer in bytes (default 8192)<br>
+     * Any other options are passed to JsonFormatter.formatCube() (e.g. indexFormat).
+     */
+    public void writeCube(OutputStream out, Map<String, Object> options)
+    {
+        if (out == null)
+        {
+            throw new IllegalArgumentException("Stream cannot be null to write cube.");
+        }
+        final Map<String, Object> opts = options == null ? new HashMap<String, Object>() : options;
+        final boolean gzip = !Boolean.FALSE.equals(opts.get(WRITE_GZIP));
+        final int level = opts.get(WRITE_DEFLATE_LEVEL) == null ? Deflater.DEFAULT_COMPRESSION : ((Number) opts.get(WRITE_DEFLATE_LEVEL)).intValue();
+        final int bufferSize = opts.get(WRITE_BUFFER_SIZE) == null ? 8192 : ((Number) opts.get(WRITE_BUFFER_SIZE)).intValue();
+        if (level < Deflater.DEFAULT_COMPRESSION || level > Deflater.BEST_COMPRESSION)
+        {
+            throw new IllegalArgumentException("Invalid deflate level: " + level + ", must be -1 (default) or 0 thru 9");
+        }
+        if (bufferSize <= 0)
+        {
+            throw new IllegalArgumentException("Invalid buffer size: " + bufferSize + ", must be greater than 0");
+        }
+
+        // Closing the gzip stream (to release its Deflater) must not close the caller's stream
+        final OutputStream sink = new FilterOutputStream(out)
+        {
+            public void write(byte[] b, int off, int len) throws IOException
+            {
+                out.write(b, off, len);
+            }
+
+            public void close() throws IOException
+            {
+                flush();
+            }
+        };
 
+        OutputStream stream = null;
         try
         {
-            gzipOut = new GZIPOutputStream(byteOut, 8192);
-            new JsonFormatter(gzipOut).formatCube(this, null);
+            stream = gzip ? new GZIPOutputStream(sink, bufferSize)
+            {
+                {
+                    def.setLevel(level);
+                }
+            } : new BufferedOutputStream(sink, bufferSize);
+            final FormatterStream formatterOut = new FormatterStream(stream);
+            new JsonFormatter(formatterOut).formatCube(this, opts);
+            formatterOut.rethrow();
+            if (stream instanceof GZIPOutputStream)
+            {
+                ((GZIPOutputStream) stream).finish();
+            }
+            stream.flush();
         }
         catch (Exception e)
         {
@@ -2899,9 +4049,97 @@ public class NCube<T>
         }
         finally
         {
-            IOUtilities.close(gzipOut);
+            IOUtilities.close(stream);
+        }
+    }
+
+    /**
+     * Stream handed to the JsonFormatter by writeCube().  close() only flushes (writeCube() finishes the
+     * stream itself), and the first IOException is kept, because the formatter ignores the ones thrown
+     * while it closes its stream.
+     */
+    private static final class FormatterStream extends FilterOutputStream
+    {
+        private IOException error;
+
+        private FormatterStream(OutputStream out)
+        {
+            super(out);
+        }
+
+        public void write(int b) throws IOException
+        {
+            try
+            {
+                out.write(b);
+            }
+            catch (IOException e)
+            {
+                throw failed(e);
+            }
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException
+        {
+            try
+            {
+                out.write(b, off, len);
+            }
+            catch (IOException e)
+            {
+                throw failed(e);
+            }
+        }
+
+        public void flush() throws IOException
+        {
+            try
+            {
+                out.flush();
+            }
+            catch (IOException e)
+            {
+                throw failed(e);
+            }
+        }
+
+        public void close() throws IOException
+        {
+            flush();
+        }
+
+        private IOException failed(IOException e)
+        {
+            if (error == null)
+            {
+                error = e;
+            }
+            return e;
+        }
+
+        /**
+         * Throw the first IOException written through this stream, if any.
+         */
+        private void rethrow() throws IOException
+        {
+            if (error != null)
+            {
+                throw error;
+            }
         }
-        return byteOut.toByteArray();
+    }
+
+    /**
+     * Write this n-cube in JSON format (gzipped by default) to the passed in channel, e.g. a FileChannel
+     * or a socket channel.  See writeCube(OutputStream, Map) for the options.  The channel is not closed.
+     */
+    public void writeCube(WritableByteChannel channel, Map<String, Object> options)
+    {
+        if (channel == null)
+        {
+            throw new IllegalArgumentException("Channel cannot be null to write cube.");
+        }
+        writeCube(Channels.newOutputStream(channel), options);
     }
 
     /**
@@ -2910,6 +4148,7 @@ public class NCube<T>
      */
     public void setName(String name)
     {
+        ensureMutable();
         this.name = name;
         clearSha1();
     }
@@ -2922,6 +4161,6 @@ public class NCube<T>
      */
     public Axis get(String axisName)
     {
-        return axisList.get(axisName);
+        return getAxis(axisName);
     }
 }
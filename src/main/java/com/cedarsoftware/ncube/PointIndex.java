@@ -0,0 +1,207 @@
+package com.cedarsoftware.ncube;
+
+import com.cedarsoftware.ncube.proximity.LatLon;
+import com.cedarsoftware.ncube.proximity.Point2D;
+import com.cedarsoftware.ncube.proximity.Point3D;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * k-d tree over the columns of a NEAREST axis whose values are multi-dimensional points
+ * (Point2D, Point3D, or LatLon), so the nearest column is found in O(Log n) expected time instead
+ * of computing the distance to every column.
+ * <pre>
+ *     Point2D, Point3D   split on x, y (, z) - pruned with the Euclidean distance
+ *     LatLon             split on the x, y, z of the point on the unit sphere - the straight line
+ *                        (chord) distance through the sphere grows with the Haversine distance, so
+ *                        it prunes exactly the same subtrees
+ * </pre>
+ * Candidates are measured with Proximity.distance(), and ties go to the column that comes first on
+ * the axis, so the column found is the one the linear scan in Axis.findNearest() finds.
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+final class PointIndex
+{
+    private static final double CHORD_SLACK = 1.0e-9;    // rounding of the Haversine formula, on the unit sphere
+    private final Class pointClass;
+    private final int dims;
+    private final double[] coords;      // tree order, dims per point
+    private final Column[] columns;     // tree order
+    private final int[] positions;      // position of the column on the axis (tie breaker)
+
+    private PointIndex(Class pointClass, int dims, int size)
+    {
+        this.pointClass = pointClass;
+        this.dims = dims;
+        coords = new double[size * dims];
+        columns = new Column[size];
+        positions = new int[size];
+    }
+
+    /**
+     * Best column found so far during one search.
+     */
+    private static final class Nearest
+    {
+        double distance = Double.MAX_VALUE;
+        int index = -1;
+    }
+
+    /**
+     * @param columns Collection of the columns of the axis, without the default column.
+     * @return PointIndex over the column values, or null if they are not all points of the same
+     * type (or there are fewer than two of them, which needs no search).
+     */
+    static PointIndex build(Collection<Column> columns)
+    {
+        if (columns.size() < 2)
+        {
+            return null;
+        }
+        final Column[] cols = columns.toArray(new Column[columns.size()]);
+        final Class pointClass = cols[0].getValue().getClass();
+        final int dims = pointClass == Point2D.class ? 2 : 3;
+        if (pointClass != Point2D.class && pointClass != Point3D.class && pointClass != LatLon.class)
+        {
+            return null;
+        }
+
+        final double[][] points = new double[cols.length][];
+        final Integer[] order = new Integer[cols.length];
+        for (int i = 0; i < cols.length; i++)
+        {
+            final Comparable value = cols[i].getValue();
+            if (value.getClass() != pointClass)
+            {
+                return null;
+            }
+            points[i] = toCoords(value);
+            order[i] = i;
+        }
+
+        final PointIndex index = new PointIndex(pointClass, dims, cols.length);
+        index.split(order, points, 0, cols.length, 0);
+        for (int i = 0; i < cols.length; i++)
+        {
+            final int pos = order[i];
+            System.arraycopy(points[pos], 0, index.coords, i * dims, dims);
+            index.columns[i] = cols[pos];
+            index.positions[i] = pos;
+        }
+        return index;
+    }
+
+    /**
+     * Arrange order[lo, hi) so the median (on dimension depth % dims) sits in the middle, with the
+     * smaller points before it and the larger after it, then do the same for each half.
+     */
+    private void split(Integer[] order, final double[][] points, int lo, int hi, int depth)
+    {
+        if (hi - lo < 2)
+        {
+            return;
+        }
+        final int k = depth % dims;
+        Arrays.sort(order, lo, hi, new Comparator<Integer>()
+        {
+            public int compare(Integer p1, Integer p2)
+            {
+                return Double.compare(points[p1][k], points[p2][k]);
+            }
+        });
+        final int mid = (lo + hi) >>> 1;
+        split(order, points, lo, mid, depth + 1);
+        split(order, points, mid + 1, hi, depth + 1);
+    }
+
+    private static double[] toCoords(Comparable value)
+    {
+        if (value instanceof Point2D)
+        {
+            final Point2D point = (Point2D) value;
+            return new double[] {point.getX(), point.getY()};
+        }
+        if (value instanceof Point3D)
+        {
+            final Point3D point = (Point3D) value;
+            return new double[] {point.getX(), point.getY(), point.getZ()};
+        }
+        final LatLon latLon = (LatLon) value;
+        final double lat = Math.toRadians(latLon.getLat());
+        final double lon = Math.toRadians(latLon.getLon());
+        return new double[] {Math.cos(lat) * Math.cos(lon), Math.cos(lat) * Math.sin(lon), Math.sin(lat)};
+    }
+
+    /**
+     * @param value Comparable point of the same type as the column values.
+     * @return Column nearest the passed in point, or null if no distance could be measured.
+     * @throws IllegalArgumentException if the value is not of the same type as the column values (same
+     * as Proximity.distance()).
+     */
+    Column find(Comparable value)
+    {
+        if (value.getClass() != pointClass)
+        {   // Let Proximity report the mismatch
+            Proximity.distance(value, columns[0].getValue());
+            return null;
+        }
+        final Nearest nearest = new Nearest();
+        search(value, toCoords(value), 0, columns.length, 0, nearest);
+        return nearest.index < 0 ? null : columns[nearest.index];
+    }
+
+    private void search(Comparable value, double[] query, int lo, int hi, int depth, Nearest nearest)
+    {
+        if (lo >= hi)
+        {
+            return;
+        }
+        final int mid = (lo + hi) >>> 1;
+        final double d = Proximity.distance(value, columns[mid].getValue());
+        if (d < nearest.distance || (d == nearest.distance && nearest.index >= 0 && positions[mid] < positions[nearest.index]))
+        {
+            nearest.distance = d;
+            nearest.index = mid;
+        }
+
+        final int k = depth % dims;
+        final double diff = query[k] - coords[mid * dims + k];
+        final boolean lowerFirst = diff < 0;
+        search(value, query, lowerFirst ? lo : mid + 1, lowerFirst ? mid : hi, depth + 1, nearest);
+        if (!(Math.abs(diff) > bound(nearest.distance)))
+        {   // The splitting plane is within reach of the best so far - the other side may hold a closer point
+            search(value, query, lowerFirst ? mid + 1 : lo, lowerFirst ? hi : mid, depth + 1, nearest);
+        }
+    }
+
+    /**
+     * @return the distance along one dimension of the tree that a point can be away and still be as
+     * close as the passed in distance.
+     */
+    private double bound(double distance)
+    {
+        if (pointClass != LatLon.class)
+        {
+            return distance;
+        }
+        final double angle = Math.min(distance / LatLon.EARTH_RADIUS, Math.PI);
+        return 2.0d * Math.sin(angle / 2.0d) + CHORD_SLACK;
+    }
+}
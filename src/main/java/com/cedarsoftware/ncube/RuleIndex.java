@@ -0,0 +1,600 @@
+package com.cedarsoftware.ncube;
+
+import com.cedarsoftware.util.CaseInsensitiveMap;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Index of the simple conditions on a RULE axis.  Conditions (GroovyExpressions) that consist only of
+ * tests of input keys against literals are recognized:
+ * <pre>
+ *     input.state == 'OH'            equality (also !=, and the literal on either side)
+ *     input.age &gt; 25                 comparison (&gt;, &gt;=, &lt;, &lt;=) against a number
+ *     input.state in ['OH', 'TX']    membership in a list of Strings
+ *     input.age &gt;= 18 &amp;&amp; input.age &lt; 30   conjunction of the above (interval)
+ * </pre>
+ * For each input key, equality and membership literals are hashed, and comparison thresholds are
+ * sorted.  During rule execution, the value of a key is read (through the TrackingMap input, as the
+ * condition would have) and located once (one hash lookup, two binary searches), after which each
+ * recognized condition on that key is answered without running Groovy.
+ *
+ * Answers follow Groovy semantics.  When the input value is of a type for which that cannot be
+ * guaranteed here (for example, a Date, or null in a comparison), the condition is reported as
+ * unknown and is executed as usual.  Conditions that are not recognized are always executed.
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+final class RuleIndex
+{
+    static final int FALSE = 0;
+    static final int TRUE = 1;
+    static final int UNKNOWN = -1;
+
+    private static final int EQ = 0;
+    private static final int NE = 1;
+    private static final int IN = 2;
+    private static final int GT = 3;
+    private static final int GE = 4;
+    private static final int LT = 5;
+    private static final int LE = 6;
+
+    private static final String KEY = "input\\s*(?:[?]?[.]\\s*([A-Za-z_][A-Za-z0-9_]*)|\\[\\s*(?:'([^'\\\\]*)'|\"([^\"\\\\$]*)\")\\s*\\])";
+    // Numbers with a leading zero (Groovy reads 010 as octal) are left to Groovy
+    private static final String LITERAL = "(?:'([^'\\\\]*)'|\"([^\"\\\\$]*)\"|(-?(?:0|[1-9]\\d*)(?:[.]\\d+)?))";
+    private static final String OP = "(==|!=|>=|<=|>|<)";
+    private static final Pattern KEY_OP_LITERAL = Pattern.compile("\\s*" + KEY + "\\s*" + OP + "\\s*" + LITERAL + "\\s*");
+    private static final Pattern LITERAL_OP_KEY = Pattern.compile("\\s*" + LITERAL + "\\s*" + OP + "\\s*" + KEY + "\\s*");
+    private static final Pattern KEY_IN_LIST = Pattern.compile("\\s*" + KEY + "\\s+in\\s*\\[((?:\\s*(?:'[^'\\\\]*'|\"[^\"\\\\$]*\")\\s*,)*\\s*(?:'[^'\\\\]*'|\"[^\"\\\\$]*\")\\s*)\\]\\s*");
+    private static final Pattern LIST_ITEM = Pattern.compile("'([^'\\\\]*)'|\"([^\"\\\\$]*)\"");
+    private static final Pattern AND = Pattern.compile("&&");
+
+    private final Map<Long, Atom[]> conditions = new HashMap<>();
+    private final Map<String, KeyIndex> keys = new CaseInsensitiveMap<>();
+
+    /**
+     * One test of an input key against literal(s).
+     */
+    private static final class Atom
+    {
+        final int id;
+        final int op;
+        final KeyIndex key;
+        BigDecimal threshold;
+        int rank;           // position of threshold among the key's sorted thresholds
+        int doubleRank;     // same, among the thresholds as doubles
+
+        Atom(int id, int op, KeyIndex key)
+        {
+            this.id = id;
+            this.op = op;
+            this.key = key;
+        }
+    }
+
+    /**
+     * Literals of all the conditions that test one input key.
+     */
+    private static final class KeyIndex
+    {
+        final String key;
+        final Map<String, BitSet> strings = new HashMap<>();
+        final Map<BigDecimal, BitSet> numbers = new HashMap<>();
+        final Map<Double, BitSet> doubles = new HashMap<>();
+        final Map<String, BitSet> members = new HashMap<>();
+        final List<Atom> comparisons = new ArrayList<>();
+        BigDecimal[] thresholds;
+        double[] doubleThresholds;
+
+        KeyIndex(String key)
+        {
+            this.key = key;
+        }
+    }
+
+    /**
+     * @return RuleIndex of the recognized conditions among the passed in (rule axis) columns, or null
+     * if none of them is recognized.
+     */
+    static RuleIndex build(Collection<Column> columns)
+    {
+        final RuleIndex index = new RuleIndex();
+        int atomId = 0;
+        for (Column column : columns)
+        {
+            if (!(column.getValue() instanceof GroovyExpression))
+            {
+                continue;
+            }
+            final GroovyExpression exp = (GroovyExpression) column.getValue();
+            if (exp.getCmd() == null || exp.getUrl() != null)
+            {
+                continue;
+            }
+            final String[] terms = AND.split(exp.getCmd().trim().replaceFirst(";\\s*$", ""), -1);
+            final Atom[] atoms = new Atom[terms.length];
+            for (int i = 0; i < terms.length; i++)
+            {
+                atoms[i] = index.parse(terms[i], atomId++);
+                if (atoms[i] == null)
+                {
+                    break;
+                }
+            }
+            if (atoms[atoms.length - 1] != null)
+            {
+                index.conditions.put(column.id, atoms);
+            }
+        }
+        if (index.conditions.isEmpty())
+        {
+            return null;
+        }
+        index.sortThresholds();
+        return index;
+    }
+
+    private Atom parse(String term, int atomId)
+    {
+        Matcher m = KEY_OP_LITERAL.matcher(term);
+        if (m.matches())
+        {
+            return atom(atomId, keyOf(m, 1), operator(m.group(4), false), m, 5);
+        }
+        m = LITERAL_OP_KEY.matcher(term);
+        if (m.matches())
+        {
+            return atom(atomId, keyOf(m, 5), operator(m.group(4), true), m, 1);
+        }
+        m = KEY_IN_LIST.matcher(term);
+        if (m.matches())
+        {
+            final Atom atom = new Atom(atomId, IN, keyIndex(keyOf(m, 1)));
+            final Matcher item = LIST_ITEM.matcher(m.group(4));
+            while (item.find())
+            {
+                mark(atom.key.members, item.group(1) != null ? item.group(1) : item.group(2), atomId);
+            }
+            return atom;
+        }
+        return null;
+    }
+
+    private Atom atom(int atomId, String key, int op, Matcher m, int literalGroup)
+    {
+        final String string = m.group(literalGroup) != null ? m.group(literalGroup) : m.group(literalGroup + 1);
+        final String number = m.group(literalGroup + 2);
+        if (op != EQ && op != NE && number == null)
+        {   // Comparing a String - leave it to Groovy
+            return null;
+        }
+
+        final Atom atom = new Atom(atomId, op, keyIndex(key));
+        if (op == EQ || op == NE)
+        {
+            if (number == null)
+            {
+                mark(atom.key.strings, string, atomId);
+            }
+            else
+            {
+                final BigDecimal value = new BigDecimal(number);
+                mark(atom.key.numbers, normalize(value), atomId);
+                mark(atom.key.doubles, value.doubleValue(), atomId);
+            }
+        }
+        else
+        {
+            atom.threshold = new BigDecimal(number);
+            atom.key.comparisons.add(atom);
+        }
+        return atom;
+    }
+
+    private static String keyOf(Matcher m, int group)
+    {
+        for (int i = group; i < group + 3; i++)
+        {
+            if (m.group(i) != null)
+            {
+                return m.group(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return operator, turned around when the literal is on the left (5 &lt; input.x is input.x &gt; 5).
+     */
+    private static int operator(String op, boolean literalFirst)
+    {
+        switch (op)
+        {
+            case "==":
+                return EQ;
+            case "!=":
+                return NE;
+            case ">":
+                return literalFirst ? LT : GT;
+            case ">=":
+                return literalFirst ? LE : GE;
+            case "<":
+                return literalFirst ? GT : LT;
+            default:
+                return literalFirst ? GE : LE;
+        }
+    }
+
+    private KeyIndex keyIndex(String key)
+    {
+        KeyIndex index = keys.get(key);
+        if (index == null)
+        {
+            index = new KeyIndex(key);
+            keys.put(key, index);
+        }
+        return index;
+    }
+
+    private static <K> void mark(Map<K, BitSet> map, K literal, int atomId)
+    {
+        BitSet atoms = map.get(literal);
+        if (atoms == null)
+        {
+            atoms = new BitSet();
+            map.put(literal, atoms);
+        }
+        atoms.set(atomId);
+    }
+
+    private void sortThresholds()
+    {
+        for (KeyIndex index : keys.values())
+        {
+            final int count = index.comparisons.size();
+            index.thresholds = new BigDecimal[count];
+            index.doubleThresholds = new double[count];
+            for (int i = 0; i < count; i++)
+            {
+                index.thresholds[i] = index.comparisons.get(i).threshold;
+            }
+            Arrays.sort(index.thresholds);
+            for (int i = 0; i < count; i++)
+            {   // Rounding to double keeps the (non-strict) order
+                index.doubleThresholds[i] = index.thresholds[i].doubleValue();
+            }
+            for (Atom atom : index.comparisons)
+            {
+                atom.rank = lowerBound(index.thresholds, atom.threshold);
+                atom.doubleRank = lowerBound(index.doubleThresholds, atom.threshold.doubleValue());
+            }
+        }
+    }
+
+    /**
+     * @return boolean true if the condition on the passed in column is indexed.
+     */
+    boolean covers(long columnId)
+    {
+        return conditions.containsKey(columnId);
+    }
+
+    /**
+     * @return Probe for answering conditions during one rule execution, against the passed in input.
+     */
+    Probe probe(Map input)
+    {
+        return new Probe(input);
+    }
+
+    /**
+     * Answers conditions for one rule execution.  Each input key is located in the index the first time
+     * a condition needs it, and located again only if its value has changed since (cells and executed
+     * conditions may assign to the input between two conditions).
+     */
+    final class Probe
+    {
+        private final Map input;
+        private final Map<KeyIndex, Located> located = new HashMap<>();
+        private boolean readKey;
+
+        private Probe(Map input)
+        {
+            this.input = input;
+        }
+
+        /**
+         * @return TRUE or FALSE, the answer of the condition on the passed in column, or UNKNOWN if the
+         * condition must be executed.
+         */
+        int test(long columnId)
+        {
+            final Atom[] atoms = conditions.get(columnId);
+            if (atoms == null)
+            {
+                return UNKNOWN;
+            }
+            for (Atom atom : atoms)
+            {   // Same short-circuit (and therefore same keys read) as &&
+                final int answer = test(atom);
+                if (answer != TRUE)
+                {
+                    return answer;
+                }
+            }
+            return TRUE;
+        }
+
+        /**
+         * @return boolean true if an input key was located (read for the first time, or found changed)
+         * since the last call.
+         */
+        boolean readKey()
+        {
+            final boolean read = readKey;
+            readKey = false;
+            return read;
+        }
+
+        private int test(Atom atom)
+        {
+            final Object current = input.get(atom.key.key);
+            Located value = located.get(atom.key);
+            if (value == null || value.value != current)
+            {
+                value = new Located(atom.key, current);
+                located.put(atom.key, value);
+                readKey = true;
+            }
+
+            switch (atom.op)
+            {
+                case EQ:
+                    return value.equalsLiteral(atom);
+                case NE:
+                    final int equal = value.equalsLiteral(atom);
+                    return equal == UNKNOWN ? UNKNOWN : TRUE - equal;
+                case IN:
+                    return value.member(atom);
+                default:
+                    return value.compare(atom);
+            }
+        }
+    }
+
+    /**
+     * An input value, located among the literals of a key.
+     */
+    private static final class Located
+    {
+        private final Object value;
+        private final BitSet equal;     // atoms whose literal equals the value (null if UNKNOWN)
+        private final BitSet member;    // IN atoms whose list contains the value (null if UNKNOWN)
+        private final boolean comparable;
+        private int lower;              // thresholds below the value
+        private int upper;              // thresholds below or at the value
+
+        private Located(KeyIndex index, Object value)
+        {
+            this.value = value;
+            BitSet eq = null;
+            BitSet in = null;
+            boolean cmp = false;
+
+            if (value == null)
+            {
+                eq = new BitSet();
+                in = eq;
+            }
+            else if (value instanceof String)
+            {
+                eq = index.strings.get(value);
+                in = index.members.get(value);
+            }
+            else if (value instanceof CharSequence)
+            {   // GString compares equal to a String with the same text
+                eq = index.strings.get(value.toString());
+            }
+            else if (isFloatingPoint(value))
+            {   // Groovy compares floating point values as doubles
+                final double d = ((Number) value).doubleValue();
+                if (!Double.isNaN(d))
+                {
+                    eq = index.doubles.get(d == 0.0d ? 0.0d : d);     // -0.0 == 0
+                    in = new BitSet();
+                    cmp = true;
+                    lower = lowerBound(index.doubleThresholds, d);
+                    upper = upperBound(index.doubleThresholds, d);
+                }
+            }
+            else if (isExactNumber(value))
+            {
+                final BigDecimal bd = toBigDecimal((Number) value);
+                eq = index.numbers.get(normalize(bd));
+                in = new BitSet();
+                cmp = true;
+                lower = lowerBound(index.thresholds, bd);
+                upper = upperBound(index.thresholds, bd);
+            }
+
+            if (eq == null && (value == null || value instanceof CharSequence || cmp))
+            {
+                eq = new BitSet();
+            }
+            if (in == null && value instanceof String)
+            {
+                in = new BitSet();
+            }
+            equal = eq;
+            member = in;
+            comparable = cmp;
+        }
+
+        private int equalsLiteral(Atom atom)
+        {
+            return equal == null ? UNKNOWN : equal.get(atom.id) ? TRUE : FALSE;
+        }
+
+        private int member(Atom atom)
+        {
+            return member == null ? UNKNOWN : member.get(atom.id) ? TRUE : FALSE;
+        }
+
+        private int compare(Atom atom)
+        {
+            if (!comparable)
+            {
+                return UNKNOWN;
+            }
+            final int rank = isFloatingPoint(value) ? atom.doubleRank : atom.rank;
+            final boolean answer;
+            switch (atom.op)
+            {
+                case GT:    // threshold < value
+                    answer = rank < lower;
+                    break;
+                case GE:    // threshold <= value
+                    answer = rank < upper;
+                    break;
+                case LT:    // threshold > value
+                    answer = rank >= upper;
+                    break;
+                default:    // LE: threshold >= value
+                    answer = rank >= lower;
+                    break;
+            }
+            return answer ? TRUE : FALSE;
+        }
+    }
+
+    private static boolean isFloatingPoint(Object value)
+    {
+        return value instanceof Double || value instanceof Float;
+    }
+
+    private static boolean isExactNumber(Object value)
+    {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte ||
+                value instanceof BigInteger || value instanceof BigDecimal;
+    }
+
+    private static BigDecimal toBigDecimal(Number value)
+    {
+        if (value instanceof BigDecimal)
+        {
+            return (BigDecimal) value;
+        }
+        if (value instanceof BigInteger)
+        {
+            return new BigDecimal((BigInteger) value);
+        }
+        return BigDecimal.valueOf(value.longValue());
+    }
+
+    /**
+     * @return BigDecimal that is equal (equals(), hashCode()) to every BigDecimal it compares equal to.
+     */
+    private static BigDecimal normalize(BigDecimal value)
+    {
+        return value.signum() == 0 ? BigDecimal.ZERO : value.stripTrailingZeros();
+    }
+
+    private static int lowerBound(BigDecimal[] sorted, BigDecimal value)
+    {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(value) < 0)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int upperBound(BigDecimal[] sorted, BigDecimal value)
+    {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (sorted[mid].compareTo(value) <= 0)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int lowerBound(double[] sorted, double value)
+    {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (sorted[mid] < value)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int upperBound(double[] sorted, double value)
+    {
+        int low = 0;
+        int high = sorted.length;
+        while (low < high)
+        {
+            final int mid = (low + high) >>> 1;
+            if (sorted[mid] <= value)
+            {
+                low = mid + 1;
+            }
+            else
+            {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
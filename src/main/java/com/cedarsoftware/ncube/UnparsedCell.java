@@ -0,0 +1,83 @@
+package com.cedarsoftware.ncube;
+
+/**
+ * Placeholder stored in the cell store (CellMap) in place of a cell value that has not been parsed
+ * yet (see NCube.setLazyCellHydration()).  It holds the raw payload of the cell as it was read (the
+ * JSON value, type, url, and cache fields, or the position of the value in a binary n-cube) and
+ * parses it the first time the cell is read.  CellMap never hands out an UnparsedCell, only the value
+ * it parses to, and materialize() replaces all of them with their values.
+ *
+ * The payload is parsed exactly once: the parsed value is published through a volatile field, and
+ * concurrent first reads wait on the placeholder while one of them parses it.
+ *
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br>
+ *         Copyright (c) Cedar Software LLC
+ *         <br><br>
+ *         Licensed under the Apache License, Version 2.0 (the "License");
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br><br>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br><br>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an "AS IS" BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+abstract class UnparsedCell
+{
+    private static final Object UNPARSED = new Object();
+    private volatile Object value = UNPARSED;
+
+    /**
+     * @return the cell value, parsing the payload on the first call.
+     */
+    final Object value()
+    {
+        Object v = value;
+        if (v == UNPARSED)
+        {
+            synchronized (this)
+            {
+                v = value;
+                if (v == UNPARSED)
+                {
+                    v = parse();
+                    value = v;
+                }
+            }
+        }
+        return v;
+    }
+
+    /**
+     * @return the cell value built from the raw payload.
+     */
+    protected abstract Object parse();
+
+    /**
+     * @return placeholder for a cell of the JSON format, whose value is built by CellInfo.parseJsonValue().
+     */
+    static UnparsedCell fromJson(final Object jsonValue, final String url, final String type, final boolean cache)
+    {
+        return new UnparsedCell()
+        {
+            protected Object parse()
+            {
+                return CellInfo.parseJsonValue(jsonValue, url, type, cache);
+            }
+        };
+    }
+
+    /**
+     * @return true if a cell of the JSON format with the passed in fields is worth deferring: its value
+     * is a URL or is parsed from a String (expressions, dates, points, binary, big numbers...).  Values
+     * that JSON already delivers as they are stored are not deferred.
+     */
+    static boolean isDeferrable(Object jsonValue, String url, String type)
+    {
+        return url != null || (jsonValue instanceof String && type != null && !type.isEmpty() && !"string".equals(type));
+    }
+}
@@ -2,6 +2,7 @@ package com.cedarsoftware.ncube
 import com.cedarsoftware.ncube.exception.AxisOverlapException
 import com.cedarsoftware.ncube.exception.CoordinateNotFoundException
 import com.cedarsoftware.ncube.proximity.LatLon
+import com.cedarsoftware.ncube.proximity.Point2D
 import com.cedarsoftware.ncube.proximity.Point3D
 import com.cedarsoftware.ncube.util.LongHashSet
 import com.cedarsoftware.util.CaseInsensitiveMap
@@ -1769,6 +1770,99 @@ class TestAxis
         assertTrue(TestNCube.countMatches(ncube.toHtml(), "<tr") == 8)
     }
 
+    @Test
+    void testNearestAxisPointIndex()
+    {
+        Random random = new Random(42)
+        Axis points2D = new Axis('points2D', AxisType.NEAREST, AxisValueType.COMPARABLE, false)
+        Axis points3D = new Axis('points3D', AxisType.NEAREST, AxisValueType.COMPARABLE, false)
+        Axis latLons = new Axis('latLons', AxisType.NEAREST, AxisValueType.COMPARABLE, false)
+        for (int i = 0; i < 500; i++)
+        {   // Integral coordinates, so there are plenty of ties
+            points2D.addColumn(new Point2D(random.nextInt(100), random.nextInt(100)))
+            points3D.addColumn(new Point3D(random.nextInt(20), random.nextInt(20), random.nextInt(20)))
+            latLons.addColumn(new LatLon(random.nextDouble() * 180.0d - 90.0d, random.nextDouble() * 360.0d - 180.0d))
+        }
+
+        for (int i = 0; i < 2000; i++)
+        {
+            Point2D point2D = new Point2D(random.nextInt(120) - 10, random.nextInt(120) - 10)
+            Point3D point3D = new Point3D(random.nextDouble() * 24.0d - 2.0d, random.nextInt(24) - 2, random.nextInt(24) - 2)
+            LatLon latLon = new LatLon(random.nextDouble() * 180.0d - 90.0d, random.nextDouble() * 360.0d - 180.0d)
+            assert points2D.findColumn(point2D) == linearNearest(points2D, point2D)
+            assert points3D.findColumn(point3D) == linearNearest(points3D, point3D)
+            assert latLons.findColumn(latLon) == linearNearest(latLons, latLon)
+        }
+
+        Column column = points2D.columnsWithoutDefault[7]
+        assert points2D.findColumn(column.value) == column
+        assert latLons.findColumn(new LatLon(90.0d, 0.0d)) == linearNearest(latLons, new LatLon(90.0d, 0.0d))
+
+        try
+        {
+            points2D.findColumn(new Point3D(1.0d, 2.0d, 3.0d))
+            fail()
+        }
+        catch (IllegalArgumentException e)
+        {
+            assert e.message.toLowerCase().contains('must be the same')
+        }
+    }
+
+    @Test
+    void testNearestAxisPointIndexPerformance()
+    {
+        Random random = new Random(7)
+        Axis axis = new Axis('geo', AxisType.NEAREST, AxisValueType.COMPARABLE, false)
+        for (int i = 0; i < 5000; i++)
+        {
+            axis.addColumn(new LatLon(random.nextDouble() * 180.0d - 90.0d, random.nextDouble() * 360.0d - 180.0d))
+        }
+        List<LatLon> inputs = []
+        for (int i = 0; i < 2000; i++)
+        {
+            inputs.add(new LatLon(random.nextDouble() * 180.0d - 90.0d, random.nextDouble() * 360.0d - 180.0d))
+        }
+        axis.findColumn(inputs[0])    // build the index
+
+        long start = System.nanoTime()
+        for (LatLon input : inputs)
+        {
+            axis.findColumn(input)
+        }
+        long stop = System.nanoTime()
+        double diff = (stop - start) / 1000.0  // usec
+        println("k-d tree lookup " + inputs.size() + " times over 5000 LatLon columns = " + (diff / 1000.0) + " ms")
+
+        start = System.nanoTime()
+        for (LatLon input : inputs)
+        {
+            linearNearest(axis, input)
+        }
+        stop = System.nanoTime()
+        diff = (stop - start) / 1000.0  // usec
+        println("linear lookup " + inputs.size() + " times over 5000 LatLon columns = " + (diff / 1000.0) + " ms")
+    }
+
+    /**
+     * The linear NEAREST scan the axis used before it had a k-d tree.
+     */
+    private static Column linearNearest(Axis axis, Comparable value)
+    {
+        double min = Double.MAX_VALUE
+        Column saveCol = null
+        for (Column column : axis.columnsWithoutDefault)
+        {
+            double d = Proximity.distance(value, column.value)
+            if (d < min)
+            {
+                min = d
+                saveCol = column
+            }
+        }
+        return saveCol
+    }
+
     @Test
     void testAxisProps()
     {
@@ -2689,6 +2783,82 @@ class TestAxis
         assert !reload.getAxis('stateSource').isReference()
     }
 
+    @Test
+    void testReferenceAxisShared()
+    {
+        NCube one = NCubeBuilder.getDiscrete1DAlt()
+        NCubeManager.addCube(ApplicationID.testAppId, one)
+
+        Map<String, Object> args = [:]
+        ApplicationID appId = ApplicationID.testAppId
+        args[REF_TENANT] = appId.tenant
+        args[REF_APP] = appId.app
+        args[REF_VERSION] = appId.version
+        args[REF_STATUS] = appId.status
+        args[REF_BRANCH] = appId.branch
+        args[REF_CUBE_NAME] = 'SimpleDiscrete'
+        args[REF_AXIS_NAME] = 'state'
+
+        Axis axis = ReferenceAxisRegistry.getAxis('Mongo', 'stateSource', 1, false, args)
+        assert ReferenceAxisRegistry.getAxis('Other', 'stateSource', 1, false, args).is(axis)
+        assert !ReferenceAxisRegistry.getAxis('Other', 'stateSource', 1, true, args).is(axis)
+        assert !ReferenceAxisRegistry.getAxis('Other', 'stateSource', 2, false, args).is(axis)
+
+        NCube two = new NCube('Mongo')
+        two.addAxis(new Axis('stateSource', 1, false, new ReferenceAxisLoader('Mongo', 'stateSource', args)))
+        two.setCell('a', [stateSource:'OH'] as Map)
+        two.setCell('b', [stateSource:'TX'] as Map)
+        String json = two.toFormattedJson()
+
+        NCube reload1 = NCube.fromSimpleJson(json)
+        NCube reload2 = NCube.fromSimpleJson(json)
+        Axis shared = reload1.getAxis('stateSource')
+        assert reload2.getAxis('stateSource').is(shared)
+        assert reload2.axes[0].is(shared)
+        assert reload2.getAxisFromColumnId(shared.columns[0].id).is(shared)
+        assert reload1.toFormattedJson() == reload2.toFormattedJson()
+        assert reload1.duplicate('Copy').getAxis('stateSource').is(shared)
+        assert reload1.edit().getAxis('stateSource').is(shared)
+        assert reload2.getAxis('stateSource').is(shared)
+
+        // Breaking the reference copies the axis first, the other cube keeps the shared reference axis
+        NCube edited = reload1.edit()
+        edited.breakAxisReference('stateSource')
+        assert !edited.getAxis('stateSource').isReference()
+        assert 'a' == edited.getCell([stateSource:'OH'] as Map)
+        assert reload2.getAxis('stateSource').isReference()
+        assert 'b' == reload2.getCell([stateSource:'TX'] as Map)
+
+        NCube reload3 = NCube.fromSimpleJson(json)
+        reload3.breakAxisReference('stateSource')
+        reload3.deleteColumn('stateSource', 'OH')
+        assert reload2.getAxis('stateSource').size() == 2
+        assert reload2.getAxis('stateSource').isReference()
+
+        // The shared axis cannot be changed through the getters
+        assert shared.isReadOnly()
+        for (Closure mutator : [{ reload2.getAxis('stateSource').setMetaProperty('note', 'all') },
+                                { reload2.axes[0].clearMetaProperties() },
+                                { reload2.getAxis('stateSource').setColumnOrder(Axis.DISPLAY) }])
+        {
+            try
+            {
+                mutator.call()
+                fail()
+            }
+            catch (IllegalStateException e)
+            {
+                assert e.message.contains('getAxisForWrite')
+            }
+        }
+
+        NCube reload4 = NCube.fromSimpleJson(json)
+        reload4.getAxisForWrite('stateSource').setMetaProperty('note', 'reload4 only')
+        assert !reload4.getAxis('stateSource').is(shared)
+        assert reload2.getAxis('stateSource').is(shared)
+        assert shared.getMetaProperty('note') == null
+    }
+
     @Test
     void testReferenceAxisToReferenceAxis()
     {
@@ -3110,6 +3280,137 @@ class TestAxis
         assert 'delta' == meta.get('d')
     }
 
+    @Test
+    void testPrimitiveColumnLookup()
+    {
+        Axis longs = new Axis('longs', AxisType.DISCRETE, AxisValueType.LONG, true)
+        [40, -3, 7, 1000, 0].each { longs.addColumn(it as Long) }
+        Axis doubles = new Axis('doubles', AxisType.RANGE, AxisValueType.DOUBLE, false)
+        doubles.addColumn(new Range(-10.5d, -0.0d))
+        doubles.addColumn(new Range(0.0d, 2.5d))
+        doubles.addColumn(new Range(5.0d, 99.0d))
+        Axis dates = new Axis('dates', AxisType.NEAREST, AxisValueType.DATE, false)
+        [100L, 5000L, 300L, -20L].each { dates.addColumn(new Date(it as long)) }
+        Axis nearest = new Axis('nearest', AxisType.NEAREST, AxisValueType.LONG, false)
+        [10L, 20L, 40L].each { nearest.addColumn(it) }
+        Axis strings = new Axis('strings', AxisType.DISCRETE, AxisValueType.STRING, false)
+        (1..200).each { strings.addColumn("value${it}".toString()) }
+
+        assert longs.findColumn(7L).value == 7L
+        assert longs.findColumn(7).value == 7L
+        assert longs.findColumn('1000').value == 1000L
+        assert longs.findColumn(8L).isDefault()
+        assert longs.findColumn(-3.0d).value == -3L
+
+        assert doubles.findColumn(-0.0d) == null
+        assert doubles.findColumn(0.0d).value == new Range(0.0d, 2.5d)
+        assert doubles.findColumn(-10.5d).value == new Range(-10.5d, -0.0d)
+        assert doubles.findColumn(2.5d) == null
+        assert doubles.findColumn(98.99d).value == new Range(5.0d, 99.0d)
+        assert doubles.findColumn(1L).value == new Range(0.0d, 2.5d)
+        assert doubles.findColumn(99) == null
+
+        assert dates.findColumn(new Date(200)).value == new Date(100)       // tie goes to the lower value
+        assert dates.findColumn(201L).value == new Date(300)
+        assert dates.findColumn(Long.MIN_VALUE).value == new Date(-20)
+        assert dates.findColumn(new Date(9999)).value == new Date(5000)
+
+        assert nearest.findColumn(15L).value == 10L
+        assert nearest.findColumn(16).value == 20L
+        assert nearest.findColumn(35.5d).value == 40L
+        assert nearest.findColumn(-5L).value == 10L
+
+        (1..200).each { assert strings.findColumn("value${it}".toString()).value == "value${it}".toString() }
+        assert strings.findColumn('value0') == null
+        assert strings.findColumn(7) == null
+
+        // Index follows column changes
+        longs.deleteColumn(7L)
+        assert longs.findColumn(7L).isDefault()
+        longs.addColumn(8L)
+        assert longs.findColumn(8L).value == 8L
+        strings.updateColumn(strings.findColumn('value1').id, 'one')
+        assert strings.findColumn('one') != null
+        assert strings.findColumn('value1') == null
+    }
+
+    @Test
+    void testSetAxisIntervalIndex()
+    {
+        Axis longs = new Axis('longs', AxisType.SET, AxisValueType.LONG, true)
+        Axis doubles = new Axis('doubles', AxisType.SET, AxisValueType.DOUBLE, false)
+        Axis strings = new Axis('strings', AxisType.SET, AxisValueType.STRING, false)
+        List<Column> longCols = []
+        List<Column> doubleCols = []
+        List<Column> stringCols = []
+        for (int col = 0; col < 100; col++)
+        {   // Each column holds 10 ranges and 10 single values, interleaved with the other columns
+            RangeSet longSet = new RangeSet()
+            RangeSet doubleSet = new RangeSet()
+            RangeSet stringSet = new RangeSet()
+            for (int i = 0; i < 10; i++)
+            {
+                long base = (i * 100 + col) * 10L
+                longSet.add(new Range(base, base + 5))
+                longSet.add(base + 7)
+                doubleSet.add(new Range(base / 10.0d, base / 10.0d + 0.5d))
+                doubleSet.add(base / 10.0d + 0.75d)
+                stringSet.add(new Range(String.format('%06d', base), String.format('%06d', base + 5)))
+                stringSet.add(String.format('%06d', base + 7))
+            }
+            longCols.add(longs.addColumn(longSet))
+            doubleCols.add(doubles.addColumn(doubleSet))
+            stringCols.add(strings.addColumn(stringSet))
+        }
+
+        for (long value = -3; value < 10010; value++)
+        {
+            long offset = value % 10
+            boolean inSet = value >= 0 && value < 10000 && (offset < 5 || offset == 7)
+            int col = inSet ? (int) (value.intdiv(10) % 100) : -1
+            if (inSet)
+            {
+                assert ((RangeSet) longCols[col].value).contains(value)
+            }
+            assert longs.findColumn(value) == (inSet ? longCols[col] : longs.defaultColumn)
+            assert longs.findColumn((Comparable) value) == (inSet ? longCols[col] : longs.defaultColumn)
+            assert doubles.findColumn(value / 10.0d) == (inSet && offset < 5 ? doubleCols[col] : null)
+            assert strings.findColumn(String.format('%06d', value)) == (inSet ? stringCols[col] : null)
+        }
+        assert doubles.findColumn(0.75d) == doubleCols[0]
+        assert doubles.findColumn(0.7d) == null
+
+        // Overlap validation against every member
+        assert !isValidRangeSet(longs, new RangeSet(new Range(9990L, 10010L)))
+        assert !isValidRangeSet(longs, new RangeSet(9997L))
+        assert isValidRangeSet(longs, new RangeSet(9998L))
+        assert longs.findColumn(9998L).value == new RangeSet(9998L)
+
+        // Members of one RangeSet overlapping each other
+        Axis nested = new Axis('nested', AxisType.SET, AxisValueType.LONG, false)
+        RangeSet set = new RangeSet(new Range(1L, 10L))
+        set.add(new Range(2L, 3L))
+        set.add(5L)
+        Column column = nested.addColumn(set)
+        assert nested.findColumn(1L) == column
+        assert nested.findColumn(5L) == column
+        assert nested.findColumn(7L) == column
+        assert nested.findColumn(10L) == null
+    }
+
+    private static boolean isValidRangeSet(Axis axis, RangeSet set)
+    {
+        try
+        {
+            axis.addColumn(set)
+            return true
+        }
+        catch (AxisOverlapException e)
+        {
+            return false
+        }
+    }
+
     private static boolean isValidRange(Axis axis, Range range)
     {
         try
@@ -0,0 +1,285 @@
+package com.cedarsoftware.ncube
+
+import com.cedarsoftware.ncube.util.LongHashSet
+import org.junit.Test
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+/**
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br/>
+ *         Copyright (c) Cedar Software LLC
+ *         <br/><br/>
+ *         Licensed under the Apache License, Version 2.0 (the 'License')
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br/><br/>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br/><br/>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an 'AS IS' BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+class TestCellMap
+{
+    private static final long BASE = 1000000000000L
+
+    private static Set<Long> key(long... ids)
+    {
+        Set<Long> set = new LongHashSet()
+        for (long id : ids)
+        {
+            set.add(id)
+        }
+        return set
+    }
+
+    @Test
+    void testPutGetRemove()
+    {
+        CellMap<String> cells = new CellMap<>()
+        assertTrue(cells.isEmpty())
+        assertNull(cells.put(key(BASE + 1, 2 * BASE + 1), 'a'))
+        assertNull(cells.put(key(BASE + 2, 2 * BASE + 1), 'b'))
+        assertEquals('a', cells.put(key(BASE + 1, 2 * BASE + 1), 'A'))
+        assertEquals(2, cells.size())
+
+        assertEquals('A', cells.get(key(BASE + 1, 2 * BASE + 1)))
+        assertEquals('b', cells.get([2 * BASE + 1, BASE + 2] as HashSet))
+        assertNull(cells.get(key(BASE + 3, 2 * BASE + 1)))
+        assertNull(cells.get(key(BASE + 1)))
+        assertNull(cells.get(key(BASE + 1, BASE + 2)))
+        assertNull(cells.get('foo'))
+
+        assertEquals('A', cells.remove(key(BASE + 1, 2 * BASE + 1)))
+        assertFalse(cells.containsKey(key(BASE + 1, 2 * BASE + 1)))
+        assertTrue(cells.containsKey(key(BASE + 2, 2 * BASE + 1)))
+        assertEquals(1, cells.size())
+
+        cells.clear()
+        assertEquals(0, cells.size())
+        assertNull(cells.get(key(BASE + 2, 2 * BASE + 1)))
+    }
+
+    @Test
+    void testNullValue()
+    {
+        CellMap<String> cells = new CellMap<>()
+        cells.put(key(BASE + 1), null)
+        assertTrue(cells.containsKey(key(BASE + 1)))
+        assertNull(cells.get(key(BASE + 1)))
+        assertEquals(1, cells.size())
+    }
+
+    @Test
+    void testTwoColumnsOnSameAxis()
+    {
+        CellMap<String> cells = new CellMap<>()
+        try
+        {
+            cells.put(key(BASE + 1, BASE + 2), 'x')
+            fail()
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.message.contains('same axis'))
+        }
+    }
+
+    @Test
+    void testInsertionOrderAndDecodedKeys()
+    {
+        // Third axis makes the cube sparse, so the insertion ordered (sparse) layout is used
+        CellMap<Integer> cells = new CellMap<>()
+        Map<Set<Long>, Integer> expected = new LinkedHashMap<>()
+        for (int i = 1; i <= 20; i++)
+        {
+            for (int j = 1; j <= 20; j++)
+            {
+                Set<Long> k = key(BASE + i, 2 * BASE + j, 3 * BASE + i * 20 + j)
+                cells.put(k, i * 100 + j)
+                expected.put(k, i * 100 + j)
+            }
+        }
+        assertFalse(cells.isDense())
+        assertEquals(expected, cells)
+        assertEquals(expected.keySet().toList(), cells.keySet().toList())
+
+        // Remove through the iterator, then verify order of what is left
+        Iterator<Set<Long>> i = cells.keySet().iterator()
+        while (i.hasNext())
+        {
+            if (i.next().contains(BASE + 7))
+            {
+                i.remove()
+            }
+        }
+        expected.keySet().removeAll { Set<Long> k -> k.contains(BASE + 7) }
+        assertEquals(380, cells.size())
+        assertEquals(expected.keySet().toList(), cells.keySet().toList())
+        assertEquals(expected, cells)
+    }
+
+    @Test
+    void testGrowingAxesAndColumnsRelayout()
+    {
+        // Enough columns and axes to overflow a single long, forcing multi-word keys
+        CellMap<Long> cells = new CellMap<>()
+        List<Set<Long>> added = []
+        for (int n = 1; n <= 300; n++)
+        {
+            Set<Long> k = new LongHashSet()
+            for (long axis = 1; axis <= 12; axis++)
+            {
+                k.add(axis * BASE + ((n * axis) % 307) + 1)
+            }
+            k.add(13 * BASE + Integer.MAX_VALUE)    // default column
+            cells.put(k, (long) n)
+            added.add(k)
+        }
+
+        assertEquals(300, cells.size())
+        for (int n = 1; n <= 300; n++)
+        {
+            assertEquals((long) n, cells.get(added[n - 1]))
+        }
+
+        // Removing half of the cells and adding more reclaims space without disturbing lookups
+        for (int n = 1; n <= 300; n += 2)
+        {
+            assertEquals((long) n, cells.remove(added[n - 1]))
+        }
+        cells.put(key(BASE + 1), -1L)
+        assertEquals(151, cells.size())
+        for (int n = 2; n <= 300; n += 2)
+        {
+            assertEquals((long) n, cells.get(added[n - 1]))
+        }
+        assertEquals(-1L, cells.get(key(BASE + 1)))
+    }
+
+    @Test
+    void testSwitchToDenseAndBack()
+    {
+        CellMap<String> cells = new CellMap<>()
+        for (int i = 1; i <= 10; i++)
+        {
+            for (int j = 1; j <= 10; j++)
+            {
+                if ((i + j) % 4 != 0)
+                {
+                    cells.put(key(BASE + i, 2 * BASE + j, 3 * BASE + Integer.MAX_VALUE), "${i}-${j}" as String)
+                }
+            }
+        }
+        assertTrue(cells.isDense())
+        assertEquals(75, cells.size())
+        assertEquals('2-3', cells.get(key(BASE + 2, 2 * BASE + 3, 3 * BASE + Integer.MAX_VALUE)))
+        assertNull(cells.get(key(BASE + 3, 2 * BASE + 1, 3 * BASE + Integer.MAX_VALUE)))
+        assertNull(cells.get(key(BASE + 2, 2 * BASE + 2)))
+        assertNull(cells.get(key(BASE + 2, BASE + 1, 3 * BASE + Integer.MAX_VALUE)))
+
+        // New columns and axes keep the dense layout while the cube stays mostly populated
+        for (int i = 1; i <= 10; i++)
+        {
+            cells.put(key(BASE + i, 2 * BASE + 11, 3 * BASE + Integer.MAX_VALUE), "${i}-11" as String)
+        }
+        cells.put(key(BASE + 1, 2 * BASE + 1, 3 * BASE + Integer.MAX_VALUE, 4 * BASE + 1), 'wide')
+        assertTrue(cells.isDense())
+        assertEquals(86, cells.size())
+        assertEquals('7-11', cells.get(key(BASE + 7, 2 * BASE + 11, 3 * BASE + Integer.MAX_VALUE)))
+        assertEquals('wide', cells.get(key(BASE + 1, 2 * BASE + 1, 3 * BASE + Integer.MAX_VALUE, 4 * BASE + 1)))
+        assertEquals('1-1', cells.get(key(BASE + 1, 2 * BASE + 1, 3 * BASE + Integer.MAX_VALUE)))
+
+        Map<Set<Long>, String> copy = new HashMap<>(cells)
+        assertEquals(copy, cells)
+
+        // Dropping most cells switches back to the sparse layout
+        for (int i = 1; i <= 8; i++)
+        {
+            cells.keySet().removeAll { Set<Long> k -> k.contains(BASE + i) }
+        }
+        assertEquals('9-1', cells.remove(key(BASE + 9, 2 * BASE + 1, 3 * BASE + Integer.MAX_VALUE)))
+        assertFalse(cells.isDense())
+        assertEquals('10-11', cells.get(key(BASE + 10, 2 * BASE + 11, 3 * BASE + Integer.MAX_VALUE)))
+        copy.keySet().removeAll { Set<Long> k -> !cells.containsKey(k) }
+        assertEquals(copy, cells)
+    }
+
+    @Test
+    void testRemoveColumnSparse()
+    {
+        CellMap<String> cells = new CellMap<>()
+        for (int i = 1; i <= 10; i++)
+        {
+            cells.put(key(BASE + i, 2 * BASE + i, 3 * BASE + 1), "${i}" as String)
+            cells.put(key(BASE + i, 2 * BASE + i + 1, 3 * BASE + 2), "${i}+" as String)
+        }
+        cells.put(key(2 * BASE + 5), 'partial')
+        assertFalse(cells.isDense())
+
+        assertEquals(2, cells.removeColumn(BASE + 3))
+        assertEquals(19, cells.size())
+        assertNull(cells.get(key(BASE + 3, 2 * BASE + 3, 3 * BASE + 1)))
+        assertEquals('4', cells.get(key(BASE + 4, 2 * BASE + 4, 3 * BASE + 1)))
+
+        // Posting lists are maintained after they are built
+        cells.put(key(BASE + 11, 2 * BASE + 5, 3 * BASE + 1), 'new')
+        assertEquals(0, cells.removeColumn(BASE + 3))
+        assertEquals(4, cells.removeColumn(2 * BASE + 5))
+        assertNull(cells.get(key(2 * BASE + 5)))
+        assertNull(cells.get(key(BASE + 11, 2 * BASE + 5, 3 * BASE + 1)))
+        assertEquals(16, cells.size())
+        assertEquals(0, cells.removeColumn(9 * BASE + 1))
+
+        // Column can be used again after removal
+        cells.put(key(BASE + 3, 2 * BASE + 3, 3 * BASE + 1), 'again')
+        assertEquals('again', cells.get(key(BASE + 3, 2 * BASE + 3, 3 * BASE + 1)))
+        assertEquals(17, cells.size())
+        assertEquals(cells.size(), cells.keySet().size())
+    }
+
+    @Test
+    void testRemoveColumnDense()
+    {
+        CellMap<String> cells = new CellMap<>()
+        for (int i = 1; i <= 8; i++)
+        {
+            for (int j = 1; j <= 8; j++)
+            {
+                cells.put(key(BASE + i, 2 * BASE + j), "${i}-${j}" as String)
+            }
+        }
+        assertTrue(cells.isDense())
+        assertEquals(8, cells.removeColumn(2 * BASE + 3))
+        assertEquals(7, cells.removeColumn(BASE + 5))
+        assertEquals(49, cells.size())
+        assertTrue(cells.isDense())
+        assertNull(cells.get(key(BASE + 1, 2 * BASE + 3)))
+        assertNull(cells.get(key(BASE + 5, 2 * BASE + 1)))
+        assertEquals('6-4', cells.get(key(BASE + 6, 2 * BASE + 4)))
+        for (Map.Entry<Set<Long>, String> entry : cells.entrySet())
+        {
+            assertFalse(entry.key.contains(2 * BASE + 3))
+            assertFalse(entry.key.contains(BASE + 5))
+        }
+        assertEquals(49, cells.keySet().size())
+    }
+
+    @Test
+    void testEntrySetValue()
+    {
+        CellMap<String> cells = new CellMap<>()
+        cells.put(key(BASE + 1), 'a')
+        Map.Entry<Set<Long>, String> entry = cells.entrySet().iterator().next()
+        assertEquals(key(BASE + 1), entry.key)
+        entry.setValue('b')
+        assertEquals('b', cells.get(key(BASE + 1)))
+    }
+}
@@ -0,0 +1,134 @@
+package com.cedarsoftware.ncube
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
+import static org.junit.Assert.fail
+
+/**
+ * @author John DeRegnaucourt (jdereg@gmail.com)
+ *         <br/>
+ *         Copyright (c) Cedar Software LLC
+ *         <br/><br/>
+ *         Licensed under the Apache License, Version 2.0 (the 'License')
+ *         you may not use this file except in compliance with the License.
+ *         You may obtain a copy of the License at
+ *         <br/><br/>
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *         <br/><br/>
+ *         Unless required by applicable law or agreed to in writing, software
+ *         distributed under the License is distributed on an 'AS IS' BASIS,
+ *         WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *         See the License for the specific language governing permissions and
+ *         limitations under the License.
+ */
+class TestCoordinate
+{
+    @Before
+    void setUp()
+    {
+        TestingDatabaseHelper.setupDatabase()
+    }
+
+    @After
+    void tearDown()
+    {
+        TestingDatabaseHelper.tearDownDatabase()
+    }
+
+    private static NCube<Object> getCube()
+    {
+        NCube<Object> ncube = NCubeBuilder.getTestNCube2D(true)
+        ncube.setCell(1.0d, [gender: 'Male', age: 20])
+        ncube.setCell(2.0d, [gender: 'Female', age: 20])
+        ncube.setCell(new GroovyExpression("input.state + ':' + input.gender", null, false), [gender: 'Female', age: 50])
+        return ncube
+    }
+
+    @Test
+    void testSetByIndexAndName()
+    {
+        NCube<Object> ncube = getCube()
+        Coordinate coord = ncube.coordinate()
+        int gender = coord.getAxisIndex('GENDER')
+        int age = coord.getAxisIndex('age')
+        assert ncube.axes[gender].name == 'Gender'
+        assert ncube.axes[age].name == 'Age'
+        assertEquals(-1, coord.getAxisIndex('state'))
+
+        assert 1.0d == ncube.getCell(coord.set(gender, 'Male').set(age, 20))
+        assert 2.0d == ncube.getCell(coord.set(gender, 'Female'))
+        assert 'Female' == coord.get(gender)
+
+        // Reuse after clear; unbound axes with a Default column bind to it
+        coord.clear()
+        assert coord.isEmpty()
+        assertNull(ncube.getCell(coord.set('gender', 'Male')))
+        assert 1.0d == ncube.getCell(coord.set('Age', 20))
+    }
+
+    @Test
+    void testMapView()
+    {
+        NCube<Object> ncube = getCube()
+        Coordinate coord = ncube.coordinate()
+        coord.set('age', 50).set('gender', 'Female').set('State', 'OH')
+        assertEquals([Gender: 'Female', Age: 50, State: 'OH'] as Map, new HashMap(coord))
+        assertEquals(3, coord.size())
+        assertTrue(coord.containsKey('AGE'))
+        assertTrue(coord.containsKey('state'))
+        assert 'OH' == coord.state
+        assert ['Gender', 'Age', 'State'] == coord.keySet().toList()
+
+        // Groovy cells read the Coordinate as 'input'
+        assert 'OH:Female' == ncube.getCell(coord)
+
+        assert 50 == coord.remove('age')
+        assertFalse(coord.containsKey('age'))
+        assertNull(coord.get(coord.getAxisIndex('age')))
+        assertEquals(2, coord.size())
+        Iterator i = coord.entrySet().iterator()
+        while (i.hasNext())
+        {
+            i.next()
+            i.remove()
+        }
+        assert coord.isEmpty()
+    }
+
+    @Test
+    void testRequiredScope()
+    {
+        NCube<Object> ncube = getCube()
+        ncube.setMetaProperty('requiredScopeKeys', ['state'])
+        Coordinate coord = ncube.coordinate().set(0, 'Male').set(1, 20)
+        try
+        {
+            ncube.getCell(coord)
+            fail()
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.message.contains('required scope'))
+        }
+        assert 1.0d == ncube.getCell(coord.set('state', 'TX'))
+    }
+
+    @Test
+    void testCoordinateSurvivesCubeChanges()
+    {
+        NCube<Object> ncube = getCube()
+        Coordinate coord = ncube.coordinate()
+        coord.set(coord.getAxisIndex('gender'), 'Male').set(coord.getAxisIndex('age'), 20)
+        ncube.renameAxis('age', 'years')
+        assertNull(ncube.getCell(coord))
+        coord.set('years', 20)
+        assert 1.0d == ncube.getCell(coord)
+        assert 1.0d == ncube.coordinate().set('years', 20).set('gender', 'Male').with { ncube.getCell(it) }
+    }
+}
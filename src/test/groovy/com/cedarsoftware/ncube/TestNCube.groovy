@@ -1,16 +1,26 @@
 package com.cedarsoftware.ncube
 
 import com.cedarsoftware.ncube.exception.AxisOverlapException
+import com.cedarsoftware.ncube.exception.CommandCellException
 import com.cedarsoftware.ncube.exception.CoordinateNotFoundException
 import com.cedarsoftware.ncube.proximity.LatLon
 import com.cedarsoftware.ncube.proximity.Point2D
 import com.cedarsoftware.ncube.proximity.Point3D
 import com.cedarsoftware.util.CaseInsensitiveMap
+import com.cedarsoftware.util.io.JsonObject
+import com.cedarsoftware.util.io.JsonReader
 import groovy.transform.CompileStatic
 import org.junit.After
 import org.junit.Before
 import org.junit.Test
 
+import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicInteger
+
 import static org.junit.Assert.assertEquals
 import static org.junit.Assert.assertFalse
 import static org.junit.Assert.assertNotEquals
@@ -2233,6 +2243,400 @@ class TestNCube
         }
     }
 
+    @Test
+    void testGetAxisFromColumnId()
+    {
+        NCube<Double> ncube = NCubeBuilder.getTestNCube2D(true)
+        Axis gender = ncube.getAxis('gender')
+        Axis age = ncube.getAxis('age')
+        for (Column column : gender.columns)
+        {
+            assert ncube.getAxisFromColumnId(column.id) == gender
+        }
+        for (Column column : age.columns)
+        {
+            assert ncube.getAxisFromColumnId(column.id) == age
+        }
+
+        Column added = ncube.addColumn('gender', 'Both')
+        assert ncube.getAxisFromColumnId(added.id) == gender
+        ncube.deleteColumn('gender', 'Both')
+        assertNull(ncube.getAxisFromColumnId(added.id))
+
+        ncube.renameAxis('gender', 'sex')
+        assert ncube.getAxisFromColumnId(gender.findColumn('Male').id) == gender
+
+        long ageColId = age.findColumn(20).id
+        ncube.deleteAxis('age')
+        assertNull(ncube.getAxisFromColumnId(ageColId))
+        assertNull(ncube.getAxisFromColumnId(gender.id * 1000000000000L + 999))
+    }
+
+    @Test
+    void testFrozenCubeCannotBeModified()
+    {
+        NCube<Double> ncube = NCubeBuilder.getTestNCube2D(true)
+        ncube.setCell(1.0d, [gender: 'Male', age: 20])
+        String sha1 = ncube.sha1()
+        assert ncube.freeze().is(ncube)
+        assert ncube.isFrozen()
+
+        List<Closure> mutators = [
+                { ncube.setCell(2.0d, [gender: 'Male', age: 20]) },
+                { ncube.removeCell([gender: 'Male', age: 20]) },
+                { ncube.clearCells() },
+                { ncube.addColumn('gender', 'Both') },
+                { ncube.deleteColumn('gender', 'Male') },
+                { ncube.updateColumn(ncube.getAxis('gender').findColumn('Male').id, 'Man') },
+                { ncube.updateColumns('gender', ncube.getAxis('gender').columns) },
+                { ncube.renameAxis('gender', 'sex') },
+                { ncube.deleteAxis('age') },
+                { ncube.addAxis(new Axis('state', AxisType.DISCRETE, AxisValueType.STRING, true)) },
+                { ncube.setMetaProperty('foo', 'bar') },
+                { ncube.setDefaultCellValue(0.0d) },
+                { ncube.setName('other') },
+                { ncube.setApplicationID(new ApplicationID('DEFAULT', 'other', '1.0.0', ReleaseStatus.SNAPSHOT.name(), ApplicationID.TEST_BRANCH)) },
+                { ncube.getAxis('gender').addColumn('Both') },
+                { ncube.getAxis('gender').deleteColumn('Male') },
+                { ncube.getAxis('gender').setMetaProperty('foo', 'bar') },
+                { ncube.getAxisFromColumnId(ncube.getAxis('age').findColumn(20).id).clear() }
+        ]
+        for (Closure mutator : mutators)
+        {
+            try
+            {
+                mutator.call()
+                fail()
+            }
+            catch (IllegalStateException e)
+            {
+                assertTrue(e.message.contains('frozen'))
+            }
+        }
+
+        assert 1.0d == ncube.getCell([gender: 'Male', age: 20])
+        assert 2 == ncube.numDimensions
+        assert sha1 == ncube.sha1()
+        ncube.setApplicationID(ncube.applicationID)     // same ApplicationID, not a change
+
+        // A draft shares the read-only axes, getAxisForWrite() hands out a modifiable copy
+        NCube<Double> draft = ncube.edit()
+        int genderSize = ncube.getAxis('gender').size()
+        try
+        {
+            draft.getAxis('gender').addColumn('Both')
+            fail()
+        }
+        catch (IllegalStateException e)
+        {
+            assert e.message.contains('getAxisForWrite')
+        }
+        draft.getAxisForWrite('gender').addColumn('Both')
+        assert genderSize + 1 == draft.getAxis('gender').size()
+        assert genderSize == ncube.getAxis('gender').size()
+        assert sha1 == ncube.sha1()
+    }
+
+    @Test
+    void testEditFrozenCubeIsCopyOnWrite()
+    {
+        NCube<Double> ncube = NCubeBuilder.getTestNCube2D(true)
+        ncube.setCell(1.0d, [gender: 'Male', age: 20])
+        ncube.setCell(2.0d, [gender: 'Female', age: 20])
+        ncube.freeze()
+        String sha1 = ncube.sha1()
+
+        NCube<Double> draft = ncube.edit()
+        assertFalse(draft.isFrozen())
+        assert draft.cells.is(ncube.cells)
+        assert sha1 == draft.sha1()
+
+        // First cell write copies the cells, the frozen n-cube is unaffected
+        draft.setCell(3.0d, [gender: 'Male', age: 20])
+        assertFalse(draft.cells.is(ncube.cells))
+        assert 3.0d == draft.getCell([gender: 'Male', age: 20])
+        assert 1.0d == ncube.getCell([gender: 'Male', age: 20])
+
+        // Axis changes are made to a copy of the axis
+        Axis frozenGender = ncube.getAxis('gender')
+        draft.addColumn('gender', 'Both')
+        draft.deleteColumn('gender', 'Female')
+        assertFalse(draft.getAxis('gender').is(frozenGender))
+        assert ncube.getAxis('gender').is(frozenGender)
+        assert 3 == frozenGender.columns.size()
+        assert 3 == draft.getAxis('gender').columns.size()
+        assert 'Female' == frozenGender.findColumn('Female').value
+        assert 2.0d == ncube.getCell([gender: 'Female', age: 20])
+        assert 2 == ncube.numCells
+        assert 1 == draft.numCells
+
+        // Reading an axis does not copy it, getAxisForWrite() does
+        assert draft.getAxis('age').is(ncube.getAxis('age'))
+        assert draft.axes.any { Axis axis -> axis.is(ncube.getAxis('age')) }
+        Axis age = draft.getAxisForWrite('age')
+        assertFalse(age.is(ncube.getAxis('age')))
+        assert draft.getAxis('age').is(age)
+        assert draft.getAxisForWrite('age').is(age)
+        assert age.findColumn(20).id == ncube.getAxis('age').findColumn(20).id
+        age.setMetaProperty('note', 'draft only')
+        assert ncube.getAxis('age').getMetaProperty('note') == null
+
+        draft.freeze()
+        assert sha1 == ncube.sha1()
+        assert sha1 != draft.sha1()
+        assert 1 == draft.edit().numCells
+    }
+
+    @Test
+    void testEditMutableCubeCopies()
+    {
+        NCube<Double> ncube = NCubeBuilder.getTestNCube2D(true)
+        ncube.setCell(1.0d, [gender: 'Male', age: 20])
+        ncube.setMetaProperty('foo', 'bar')
+
+        NCube<Double> copy = ncube.edit()
+        assert ncube == copy
+        assertFalse(copy.cells.is(ncube.cells))
+        assertFalse(copy.getAxis('gender').is(ncube.getAxis('gender')))
+
+        copy.deleteColumn('gender', 'Male')
+        copy.setMetaProperty('foo', 'baz')
+        ncube.setCell(2.0d, [gender: 'Female', age: 20])
+        assert 1.0d == ncube.getCell([gender: 'Male', age: 20])
+        assert 'bar' == ncube.getMetaProperty('foo')
+        assert 0 == copy.numCells
+        assert copy.getAxis('gender').findColumn('Male').isDefault()
+        assert 'Male' == ncube.getAxis('gender').findColumn('Male').value
+    }
+
+    @Test
+    void testSimpleLookupPath()
+    {
+        NCube<Object> ncube = NCubeBuilder.getTestNCube2D(true)
+        ncube.setCell(1.0d, [gender: 'Male', age: 20])
+        ncube.setCell(new GroovyExpression("input.state", null, false), [gender: 'Female', age: 20])
+        ncube.setDefaultCellValue(-1.0d)
+
+        // Keys are matched case-insensitively, whether or not the input is a CaseInsensitiveMap
+        Map output = [:]
+        assert 1.0d == ncube.getCell([GENDER: 'Male', Age: 20], output)
+        assert 1.0d == output['return']
+        RuleInfo ruleInfo = NCube.getRuleInfo(output)
+        assert ruleInfo.getInputKeysUsed().size() == 2
+        assert ruleInfo.getInputKeysUsed().containsAll(['gender', 'age'])
+        assert 1.0d == ncube.getCell(new CaseInsensitiveMap([GENDER: 'Male', Age: 20]))
+
+        // Axes with a Default column need no binding, default values are honored
+        assert -1.0d == ncube.getCell([gender: 'Male'])
+        ncube.setDefaultCellValue(null)
+        assert 'x' == ncube.getCell([age: 31], [:], 'x')
+
+        // Executable cells see the complete input
+        assert 'OH' == ncube.getCell([gender: 'Female', age: 20, state: 'OH'])
+
+        // Structural changes are picked up
+        ncube.addColumn('gender', 'Both')
+        ncube.setCell(2.0d, [gender: 'Both', age: 20])
+        assert 2.0d == ncube.getCell([gender: 'Both', age: 20])
+        ncube.renameAxis('gender', 'sex')
+        assert 1.0d == ncube.getCell([sex: 'Male', age: 20])
+        ncube.setMetaProperty('requiredScopeKeys', ['state'])
+        try
+        {
+            ncube.getCell([sex: 'Male', age: 20])
+            fail()
+        }
+        catch (IllegalArgumentException e)
+        {
+            assertTrue(e.message.contains('required scope'))
+        }
+        assert 1.0d == ncube.getCell([sex: 'Male', age: 20, State: 'OH'])
+        assert 1.0d == ncube.getCell(new CaseInsensitiveMap([sex: 'Male', age: 20, State: 'OH']))
+
+        // When keys differ only by case, the last one wins (as if copied into a CaseInsensitiveMap)
+        ncube.setCell(2.0d, [sex: 'Female', age: 20])
+        assert 2.0d == ncube.getCell([sex: 'Male', age: 20, state: 'OH', SEX: 'Female'])
+        assert 1.0d == ncube.getCell([SEX: 'Female', age: 20, state: 'OH', sex: 'Male'])
+    }
+
+    @Test
+    void testGetCells()
+    {
+        NCube<Object> ncube = NCubeBuilder.getTestNCube2D(true)
+        ncube.setCell(1.0d, [gender: 'Male', age: 20])
+        ncube.setCell(2.0d, [gender: 'Female', age: 20])
+        ncube.setCell(new GroovyExpression("input.state", null, false), [gender: 'Female', age: 50])
+
+        Coordinate coord = ncube.coordinate().set('gender', 'Male').set('age', 25)
+        List<Map> coords = [[gender: 'Male', age: 20], [GENDER: 'Female', Age: 20L], [gender: 'Male', age: 21],
+                            [gender: 'Female', age: 50, state: 'OH'], [gender: 'Male'], coord] as List<Map>
+        List<Map> outputs = []
+        List<Object> values = ncube.getCells(coords, outputs, 'none')
+        assert values == [1.0d, 2.0d, 1.0d, 'OH', 'none', 1.0d]
+        assert outputs.size() == coords.size()
+        for (int i = 0; i < coords.size(); i++)
+        {
+            Map output = [:]
+            assert values[i] == ncube.getCell(coords[i], output, 'none')
+            assert outputs[i]['return'] == output['return']
+            assert NCube.getRuleInfo(outputs[i]).getInputKeysUsed() == NCube.getRuleInfo(output).getInputKeysUsed()
+        }
+        assert [1.0d, null] == ncube.getCells([[gender: 'Male', age: 20], [age: 20, gender: 'Both']] as List<Map>)
+
+        // A coordinate that cannot be bound fails as getCell() does, after the rows before it ran
+        ncube.setDefaultCellValue(0.0d)
+        ncube.deleteColumn('age', null)
+        List<Map> out = []
+        try
+        {
+            ncube.getCells([[gender: 'Male', age: 20], [gender: 'Male', age: 99], [gender: 'Male']] as List<Map>, out, null)
+            fail()
+        }
+        catch (CoordinateNotFoundException ignored)
+        {
+            assert out.size() == 1
+        }
+    }
+
+    @Test
+    void testGetCellsParallel()
+    {
+        NCube<Object> ncube = NCubeBuilder.getTestNCube2D(false)
+        ncube.setCell(new GroovyExpression("input.age * 2", null, false), [gender: 'Male', age: 20])
+        ncube.setCell(1.0d, [gender: 'Female', age: 20])
+        List<Map> coords = []
+        for (int i = 0; i < 5000; i++)
+        {
+            coords.add([gender: i % 2 == 0 ? 'Male' : 'Female', age: 18 + (i % 12)])
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(4)
+        try
+        {
+            List<Map> outputs = []
+            List<Object> values = ncube.getCellsParallel(coords, outputs, null, pool, 4)
+            assert values == ncube.getCells(coords)
+            assert outputs.size() == 5000
+            Map<RuleInfo, Boolean> ruleInfos = new IdentityHashMap<>()
+            for (int i = 0; i < 5000; i++)
+            {
+                assert outputs[i]['return'] == values[i]
+                ruleInfos[NCube.getRuleInfo(outputs[i])] = true
+            }
+            assert ruleInfos.size() == 5000
+
+            Map<Integer, Object> unordered = new ConcurrentHashMap<>()
+            ncube.getCellsParallel(coords, 'x', pool, 3, new NCube.CellVisitor<Object>() {
+                void visit(int index, Map coordinate, Object value, Map output)
+                {
+                    assert coordinate.is(coords[index])
+                    unordered[index] = value == null ? 'x' : value
+                }
+            })
+            assert unordered.size() == 5000
+            for (int i = 0; i < 5000; i++)
+            {
+                assert unordered[i] == (values[i] == null ? 'x' : values[i])
+            }
+
+            coords.add(2500, [gender: 'Male', age: 99])
+            try
+            {
+                ncube.getCellsParallel(coords, null, null, pool, 4)
+                fail()
+            }
+            catch (CoordinateNotFoundException e)
+            {
+                assert e.message.contains('age')
+            }
+        }
+        finally
+        {
+            pool.shutdown()
+        }
+    }
+
+    @Test
+    void testExecutionContextStack()
+    {
+        NCube<Object> inner = NCubeBuilder.getTestNCube2D(false)
+        inner.setCell(new GroovyExpression("throw new IllegalStateException('boom')", null, false), [gender: 'Male', age: 20])
+        NCubeManager.addCube(inner.applicationID, inner)
+        NCube<Object> outer = NCubeBuilder.getTestNCube2D(false)
+        outer.setName('outer')
+        outer.setCell(new GroovyExpression("go([gender: 'Male', age: 20], 'test.Age-Gender')", null, false), [gender: 'Female', age: 20])
+        NCubeManager.addCube(outer.applicationID, outer)
+
+        Map output = [:]
+        try
+        {
+            outer.getCell([gender: 'Female', age: 20], output)
+            fail()
+        }
+        catch (CommandCellException e)
+        {
+            String msg = e.cause.message
+            assert msg.indexOf('-> cell:outer:[') > 0
+            assert msg.indexOf('-> cell:test.Age-Gender:[') > msg.indexOf('-> cell:outer:[')
+        }
+        assertEquals(0, NCube.getRuleInfo(output).getExecutionContext().depth)
+
+        // The stack travels with the output Map, not the thread
+        NCube.getRuleInfo(output).getExecutionContext().push('caller', [step: 1])
+        Throwable thrown = null
+        Thread thread = new Thread({
+            try
+            {
+                inner.getCell([gender: 'Male', age: 20], output)
+            }
+            catch (Throwable t)
+            {
+                thrown = t
+            }
+        })
+        thread.start()
+        thread.join()
+        assert thrown instanceof CommandCellException
+        assert thrown.message.contains('-> cell:caller:[step:1]\n-> cell:test.Age-Gender:[')
+        assertEquals(1, NCube.getRuleInfo(output).getExecutionContext().depth)
+    }
+
+    @Test
+    void testMemoizeCells()
+    {
+        NCube<Object> ncube = NCubeBuilder.getTestNCube2D(false)
+        ncube.setCell(new GroovyExpression("output.runs = (output.runs ?: 0) + 1; input.bonus == null ? input.age : input.age + input.bonus", null, false), [gender: 'Male', age: 20])
+        ncube.setCell(1.0d, [gender: 'Female', age: 20])
+        Map output = [:]
+
+        // Not enabled: every call executes
+        assert 20 == ncube.getCell([gender: 'Male', age: 20], output)
+        assert 20 == ncube.getCell([gender: 'Male', age: 20], output)
+        assertEquals(2, output.runs)
+
+        ncube.setMetaProperty(NCube.MEMOIZE_CELLS, 10)
+        output = [:]
+        assert 20 == ncube.getCell([gender: 'Male', age: 20], output)
+        assert 20 == ncube.getCell([gender: 'Male', age: 20, unused: 'x'], output)
+        assertEquals(1, output.runs)
+        assertTrue(NCube.getRuleInfo(output).getInputKeysUsed().containsAll(['gender', 'age', 'bonus']))
+
+        // Keys the cell reads are part of the key, even when the same cell is bound
+        assert 22 == ncube.getCell([gender: 'Male', age: 22], output)
+        assert 25 == ncube.getCell([gender: 'Male', age: 20, BONUS: 5], output)
+        assert 25 == ncube.getCell([gender: 'Male', age: 20, bonus: 5], output)
+        assertEquals(3, output.runs)
+        assert 1.0d == ncube.getCell([gender: 'Female', age: 20], output)
+
+        // Batch lookups share the memoized results
+        assert [22, 25] == ncube.getCells([[gender: 'Male', age: 22], [gender: 'Male', age: 20, bonus: 5]])
+
+        // Changing the n-cube drops memoized results
+        ncube.setCell(2.0d, [gender: 'Female', age: 20])
+        assert 22 == ncube.getCell([gender: 'Male', age: 22], output)
+        assertEquals(4, output.runs)
+    }
+
     @Test
     void testBinaryUrl()
     {
@@ -4682,6 +5086,471 @@ class TestNCube
         assert cube1.sha1() == cube2.sha1()
     }
 
+    @Test
+    void testStreamingLoadMatchesMapLoad()
+    {
+        for (String name : ['2DSimpleJson.json', 'big5D.json', 'idBasedCube.json', 'latlon.json', 'point3d.json',
+                            'expressionAxis.json', 'multiRule.json', 'no-cells.json', 'arrays.json', 'merge1.json'])
+        {
+            String json = NCubeManager.getResourceAsString(name)
+            NCube streamed = NCube.fromSimpleJson(json)
+            NCube mapped = NCube.hydrateCube((Map) JsonReader.jsonToJava(json, [(JsonReader.USE_MAPS):true] as Map))
+            assert streamed.sha1() == mapped.sha1()
+            assert streamed.numCells == mapped.numCells
+
+            NCube fromGzip = NCube.createCubeFromBytes(streamed.cubeAsGzipJsonBytes)
+            assert fromGzip.sha1() == streamed.sha1()
+            NCube fromPlain = NCube.createCubeFromBytes(json.getBytes('UTF-8'))
+            assert fromPlain.sha1() == streamed.sha1()
+        }
+    }
+
+    @Test
+    void testStreamingLoadCellsBeforeAxes()
+    {
+        String json = '''{
+  "cells": [ {"id": [1], "value": "line1\\nline2 \\u00e9\\"q\\""}, {"key": {"code": "b"}, "type": "double", "value": "2.5"} ],
+  "ncube": "cellsFirst",
+  "axes": [ {"name": "code", "type": "DISCRETE", "valueType": "STRING", "preferredOrder": 1, "hasDefault": false,
+             "columns": [ {"id": 1, "value": "a"}, {"id": 2, "value": "b"} ] } ],
+  "note": {"type": "long", "value": 12345678901234}
+}'''
+        NCube ncube = NCube.fromSimpleJson(json)
+        assert ncube.getCell([code: 'a'] as Map) == 'line1\nline2 \u00e9"q"'
+        assert ncube.getCell([code: 'b'] as Map) == 2.5d
+        assert ncube.getMetaProperty('note') == 12345678901234L
+
+        try
+        {
+            NCube.fromSimpleJson('{"ncube": "bad", "axes": [ }')
+            fail()
+        }
+        catch (IllegalArgumentException e)
+        {
+            assert e.message.contains('position')
+        }
+    }
+
+    @Test
+    void testBinaryFormatRoundTrip()
+    {
+        for (String name : ['2DSimpleJson.json', 'big5D.json', 'idBasedCube.json', 'latlon.json', 'point3d.json',
+                            'expressionAxis.json', 'multiRule.json', 'no-cells.json', 'arrays.json', 'merge1.json',
+                            'template1.json', 'urlContent.json', 'ruleSet1.json'])
+        {
+            NCube ncube = NCubeManager.getNCubeFromResource(name)
+            byte[] bytes = ncube.cubeAsBinaryBytes
+            NCube binary = NCube.createCubeFromBinary(ByteBuffer.wrap(bytes))
+            assert binary.sha1() == ncube.sha1()
+            assert binary.numCells == ncube.numCells
+            assert binary.toFormattedJson() == ncube.toFormattedJson()
+
+            NCube fromBytes = NCube.createCubeFromBytes(bytes)
+            assert fromBytes.sha1() == ncube.sha1()
+        }
+
+        NCube ncube = NCubeManager.getNCubeFromResource('big5D.json')
+        File file = File.createTempFile('big5D', '.ncube')
+        try
+        {
+            file.bytes = ncube.cubeAsBinaryBytes
+            NCube mapped = NCube.createCubeFromBinaryFile(file)
+            assert mapped.sha1() == ncube.sha1()
+        }
+        finally
+        {
+            file.delete()
+        }
+
+        try
+        {
+            NCube.createCubeFromBinary(ByteBuffer.wrap('{"ncube": "x"}'.getBytes('UTF-8')))
+            fail()
+        }
+        catch (IllegalArgumentException e)
+        {
+            assert e.message.contains('binary')
+        }
+
+        // Cells sharing a pooled Date or byte[] value each get their own instance
+        NCube shared = NCube.fromSimpleJson('''{
+  "ncube": "sharedValues",
+  "axes": [ {"name": "code", "type": "DISCRETE", "valueType": "STRING", "preferredOrder": 1, "hasDefault": false,
+             "columns": [ {"id": 1, "value": "a"}, {"id": 2, "value": "b"}, {"id": 3, "value": "c"}, {"id": 4, "value": "d"} ] } ],
+  "cells": [ {"id": [1], "type": "date", "value": "2016-06-30"},
+             {"id": [2], "type": "date", "value": "2016-06-30"},
+             {"id": [3], "type": "binary", "value": "0102"},
+             {"id": [4], "type": "binary", "value": "0102"} ]
+}''')
+        NCube binary = NCube.createCubeFromBinary(ByteBuffer.wrap(shared.cubeAsBinaryBytes))
+        Date a = (Date) binary.getCell([code: 'a'])
+        Date b = (Date) binary.getCell([code: 'b'])
+        assert !a.is(b)
+        a.time = 0L
+        assert b.time != 0L
+        byte[] c = (byte[]) binary.getCell([code: 'c'])
+        byte[] d = (byte[]) binary.getCell([code: 'd'])
+        assert !c.is(d)
+        c[0] = (byte) 9
+        assert d[0] == (byte) 1
+    }
+
+    @Test
+    void testLazyCellHydration()
+    {
+        String json = '''{
+  "ncube": "lazyCells",
+  "axes": [ {"name": "code", "type": "DISCRETE", "valueType": "STRING", "preferredOrder": 1, "hasDefault": false,
+             "columns": [ {"id": 1, "value": "a"}, {"id": 2, "value": "b"}, {"id": 3, "value": "c"}, {"id": 4, "value": "d"} ] } ],
+  "cells": [ {"id": [1], "type": "exp", "value": "input.x + 1"},
+             {"id": [2], "type": "date", "value": "2016-06-30"},
+             {"id": [3], "type": "string", "url": "files/text.txt"},
+             {"id": [4], "value": 42} ]
+}'''
+        NCube eager = NCube.fromSimpleJson(json)
+        assert !eager.cells.hasUnparsed()
+
+        NCube.lazyCellHydration = true
+        try
+        {
+            NCube lazy = NCube.fromSimpleJson(json)
+            assert lazy.cells.hasUnparsed()
+            assert lazy.numCells == 4
+            assert lazy.getCellNoExecute([code: 'd'] as Map) == 42L
+            GroovyExpression exp = (GroovyExpression) lazy.getCellNoExecute([code: 'a'] as Map)
+            assert exp.cmd == 'input.x + 1'
+            assert lazy.getCellNoExecute([code: 'a'] as Map).is(exp)
+            assert lazy.getCellNoExecute([code: 'b'] as Map) instanceof Date
+            assert lazy.cells.hasUnparsed()
+
+            assert lazy.sha1() == eager.sha1()
+            assert !lazy.cells.hasUnparsed()
+            assert lazy.toFormattedJson() == eager.toFormattedJson()
+
+            NCube binary = NCube.createCubeFromBinary(ByteBuffer.wrap(eager.cubeAsBinaryBytes))
+            assert binary.cells.hasUnparsed()
+            assert binary.getCellMap().size() == 4
+            assert !binary.cells.hasUnparsed()
+            assert binary.sha1() == eager.sha1()
+
+            // A malformed value is reported when the cell is read, not when the n-cube is loaded
+            NCube bad = NCube.fromSimpleJson(json.replace('"type": "date", "value": "2016-06-30"', '"type": "binary", "value": "ABC"'))
+            try
+            {
+                bad.getCellNoExecute([code: 'b'] as Map)
+                fail()
+            }
+            catch (IllegalArgumentException e)
+            {
+                assert e.message.contains('even number')
+            }
+        }
+        finally
+        {
+            NCube.lazyCellHydration = false
+        }
+
+        // Concurrent first reads parse the payload once and all see the same value
+        final AtomicInteger parses = new AtomicInteger()
+        final UnparsedCell cell = new UnparsedCell() {
+            protected Object parse()
+            {
+                parses.incrementAndGet()
+                Thread.sleep(20)
+                return new Date()
+            }
+        }
+        List<Object> seen = Collections.synchronizedList(new ArrayList<Object>())
+        List<Thread> threads = []
+        for (int i = 0; i < 8; i++)
+        {
+            threads.add(Thread.start { seen.add(cell.value()) })
+        }
+        threads.each { Thread t -> t.join() }
+        assert parses.get() == 1
+        assert seen.size() == 8
+        assert seen.every { it.is(seen[0]) }
+    }
+
+    @Test
+    void testParallelHydration()
+    {
+        Axis row = new Axis('row', AxisType.DISCRETE, AxisValueType.LONG, false)
+        Axis col = new Axis('col', AxisType.DISCRETE, AxisValueType.LONG, true)
+        NCube ncube = new NCube('parallelLoad')
+        ncube.addAxis(row)
+        ncube.addAxis(col)
+        for (long i = 0; i < 200; i++)
+        {
+            ncube.addColumn('row', i)
+        }
+        for (long i = 0; i < 100; i++)
+        {
+            ncube.addColumn('col', i)
+        }
+        for (long r = 0; r < 200; r++)
+        {
+            for (long c = 0; c <= 100; c++)
+            {
+                Map coord = c == 100 ? [row: r] : [row: r, col: c]
+                Object value = (r + c) % 7 == 0 ? new GroovyExpression('input.row * ' + c, null, false) : (Object) (r * 1000 + c)
+                ncube.setCell(value, coord)
+            }
+        }
+        assert ncube.numCells > NCube.PARALLEL_HYDRATION_THRESHOLD
+        String json = ncube.toFormattedJson()
+
+        long start = System.nanoTime()
+        NCube sequential = NCube.fromSimpleJson(json)
+        long sequentialTime = System.nanoTime() - start
+
+        ForkJoinPool pool = new ForkJoinPool(4)
+        NCube.hydrationExecutor = pool
+        try
+        {
+            assert NCube.hydrationParallelism == 4
+            start = System.nanoTime()
+            NCube streamed = NCube.fromSimpleJson(json)
+            long parallelTime = System.nanoTime() - start
+            println("load " + ncube.numCells + " cells, sequential = " + (sequentialTime / 1000000.0) + " ms, parallel = " + (parallelTime / 1000000.0) + " ms")
+
+            NCube mapped = NCube.hydrateCube((Map) JsonReader.jsonToJava(json, [(JsonReader.USE_MAPS):true] as Map))
+            for (NCube loaded : [streamed, mapped])
+            {
+                assert loaded.numCells == ncube.numCells
+                assert loaded.sha1() == sequential.sha1()
+                assert loaded.sha1() == ncube.sha1()
+                assert loaded.getCellNoExecute([row: 3L, col: 4L] as Map) instanceof GroovyExpression
+                assert loaded.getCellNoExecute([row: 6L] as Map) == 6100L
+            }
+
+            // Entries given by 'id' and by 'key' for the same cell: the later one wins, as on a single thread
+            Map parsed = (Map) JsonReader.jsonToJava(json, [(JsonReader.USE_MAPS):true] as Map)
+            List cells = new ArrayList(Arrays.asList((Object[]) parsed.cells))
+            cells.add(keyCell(5L, 5L, 'key'))
+            cells.add(idCell(ncube, 5L, 5L, 'id'))
+            cells.add(idCell(ncube, 6L, 6L, 'id'))
+            cells.add(keyCell(6L, 6L, 'key'))
+            parsed.cells = cells.toArray()
+            NCube mixed = NCube.hydrateCube(parsed)
+            assert mixed.numCells == ncube.numCells
+            assert mixed.getCellNoExecute([row: 5L, col: 5L] as Map) == 'id'
+            assert mixed.getCellNoExecute([row: 6L, col: 6L] as Map) == 'key'
+
+            // An invalid cell value fails the load, as it does on a single thread
+            String bad = json.replace('"value":14001}', '"type":"binary","value":"ABC"}')
+            assert bad != json
+            try
+            {
+                NCube.fromSimpleJson(bad)
+                fail()
+            }
+            catch (IllegalArgumentException e)
+            {
+                assert e.message.contains('even number')
+            }
+        }
+        finally
+        {
+            NCube.hydrationExecutor = null
+            pool.shutdown()
+        }
+    }
+
+    private static JsonObject keyCell(long row, long col, Object value)
+    {
+        JsonObject key = new JsonObject()
+        key.put('row', row)
+        key.put('col', col)
+        JsonObject cell = new JsonObject()
+        cell.put('key', key)
+        cell.put('value', value)
+        return cell
+    }
+
+    private static JsonObject idCell(NCube ncube, long row, long col, Object value)
+    {
+        JsonObject cell = new JsonObject()
+        cell.put('id', [ncube.getAxis('row').findColumn(row).id, ncube.getAxis('col').findColumn(col).id] as Object[])
+        cell.put('value', value)
+        return cell
+    }
+
+    @Test
+    void testWriteCube()
+    {
+        NCube ncube = NCubeManager.getNCubeFromResource('big5D.json')
+        final AtomicBoolean closed = new AtomicBoolean()
+        ByteArrayOutputStream out = new ByteArrayOutputStream() {
+            void close()
+            {
+                closed.set(true)
+            }
+        }
+        ncube.writeCube(out, null)
+        assert !closed.get()
+        assert NCube.createCubeFromBytes(out.toByteArray()).sha1() == ncube.sha1()
+        assert out.toByteArray() == ncube.cubeAsGzipJsonBytes
+
+        ByteArrayOutputStream stored = new ByteArrayOutputStream()
+        ncube.writeCube(stored, [(NCube.WRITE_DEFLATE_LEVEL): 0, (NCube.WRITE_BUFFER_SIZE): 512] as Map)
+        ByteArrayOutputStream best = new ByteArrayOutputStream()
+        ncube.writeCube(best, [(NCube.WRITE_DEFLATE_LEVEL): 9] as Map)
+        assert best.size() < stored.size()
+        assert NCube.createCubeFromBytes(stored.toByteArray()).sha1() == ncube.sha1()
+        assert NCube.createCubeFromBytes(best.toByteArray()).sha1() == ncube.sha1()
+
+        ByteArrayOutputStream plain = new ByteArrayOutputStream()
+        ncube.writeCube(Channels.newChannel(plain), [(NCube.WRITE_GZIP): false] as Map)
+        assert new String(plain.toByteArray(), 'UTF-8') == ncube.toFormattedJson()
+
+        try
+        {
+            ncube.writeCube(new ByteArrayOutputStream(), [(NCube.WRITE_DEFLATE_LEVEL): 10] as Map)
+            fail()
+        }
+        catch (IllegalArgumentException e)
+        {
+            assert e.message.contains('deflate level')
+        }
+
+        // A failing stream is reported, also when it fails on the end of the gzip stream or the last flush
+        List<OutputStream> failing = [
+                new ByteArrayOutputStream() {
+                    void write(byte[] b, int off, int len)
+                    {
+                        if (size() + len > 10)      // past the gzip header
+                        {
+                            throw new IOException('disk full')
+                        }
+                        super.write(b, off, len)
+                    }
+                },
+                new ByteArrayOutputStream() {
+                    void flush()
+                    {
+                        throw new IOException('connection reset')
+                    }
+                }
+        ]
+        for (OutputStream sink : failing)
+        {
+            for (Map options : [null, [(NCube.WRITE_GZIP): false]])
+            {
+                try
+                {
+                    NCubeManager.getNCubeFromResource('testCube6.json').writeCube(sink, options)
+                    fail()
+                }
+                catch (IllegalStateException e)
+                {
+                    assert e.message.contains('Error writing cube')
+                }
+            }
+        }
+    }
+
+    @Test
+    void testDuplicateIsStructural()
+    {
+        NCube ncube = NCubeManager.getNCubeFromResource('testCube6.json')
+        ncube.setCell(new GroovyExpression('input.age * 2', null, false), [gender: 'Male'] as Map)
+        ncube.setCell([1, 2, 3] as byte[], [gender: 'Female'] as Map)
+
+        NCube copy = ncube.duplicate(ncube.name)
+        assert copy.sha1() == ncube.sha1()
+        assert copy.toFormattedJson() == ncube.toFormattedJson()
+        assert copy.getCellNoExecute([gender: 'Male'] as Map).is(ncube.getCellNoExecute([gender: 'Male'] as Map))
+        byte[] bytes = (byte[]) copy.getCellNoExecute([gender: 'Female'] as Map)
+        assert !bytes.is(ncube.getCellNoExecute([gender: 'Female'] as Map))
+        assert bytes == [1, 2, 3] as byte[]
+        assert copy.defaultCellValue == ncube.defaultCellValue
+        assert !copy.defaultCellValue.is(ncube.defaultCellValue)
+
+        // The copy is independent of the original
+        String sha1 = ncube.sha1()
+        int numColumns = ncube.getAxis('gender').columns.size()
+        copy.setCell('changed', [gender: 'Male'] as Map)
+        copy.addColumn('gender', 'Other')
+        copy.getAxis('gender').setMetaProperty('note', 'copy only')
+        copy.setMetaProperty('note', 'copy only')
+        assert ncube.sha1() == sha1
+        assert ncube.getCellNoExecute([gender: 'Male'] as Map) instanceof GroovyExpression
+        assert ncube.getAxis('gender').columns.size() == numColumns
+        assert ncube.getAxis('gender').getMetaProperty('note') == null
+        assert ncube.getMetaProperty('note') == null
+
+        // Mutable meta-property values are copied
+        ncube.setMetaProperty('list', ['a', [b: 'c']])
+        NCube metaCopy = ncube.duplicate('metaCopy')
+        ((List) metaCopy.getMetaProperty('list')).add('d')
+        ((Map) ((List) metaCopy.getMetaProperty('list'))[1]).put('e', 'f')
+        assert ncube.getMetaProperty('list') == ['a', [b: 'c']]
+
+        // The copy of a frozen n-cube has its own, modifiable axes
+        ncube.freeze()
+        NCube fromFrozen = ncube.duplicate('frozenCopy')
+        fromFrozen.addColumn('gender', 'Other')
+        fromFrozen.getAxis('gender').setMetaProperty('note', 'copy only')
+        fromFrozen.getAxis('gender').addColumn('Unknown')
+        assert fromFrozen.getAxis('gender').columns.size() == numColumns + 2
+        assert ncube.getAxis('gender').columns.size() == numColumns
+        assert ncube.getAxis('gender').getMetaProperty('note') == null
+        assert ncube.isFrozen()
+        assert !fromFrozen.isFrozen()
+    }
+
+    @Test
+    void testDuplicatePerformance()
+    {
+        NCube ncube = NCubeManager.getNCubeFromResource('big5D.json')
+        int count = 100
+        long start = System.nanoTime()
+        for (int i = 0; i < count; i++)
+        {
+            NCube copy = NCube.createCubeFromBytes(ncube.cubeAsGzipJsonBytes)
+            copy.name = 'copy'
+        }
+        long jsonTime = System.nanoTime() - start
+
+        start = System.nanoTime()
+        NCube copy = null
+        for (int i = 0; i < count; i++)
+        {
+            copy = ncube.duplicate('copy')
+        }
+        long structuralTime = System.nanoTime() - start
+        println("duplicate " + ncube.numCells + " cells " + count + " times, JSON round trip = " + (jsonTime / 1000000.0) + " ms, structural = " + (structuralTime / 1000000.0) + " ms")
+
+        copy.name = ncube.name
+        assert copy.sha1() == ncube.sha1()
+    }
+
+    @Test
+    void testStreamingLoadMembersAfterCells()
+    {
+        String json = '''{
+  "ncube": "cellsFirst",
+  "defaultCellValueType": "double",
+  "axes": [ {"name": "code", "type": "DISCRETE", "valueType": "STRING", "preferredOrder": 1, "hasDefault": false,
+             "columns": [ {"id": 1, "value": "a"}, {"id": 2, "value": "b"} ] } ],
+  "cells": [ {"id": [1], "value": "x"} ],
+  "defaultCellValue": "1.5",
+  "note": {"type": "long", "value": 12345678901234},
+  "owner": "team"
+}'''
+        NCube ncube = NCube.fromSimpleJson(json)
+        assert ncube.getCell([code: 'a'] as Map) == 'x'
+        assert ncube.getCell([code: 'b'] as Map) == 1.5d
+        assert ncube.defaultCellValue == 1.5d
+        assert ncube.getMetaProperty('note') == 12345678901234L
+        assert ncube.getMetaProperty('owner') == 'team'
+        assert !ncube.metaProperties.containsKey('defaultCellValue')
+
+        NCube mapped = NCube.hydrateCube((Map) JsonReader.jsonToJava(json, [(JsonReader.USE_MAPS):true] as Map))
+        assert ncube.sha1() == mapped.sha1()
+    }
+
     @Test
     void testMergeOtherWithContentIntoEmpty()
     {
@@ -6,6 +6,9 @@ import org.junit.After
 import org.junit.Before
 import org.junit.Test
 
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+
 import static org.junit.Assert.assertEquals
 import static org.junit.Assert.assertFalse
 import static org.junit.Assert.assertNotNull
@@ -952,6 +955,319 @@ class TestRuleEngine
         assert ret == 'B1 fired'
     }
 
+    @Test
+    void testConditionsRunOncePerExecution()
+    {
+        NCube ncube = new NCube('ruleBindings')
+        Axis state = new Axis('state', AxisType.DISCRETE, AxisValueType.STRING, false)
+        state.addColumn('OH')
+        Axis letter = new Axis('letter', AxisType.RULE, AxisValueType.EXPRESSION, true, Axis.DISPLAY)
+        Axis number = new Axis('number', AxisType.RULE, AxisValueType.EXPRESSION, false, Axis.DISPLAY)
+        Map<Long, String> labels = [:]
+        [A: 'true', B: 'false', C: 'true'].each { String label, String answer ->
+            labels[letter.addColumn(new GroovyExpression("output.runs << '${label}'; ${answer}", null, false), label).id] = label
+        }
+        labels[letter.defaultColumn.id] = 'D'
+        [1: 'true', 2: 'input.two'].each { Integer label, String answer ->
+            labels[number.addColumn(new GroovyExpression("output.runs << '${label}'; ${answer}", null, false), "r${label}").id] = label as String
+        }
+        ncube.addAxis(state)
+        ncube.addAxis(letter)
+        ncube.addAxis(number)
+        for (Column l : letter.columns)
+        {
+            for (Column n : number.columns)
+            {
+                ncube.setCellById(labels[l.id] + labels[n.id], [state.columns[0].id, l.id, n.id] as Set)
+            }
+        }
+
+        Map output = [runs: []]
+        assert 'C2' == ncube.getCell([state: 'OH', two: true], output)
+        assert ['A', '1', '2', 'B', 'C'] == output.runs
+        List<Binding> bindings = NCube.getRuleInfo(output).getAxisBindings()
+        assert ['A1', 'A2', 'C1', 'C2'] == bindings.collect { it.value }
+        assert ['state', 'letter', 'number'] == bindings[0].coordinate.keySet().toList()
+        assert 'A' == bindings[0].coordinate.letter.columnName
+
+        output = [runs: []]
+        assert 'C1' == ncube.getCell([state: 'OH', two: false, letter: 'B'], output)
+        assert ['B', 'C', '1', '2'] == output.runs
+
+        // Only the first condition that fires on a non fireAll axis is bound
+        letter.fireAll = false
+        output = [runs: []]
+        assert 'A2' == ncube.getCell([state: 'OH', two: true], output)
+        assert ['A', '1', '2'] == output.runs
+        assert ['A1', 'A2'] == NCube.getRuleInfo(output).getAxisBindings().collect { it.value }
+
+        // Default column fires when no other condition on the axis did
+        output = [runs: []]
+        assert 'D2' == ncube.getCell([state: 'OH', two: true, letter: 'none'], output)
+        assert ['1', '2'] == output.runs
+
+        try
+        {
+            ncube.getCell([state: 'OH', two: false, number: 'r2'], [runs: []])
+            fail()
+        }
+        catch (CoordinateNotFoundException e)
+        {
+            assert e.message.contains('rule axis: number')
+        }
+    }
+
+    private static NCube indexedRuleCube(boolean indexable)
+    {
+        List<String> conditions = [
+                "input.state == 'OH'",
+                "'TX' != input.state",
+                "input['state'] in ['OH', \"IN\"]",
+                "input.age > 25",
+                "input.age >= 18 && input.age < 30",
+                "65 <= input?.age",
+                "input.age == 42.0",
+                "input.age < -1.5 && input.state == 'OH';",
+                "input.state == 'OH' || input.age > 25",    // not indexed
+                "input.age == 010"                          // not indexed (octal in Groovy)
+        ]
+        NCube ncube = new NCube(indexable ? 'indexed' : 'executed')
+        Axis rule = new Axis('rule', AxisType.RULE, AxisValueType.EXPRESSION, false, Axis.DISPLAY)
+        conditions.eachWithIndex { String condition, int i ->
+            rule.addColumn(new GroovyExpression(indexable ? condition : "(${condition - ';'})", null, false), "r${i}")
+        }
+        ncube.addAxis(rule)
+        rule.columns.each { Column column -> ncube.setCellById(column.columnName, [column.id] as Set) }
+        return ncube
+    }
+
+    @Test
+    void testRuleIndexMatchesExecutedConditions()
+    {
+        NCube indexed = indexedRuleCube(true)
+        NCube executed = indexedRuleCube(false)
+        Axis rule = indexed.getAxis('rule')
+        assert rule.getRuleIndex() != null
+        assert executed.getAxis('rule').getRuleIndex() == null
+        RuleIndex.Probe probe = rule.getRuleIndex().probe([state: 'OH', age: 20])
+        assert rule.columns.collect { Column column -> probe.test(column.id) } ==
+                [1, 1, 1, 0, 1, 0, 0, 0, RuleIndex.UNKNOWN, RuleIndex.UNKNOWN]
+
+        String state = 'O'
+        List<Map> inputs = [
+                [state: 'OH', age: 20], [state: 'TX', age: 26], [state: 'IN', age: 65L], [state: 'OH', age: 42.00G],
+                [state: 'OH', age: 42.0d], [state: "${state}H", age: 29.5f], [state: 'OH', age: -2], [state: 'KY', age: 30G],
+                [state: null, age: 18 as short], [age: 64.999d], [state: 'OH', age: new BigInteger('100')],
+                [state: 'OH', age: -0.0d], [state: 'OH', age: null], [state: 'OH', age: '30'], [state: 'KY', age: 8],
+                [state: 'KY', age: 10]
+        ]
+        for (Map input : inputs)
+        {
+            Map output1 = [:]
+            Map output2 = [:]
+            Throwable error1 = null
+            Throwable error2 = null
+            try
+            {
+                indexed.getCell(input, output1)
+            }
+            catch (Exception e)
+            {
+                error1 = e
+            }
+            try
+            {
+                executed.getCell(input, output2)
+            }
+            catch (Exception e)
+            {
+                error2 = e
+            }
+            assert (error1 == null) == (error2 == null), input.toString() + error2?.cause
+            RuleInfo info1 = NCube.getRuleInfo(output1)
+            RuleInfo info2 = NCube.getRuleInfo(output2)
+            assert info1.getAxisBindings().collect { it.value } == info2.getAxisBindings().collect { it.value }, input.toString()
+            assert info1.getInputKeysUsed() == info2.getInputKeysUsed()
+        }
+
+        // Index follows column changes
+        Column first = rule.findColumn('r0')
+        rule.updateColumn(first.id, new GroovyExpression("input.state == 'TX'", null, false))
+        assert rule.getRuleIndex().probe([state: 'TX']).test(first.id) == RuleIndex.TRUE
+    }
+
+    @Test
+    void testRuleIndexSeesInputChangedByCell()
+    {
+        for (boolean indexable : [true, false])
+        {
+            NCube ncube = new NCube('inputChanged')
+            Axis rule = new Axis('rule', AxisType.RULE, AxisValueType.EXPRESSION, false, Axis.DISPLAY)
+            ["input.state == 'OH'", "input.state == 'TX'", "input.state == 'OH'"].eachWithIndex { String condition, int i ->
+                rule.addColumn(new GroovyExpression(indexable ? condition : "(${condition})", null, false), "r${i}")
+            }
+            ncube.addAxis(rule)
+            List<Column> columns = rule.columns
+            ncube.setCellById(new GroovyExpression("input.state = 'TX'; output.r0 = true", null, false), [columns[0].id] as Set)
+            ncube.setCellById(new GroovyExpression("output.r1 = true", null, false), [columns[1].id] as Set)
+            ncube.setCellById(new GroovyExpression("output.r2 = true", null, false), [columns[2].id] as Set)
+            assert (rule.getRuleIndex() != null) == indexable
+
+            Map output = [:]
+            ncube.getCell([state: 'OH'], output)
+            assert output.r0
+            assert output.r1
+            assert !output.containsKey('r2')
+        }
+    }
+
+    @Test
+    void testRuleTraceOff()
+    {
+        NCube ncube = NCubeManager.getNCubeFromResource 'multiRule.json'
+        Map traced = [:]
+        ncube.getCell([age:10, weight:50], traced)
+        assert NCube.getRuleInfo(traced).getNumberOfRulesExecuted() == 4
+        assert !NCube.getRuleInfo(traced).getInputKeysUsed().isEmpty()
+
+        // Per call
+        Map output = [:]
+        NCube.getRuleInfo(output).setTrace(false)
+        ncube.getCell([age:10, weight:50], output)
+        assert output.weight == traced.weight
+        assert output.age == traced.age
+        assert output.return == traced.return
+        RuleInfo ruleInfo = NCube.getRuleInfo(output)
+        assert ruleInfo.getAxisBindings().isEmpty()
+        assert ruleInfo.getInputKeysUsed().isEmpty()
+
+        // Per n-cube, sampling 1 in 3 executions
+        ncube.setMetaProperty(NCube.RULE_TRACE, 3)
+        List<Integer> rulesExecuted = (1..6).collect {
+            output = [:]
+            ncube.getCell([age:10, weight:50], output)
+            assert output.weight == traced.weight
+            NCube.getRuleInfo(output).getAxisBindings().size()
+        }
+        assert rulesExecuted == [4, 0, 0, 4, 0, 0]
+
+        // The call chain setting wins over the n-cube setting
+        ncube.setMetaProperty(NCube.RULE_TRACE, false)
+        output = [:]
+        ncube.getCell([age:10, weight:50], output)
+        assert NCube.getRuleInfo(output).getAxisBindings().isEmpty()
+        output = [:]
+        NCube.getRuleInfo(output).setTrace(true)
+        ncube.getCell([age:10, weight:50], output)
+        assert NCube.getRuleInfo(output).getAxisBindings().size() == 4
+    }
+
+    @Test
+    void testConditionsEvaluatedInParallel()
+    {
+        NCube ncube = new NCube('parallel')
+        Axis rule = new Axis('rule', AxisType.RULE, AxisValueType.EXPRESSION, false, Axis.DISPLAY, 1, true)
+        List<String> conditions = [
+                "input.age > 10 || input.state == 'OH'",
+                "input.age > 20 || input.state == 'TX'",
+                "input.age > 30 || input.state == 'IN'",
+                "if (input.age > 40) { throw new IllegalArgumentException('never reached') }; true",
+                "input.age < 50 || input.state == 'KY'"
+        ]
+        conditions.eachWithIndex { String condition, int i ->
+            Column column = rule.addColumn(new GroovyExpression(condition, null, false), "r${i}")
+            column.setMetaProperty(Column.SIDE_EFFECT_FREE, true)
+        }
+        ncube.addAxis(rule)
+        rule.columns.eachWithIndex { Column column, int i ->
+            String stop = i == 2 ? 'if (input.age < 50) { ruleStop() }; ' : ''
+            ncube.setCellById(new GroovyExpression("${stop}output.fired = (output.fired ?: []) + '${column.columnName}'", null, false), [column.id] as Set)
+        }
+
+        List<Map> inputs = [[age: 5, state: 'OH'], [age: 25, state: 'TX'], [age: 45], [age: 60, state: 'KY'], [age: 35, state: 'IN']]
+        List<List> sequential = inputs.collect { Map input ->
+            Map output = [:]
+            try
+            {
+                ncube.getCell(input, output)
+            }
+            catch (Exception e)
+            {
+                output.error = e.class
+            }
+            [output.fired, output.error, NCube.getRuleInfo(output).getAxisBindings().collect { it.value }, NCube.getRuleInfo(output).getInputKeysUsed()]
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4)
+        NCube.setConditionExecutor(executor)
+        try
+        {
+            assert NCube.getConditionExecutor() == executor
+            List<List> parallel = inputs.collect { Map input ->
+                Map output = [:]
+                try
+                {
+                    ncube.getCell(input, output)
+                }
+                catch (Exception e)
+                {
+                    output.error = e.class
+                }
+                [output.fired, output.error, NCube.getRuleInfo(output).getAxisBindings().collect { it.value }, NCube.getRuleInfo(output).getInputKeysUsed()]
+            }
+            assert parallel == sequential
+            assert sequential[0][0] == ['r0', 'r3', 'r4']
+            assert sequential[2][0] == ['r0', 'r1']     // r2 stops the rules before the throwing condition
+            assert sequential[3][1] != null
+        }
+        finally
+        {
+            NCube.setConditionExecutor(null)
+            executor.shutdown()
+        }
+    }
+
+    @Test
+    void testNestedConditionsOnSingleThreadExecutor()
+    {
+        NCube inner = new NCube('inner')
+        Axis innerRule = new Axis('rule', AxisType.RULE, AxisValueType.EXPRESSION, false, Axis.DISPLAY, 1, true)
+        ['(input.age > 10)', '(input.age > 20)'].eachWithIndex { String condition, int i ->
+            Column column = innerRule.addColumn(new GroovyExpression(condition, null, false), "i${i}")
+            column.setMetaProperty(Column.SIDE_EFFECT_FREE, true)
+        }
+        inner.addAxis(innerRule)
+        innerRule.columns.each { Column column -> inner.setCellById(new GroovyExpression("'yes'", null, false), [column.id] as Set) }
+
+        NCube outer = new NCube('outer')
+        Axis rule = new Axis('rule', AxisType.RULE, AxisValueType.EXPRESSION, false, Axis.DISPLAY, 1, true)
+        ["input.inner.getCell([age: input.age]) == 'yes'", "input.inner.getCell([age: input.age + 1]) == 'yes'"].eachWithIndex { String condition, int i ->
+            Column column = rule.addColumn(new GroovyExpression(condition, null, false), "r${i}")
+            column.setMetaProperty(Column.SIDE_EFFECT_FREE, true)
+        }
+        outer.addAxis(rule)
+        rule.columns.each { Column column ->
+            outer.setCellById(new GroovyExpression("output.fired = (output.fired ?: []) + '${column.columnName}'", null, false), [column.id] as Set)
+        }
+
+        // The inner n-cube's (not indexed) conditions are reached from a condition running on the executor's only thread
+        ExecutorService executor = Executors.newFixedThreadPool(1)
+        NCube.setConditionExecutor(executor)
+        try
+        {
+            Map output = [:]
+            Thread caller = Thread.start { outer.getCell([age: 30, inner: inner], output) }
+            caller.join(30000)
+            assert !caller.isAlive()
+            assert output.fired == ['r0', 'r1']
+        }
+        finally
+        {
+            NCube.setConditionExecutor(null)
+            executor.shutdownNow()
+        }
+    }
+
     @Test
     void testRuleFire()
     {